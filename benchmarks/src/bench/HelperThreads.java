@@ -0,0 +1,78 @@
+/*
+ * Copyright 2021 Synopsys Inc. All rights reserved.
+ * This file is confidential material. Unauthorized distribution prohibited.
+ */
+package bench;
+
+import java.util.concurrent.Phaser;
+import java.util.function.IntConsumer;
+
+//JMH的线程数只能用@Threads或者-t设置，不能和@Param组合起来扫一遍，
+//需要按线程数扫的基准测试用它：构造时启动count个常驻线程，每次run()让它们同时各执行一遍body，全部结束才返回
+//线程只在构造时创建一次，测量的时候不包含创建线程的开销
+public final class HelperThreads implements AutoCloseable {
+
+  private final Phaser phaser;
+
+  private final Thread[] threads;
+
+  private volatile boolean closed;
+
+  //body抛出的第一个异常，run()结束的时候抛给调用者
+  private volatile RuntimeException failure;
+
+  //body的参数是线程的下标，从0到count-1
+  public HelperThreads(int count, IntConsumer body) {
+    if (count <= 0) {
+      throw new IllegalArgumentException();
+    }
+    this.phaser = new Phaser(count + 1);
+    this.threads = new Thread[count];
+    for (int i = 0; i < count; i++) {
+      int index = i;
+      threads[i] = new Thread(() -> {
+        while (true) {
+          //等run()放行
+          phaser.arriveAndAwaitAdvance();
+          if (closed) {
+            return;
+          }
+          try {
+            body.accept(index);
+          } catch (RuntimeException e) {
+            failure = e;
+          }
+          //告诉run()这一遍结束了
+          phaser.arriveAndAwaitAdvance();
+        }
+      }, "bench-helper-" + i);
+      threads[i].setDaemon(true);
+      threads[i].start();
+    }
+  }
+
+  //所有线程同时开始执行一遍body，等它们都执行完
+  public void run() {
+    phaser.arriveAndAwaitAdvance();
+    phaser.arriveAndAwaitAdvance();
+    RuntimeException e = failure;
+    if (e != null) {
+      failure = null;
+      throw e;
+    }
+  }
+
+  //让所有线程退出，等待的时候被中断就恢复中断标志直接返回
+  @Override
+  public void close() {
+    closed = true;
+    phaser.arriveAndAwaitAdvance();
+    try {
+      for (Thread thread : threads) {
+        thread.join();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
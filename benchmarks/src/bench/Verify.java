@@ -0,0 +1,18 @@
+/*
+ * Copyright 2021 Synopsys Inc. All rights reserved.
+ * This file is confidential material. Unauthorized distribution prohibited.
+ */
+package bench;
+
+//基准测试在setup里先把被测的实现跑一遍，和顺序算出来的结果比较，结果错了测出来的速度也没有意义
+public final class Verify {
+
+  private Verify() {
+  }
+
+  public static void equal(long actual, long expected, String what) {
+    if (actual != expected) {
+      throw new IllegalStateException(what + " 结果错误: " + actual + "，应该是 " + expected);
+    }
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2021 Synopsys Inc. All rights reserved.
+ * This file is confidential material. Unauthorized distribution prohibited.
+ */
+package chapter08.aqs;
+
+import bench.HelperThreads;
+import bench.Verify;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+//AdaptiveLock和JDK的ReentrantLock、TestAqs里的MyLock做对比
+//每个线程反复 加锁 -> 临界区里做work步计算 -> 解锁 -> 锁外面再做work步计算，一次调用所有线程一共加锁OPS次，单位是加锁次数/秒
+//临界区越短，park/unpark的开销占比越大，自旋的收益越明显；临界区长到几十微秒以后AdaptiveLock就不再自旋，和ReentrantLock差不多
+//公平锁每次都要排队，吞吐量会低很多，这是先来先得的代价
+//只有一个CPU的机器上AdaptiveLock不自旋，结果只能看出额外的开销，要在多核机器上跑才有意义
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LockBenchmark {
+
+  static final int OPS = 1 << 16;
+
+  @Param({"AdaptiveLock", "AdaptiveLock-fair", "ReentrantLock", "ReentrantLock-fair", "MyLock"})
+  public String impl;
+
+  //临界区里的计算步数，一步大约一纳秒
+  @Param({"0", "20", "200", "2000"})
+  public int work;
+
+  //OPS要能被它整除
+  @Param({"1", "2", "4", "8", "16"})
+  public int threads;
+
+  //被保护的共享状态，只在持有锁的时候读写
+  private static final class Counter {
+    long count;
+    long seed = 1;
+  }
+
+  private final Counter counter = new Counter();
+
+  //到目前为止应该加锁的次数，每次调用结束和counter.count比较，锁没有互斥的话直接报错
+  private long expected;
+
+  private HelperThreads workers;
+
+  @Setup
+  public void setup() {
+    Lock lock = newLock(impl);
+    int perThread = OPS / threads;
+    int steps = work;
+    workers = new HelperThreads(threads, index -> {
+      long local = index + 1;
+      for (int n = 0; n < perThread; n++) {
+        lock.lock();
+        try {
+          counter.seed = spend(counter.seed, steps);
+          counter.count++;
+        } finally {
+          lock.unlock();
+        }
+        //锁外面也做同样多的计算，不然线程一解锁马上又来抢，测的只是锁的交接
+        local = spend(local, steps);
+      }
+      //防止锁外面的计算被JIT当成死代码消掉
+      if (local == 42) {
+        System.out.print("");
+      }
+    });
+  }
+
+  private static Lock newLock(String impl) {
+    switch (impl) {
+      case "AdaptiveLock":
+        return new AdaptiveLock();
+      case "AdaptiveLock-fair":
+        return new AdaptiveLock(true);
+      case "ReentrantLock":
+        return new ReentrantLock();
+      case "ReentrantLock-fair":
+        return new ReentrantLock(true);
+      default:
+        return new MyLock();
+    }
+  }
+
+  //线性同余，每一步依赖上一步的结果，编译器没法合并或者并行，大约一纳秒一步
+  private static long spend(long x, int steps) {
+    for (int i = 0; i < steps; i++) {
+      x = x * 6364136223846793005L + 1442695040888963407L;
+    }
+    return x;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(OPS)
+  public void contended() {
+    workers.run();
+    //run()返回之前所有线程都已经到达Phaser，它们对counter的写这里都能看到
+    expected += OPS;
+    Verify.equal(counter.count, expected, impl);
+  }
+
+  @TearDown
+  public void tearDown() {
+    workers.close();
+  }
+}
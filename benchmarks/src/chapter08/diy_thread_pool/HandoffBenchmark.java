@@ -0,0 +1,81 @@
+/*
+ * Copyright 2021 Synopsys Inc. All rights reserved.
+ * This file is confidential material. Unauthorized distribution prohibited.
+ */
+package chapter08.diy_thread_pool;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+//一个任务从execute到开始执行的延迟：唯一的worker空闲着，提交一个任务，自旋等到它开始执行
+//SampleTime模式会报告p50/p99等分位数；每次调用之前先等一会儿，让worker回到等待状态，这段时间不计入结果
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HandoffBenchmark {
+
+  @Param({"ThreadPool", "ThreadPoolExecutor"})
+  public String impl;
+
+  private volatile boolean started;
+
+  private final Runnable task = () -> started = true;
+
+  private ThreadPool pool;
+  private ThreadPoolExecutor executor;
+
+  @Setup
+  public void setup() {
+    if (impl.equals("ThreadPool")) {
+      pool = new ThreadPool(1, 1, 60, TimeUnit.SECONDS, new DequeBlockingQueue<>(1024), 1024,
+          (queue, t) -> queue.put(t));
+    } else {
+      executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(1024));
+    }
+  }
+
+  @Setup(Level.Invocation)
+  public void idle() {
+    LockSupport.parkNanos(10_000);
+  }
+
+  @Benchmark
+  public void handoff() {
+    started = false;
+    if (pool != null) {
+      pool.execute(task);
+    } else {
+      executor.execute(task);
+    }
+    while (!started) {
+      Thread.onSpinWait();
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    if (pool != null) {
+      pool.shutdown();
+    } else {
+      executor.shutdown();
+    }
+  }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2021 Synopsys Inc. All rights reserved.
+ * This file is confidential material. Unauthorized distribution prohibited.
+ */
+package chapter08.diy_thread_pool;
+
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+//ThreadPoolTest里演示的五种拒绝策略，ThreadPool和ThreadPoolExecutor各实现一遍
+//dropped记录被放弃的任务数，这样才知道什么时候所有任务都处理完了
+public enum Policy {
+  BLOCK, TIMED_OFFER, DISCARD, ABORT, CALLER_RUNS;
+
+  RejectPolicy<Runnable> forThreadPool(LongAdder dropped) {
+    switch (this) {
+      case BLOCK:
+        return (queue, task) -> queue.put(task);
+      case TIMED_OFFER:
+        return (queue, task) -> {
+          if (!queue.offer(task, 1, TimeUnit.MILLISECONDS)) {
+            dropped.increment();
+          }
+        };
+      case DISCARD:
+        return (queue, task) -> dropped.increment();
+      case ABORT:
+        return (queue, task) -> {
+          throw new RuntimeException("任务执行失败 " + task);
+        };
+      default:
+        return (queue, task) -> task.run();
+    }
+  }
+
+  RejectedExecutionHandler forExecutor(LongAdder dropped) {
+    switch (this) {
+      case BLOCK:
+        return (task, executor) -> {
+          try {
+            executor.getQueue().put(task);
+          } catch (InterruptedException e) {
+            e.printStackTrace();
+          }
+        };
+      case TIMED_OFFER:
+        return (task, executor) -> {
+          try {
+            if (!executor.getQueue().offer(task, 1, TimeUnit.MILLISECONDS)) {
+              dropped.increment();
+            }
+          } catch (InterruptedException e) {
+            e.printStackTrace();
+          }
+        };
+      case DISCARD:
+        return (task, executor) -> dropped.increment();
+      case ABORT:
+        return new ThreadPoolExecutor.AbortPolicy();
+      default:
+        return new ThreadPoolExecutor.CallerRunsPolicy();
+    }
+  }
+}
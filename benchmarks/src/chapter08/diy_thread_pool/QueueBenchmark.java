@@ -0,0 +1,128 @@
+/*
+ * Copyright 2021 Synopsys Inc. All rights reserved.
+ * This file is confidential material. Unauthorized distribution prohibited.
+ */
+package chapter08.diy_thread_pool;
+
+import bench.HelperThreads;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+//threads个生产者和threads个消费者同时put/take，和JDK的ArrayBlockingQueue、LinkedBlockingQueue对比
+//一次调用一共传递OPS个元素，单位是元素数/秒
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueueBenchmark {
+
+  static final int OPS = 1 << 16;
+  private static final int QUEUE_SIZE = 1024;
+  private static final Long ELEMENT = 1L;
+
+  @Param({"DequeBlockingQueue", "TwoLockBlockingQueue", "RingBlockingQueue",
+      "ArrayBlockingQueue", "LinkedBlockingQueue"})
+  public String impl;
+
+  //生产者（消费者）线程数，OPS要能被它整除
+  @Param({"1", "2", "4", "8", "16", "32", "64"})
+  public int threads;
+
+  //两种阻塞队列接口不一样，统一成put/take
+  private interface Queue {
+    void put(Long element) throws InterruptedException;
+
+    Long take() throws InterruptedException;
+  }
+
+  private HelperThreads workers;
+
+  @Setup
+  public void setup() {
+    Queue queue = newQueue(impl);
+    int perThread = OPS / threads;
+    //下标是偶数的线程是生产者，奇数的是消费者
+    workers = new HelperThreads(threads * 2, index -> {
+      try {
+        if (index % 2 == 0) {
+          for (int n = 0; n < perThread; n++) {
+            queue.put(ELEMENT);
+          }
+        } else {
+          for (int n = 0; n < perThread; n++) {
+            queue.take();
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException(e);
+      }
+    });
+  }
+
+  private static Queue newQueue(String impl) {
+    switch (impl) {
+      case "DequeBlockingQueue":
+        return wrap(new DequeBlockingQueue<>(QUEUE_SIZE));
+      case "TwoLockBlockingQueue":
+        return wrap(new TwoLockBlockingQueue<>(QUEUE_SIZE));
+      case "RingBlockingQueue":
+        return wrap(new RingBlockingQueue<>(QUEUE_SIZE));
+      case "ArrayBlockingQueue":
+        return wrap(new ArrayBlockingQueue<>(QUEUE_SIZE));
+      default:
+        return wrap(new LinkedBlockingQueue<>(QUEUE_SIZE));
+    }
+  }
+
+  private static Queue wrap(BlockingQueue<Long> queue) {
+    return new Queue() {
+      public void put(Long element) {
+        queue.put(element);
+      }
+
+      public Long take() {
+        return queue.take();
+      }
+    };
+  }
+
+  private static Queue wrap(java.util.concurrent.BlockingQueue<Long> queue) {
+    return new Queue() {
+      public void put(Long element) throws InterruptedException {
+        queue.put(element);
+      }
+
+      public Long take() throws InterruptedException {
+        return queue.take();
+      }
+    };
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(OPS)
+  public void putTake() {
+    workers.run();
+  }
+
+  @TearDown
+  public void tearDown() {
+    workers.close();
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2021 Synopsys Inc. All rights reserved.
+ * This file is confidential material. Unauthorized distribution prohibited.
+ */
+package chapter08.diy_thread_pool;
+
+import bench.HelperThreads;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+//threads个线程同时提交空任务的吞吐量，和JDK的ThreadPoolExecutor对比，每种拒绝策略各跑一遍
+//一次调用提交OPS个任务，等它们全部执行完（或者被放弃）才算结束，单位是任务数/秒
+//4个worker，队列长度1024，线程数多了以后队列经常是满的，拒绝策略的开销就显现出来了
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SubmitBenchmark {
+
+  static final int OPS = 1 << 16;
+  private static final int WORKERS = 4;
+  private static final int QUEUE_SIZE = 1024;
+
+  @Param({"ThreadPool", "ThreadPoolExecutor"})
+  public String impl;
+
+  //不写取值的枚举参数JMH会把所有取值都跑一遍
+  @Param
+  public Policy policy;
+
+  //OPS要能被线程数整除
+  @Param({"1", "2", "4", "8", "16", "32", "64"})
+  public int threads;
+
+  private final LongAdder done = new LongAdder();
+  private final LongAdder dropped = new LongAdder();
+
+  private ThreadPool pool;
+  private ThreadPoolExecutor executor;
+  private HelperThreads producers;
+
+  @Setup
+  public void setup() {
+    Executor target;
+    if (impl.equals("ThreadPool")) {
+      pool = new ThreadPool(WORKERS, WORKERS, 60, TimeUnit.SECONDS,
+          new DequeBlockingQueue<>(QUEUE_SIZE), QUEUE_SIZE, policy.forThreadPool(dropped));
+      target = pool::execute;
+    } else {
+      executor = new ThreadPoolExecutor(WORKERS, WORKERS, 60, TimeUnit.SECONDS,
+          new ArrayBlockingQueue<>(QUEUE_SIZE), policy.forExecutor(dropped));
+      target = executor;
+    }
+    Runnable task = done::increment;
+    int perThread = OPS / threads;
+    producers = new HelperThreads(threads, index -> {
+      for (int n = 0; n < perThread; n++) {
+        try {
+          target.execute(task);
+        } catch (RuntimeException e) {
+          //ABORT策略抛出的异常
+          dropped.increment();
+        }
+      }
+    });
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(OPS)
+  public void submit() {
+    done.reset();
+    dropped.reset();
+    producers.run();
+    //生产者都提交完了，等worker把队列里剩下的执行完；CPU少的机器上自旋会抢worker的时间片，所以用yield
+    while (done.sum() + dropped.sum() < OPS) {
+      Thread.yield();
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    producers.close();
+    if (pool != null) {
+      pool.shutdown();
+    } else {
+      executor.shutdown();
+    }
+  }
+}
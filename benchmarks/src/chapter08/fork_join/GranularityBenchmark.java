@@ -0,0 +1,93 @@
+/*
+ * Copyright 2021 Synopsys Inc. All rights reserved.
+ * This file is confidential material. Unauthorized distribution prohibited.
+ */
+package chapter08.fork_join;
+
+import bench.Verify;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongUnaryOperator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+//RangeReducer的三种拆分策略：固定cutoff、看队列剩余任务数（SURPLUS）、边算边拆（LAZY），
+//分别在均匀的负载（求和）和不均匀的负载（前1/8的数计算量大得多）上比较
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GranularityBenchmark {
+
+  static final long SIZE = 100_000_000L;
+
+  @Param({"uniform", "skewed"})
+  public String workload;
+
+  @Param({"fixed-auto", "fixed-1024", "surplus", "lazy"})
+  public String splitting;
+
+  @Param({"1", "2", "4", "8", "16"})
+  public int threads;
+
+  private ForkJoinPool pool;
+  private RangeReducer reducer;
+  private LongUnaryOperator mapper;
+
+  @Setup
+  public void setup() {
+    long heavy = SIZE / 8;
+    //前1/8的数每个要多算几十次，固定拆分的话分到这一段的线程会拖慢整体
+    mapper = workload.equals("uniform") ? LongUnaryOperator.identity() : i -> {
+      if (i >= heavy) {
+        return i;
+      }
+      long x = i;
+      for (int k = 0; k < 32; k++) {
+        x = x * 0x9E3779B97F4A7C15L + k;
+      }
+      return x;
+    };
+    pool = new ForkJoinPool(threads);
+    switch (splitting) {
+      case "fixed-auto":
+        reducer = new RangeReducer(pool, 0, RangeReducer.Splitting.FIXED);
+        break;
+      case "fixed-1024":
+        reducer = new RangeReducer(pool, 1 << 10, RangeReducer.Splitting.FIXED);
+        break;
+      case "surplus":
+        reducer = new RangeReducer(pool, 0, RangeReducer.Splitting.SURPLUS);
+        break;
+      default:
+        reducer = new RangeReducer(pool, 0, RangeReducer.Splitting.LAZY);
+    }
+    long expected = 0;
+    for (long i = 0; i < SIZE; i++) {
+      expected += mapper.applyAsLong(i);
+    }
+    Verify.equal(mapReduce(), expected, splitting);
+  }
+
+  @TearDown
+  public void tearDown() {
+    pool.shutdown();
+  }
+
+  @Benchmark
+  public long mapReduce() {
+    return reducer.mapReduce(0, SIZE, mapper, 0, Long::sum);
+  }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2021 Synopsys Inc. All rights reserved.
+ * This file is confidential material. Unauthorized distribution prohibited.
+ */
+package chapter08.fork_join;
+
+import bench.Verify;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+//ArrayKernels的扫描、map-reduce、过滤、直方图，和顺序循环、Arrays.parallelPrefix、并行流对比
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KernelsBenchmark {
+
+  static final int SIZE = 1 << 23;
+  static final int BINS = 1024;
+  static final int MAX = 1_000_000;
+
+  private long[] a;
+  private long[] out;
+
+  //顺序算出来的正确结果
+  private long total;
+  private long squares;
+  private long multiples;
+  private int histogramHash;
+
+  @Setup
+  public void setup() {
+    a = new long[SIZE];
+    out = new long[SIZE];
+    Random random = new Random(42);
+    for (int i = 0; i < SIZE; i++) {
+      a[i] = random.nextInt(MAX);
+    }
+    long[] histogram = new long[BINS];
+    for (long v : a) {
+      total += v;
+      squares += v * v;
+      if (v % 3 == 0) {
+        multiples++;
+      }
+      histogram[(int) (v * BINS / MAX)]++;
+    }
+    histogramHash = Arrays.hashCode(histogram);
+  }
+
+  //只有并行的实现用到，顺序循环不会按线程数多跑几遍
+  @State(Scope.Benchmark)
+  public static class Pool {
+
+    @Param({"1", "2", "4", "8", "16"})
+    public int threads;
+
+    private ForkJoinPool pool;
+    private ArrayKernels kernels;
+
+    //先把每种实现跑一遍，检查结果
+    @Setup
+    public void setup(KernelsBenchmark data) {
+      pool = new ForkJoinPool(threads);
+      kernels = new ArrayKernels(pool);
+      Verify.equal(data.scan(this), data.total, "ArrayKernels.inclusiveScan");
+      Verify.equal(data.parallelPrefix(this), data.total, "Arrays.parallelPrefix");
+      Verify.equal(data.mapReduce(this), data.squares, "ArrayKernels.mapReduce");
+      Verify.equal(data.mapReduceStream(this), data.squares, "LongStream.parallel().map");
+      Verify.equal(data.filter(this), data.multiples, "ArrayKernels.filter");
+      Verify.equal(data.filterStream(this), data.multiples, "LongStream.parallel().filter");
+      Verify.equal(data.histogram(this), data.histogramHash, "ArrayKernels.histogram");
+    }
+
+    @TearDown
+    public void tearDown() {
+      pool.shutdown();
+    }
+  }
+
+  @Benchmark
+  public long scanSequential() {
+    long acc = 0;
+    for (int i = 0; i < SIZE; i++) {
+      acc += a[i];
+      out[i] = acc;
+    }
+    return out[SIZE - 1];
+  }
+
+  @Benchmark
+  public long mapReduceSequential() {
+    long acc = 0;
+    for (long v : a) {
+      acc += v * v;
+    }
+    return acc;
+  }
+
+  @Benchmark
+  public long scan(Pool p) {
+    p.kernels.inclusiveScan(a, out, 0, Long::sum);
+    return out[SIZE - 1];
+  }
+
+  @Benchmark
+  public long parallelPrefix(Pool p) {
+    return p.pool.submit(() -> {
+      System.arraycopy(a, 0, out, 0, SIZE);
+      Arrays.parallelPrefix(out, Long::sum);
+      return out[SIZE - 1];
+    }).join();
+  }
+
+  @Benchmark
+  public long mapReduce(Pool p) {
+    return p.kernels.mapReduce(a, v -> v * v, 0, Long::sum);
+  }
+
+  @Benchmark
+  public long mapReduceStream(Pool p) {
+    return p.pool.submit(() -> Arrays.stream(a).parallel().map(v -> v * v).sum()).join();
+  }
+
+  @Benchmark
+  public int filter(Pool p) {
+    return p.kernels.filter(a, v -> v % 3 == 0).length;
+  }
+
+  @Benchmark
+  public int filterStream(Pool p) {
+    return p.pool.submit(() -> Arrays.stream(a).parallel().filter(v -> v % 3 == 0).toArray().length).join();
+  }
+
+  @Benchmark
+  public int histogram(Pool p) {
+    return Arrays.hashCode(p.kernels.histogram(a, 0, MAX, BINS));
+  }
+}
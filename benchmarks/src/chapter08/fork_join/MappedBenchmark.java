@@ -0,0 +1,116 @@
+/*
+ * Copyright 2021 Synopsys Inc. All rights reserved.
+ * This file is confidential material. Unauthorized distribution prohibited.
+ */
+package chapter08.fork_join;
+
+import bench.Verify;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+//对一个long的二进制文件求和：MappedFileReducer直接在映射的内存上算，和先把整个文件读进堆里再算对比
+//文件在第一次测量之前写好，之后一直在页缓存里，测的是计算和内存带宽，不是磁盘
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MappedBenchmark {
+
+  static final long FILE_SIZE = 128L << 20;
+
+  private Path file;
+  private long expected;
+
+  @Setup
+  public void setup() throws IOException {
+    file = Files.createTempFile("mapped-benchmark", ".bin");
+    long n = FILE_SIZE / Long.BYTES;
+    //按1MB一块写出去，写的时候顺便算出正确结果
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+      ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+      Random random = new Random(42);
+      for (long i = 0; i < n; i++) {
+        long v = random.nextInt(1_000_000);
+        expected += v;
+        buffer.putLong(v);
+        if (!buffer.hasRemaining()) {
+          buffer.flip();
+          while (buffer.hasRemaining()) {
+            channel.write(buffer);
+          }
+          buffer.clear();
+        }
+      }
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    }
+    Verify.equal(readAllBytes(), expected, "readAllBytes");
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    Files.delete(file);
+  }
+
+  //只有MappedFileReducer用到，读进堆里的版本不会按线程数多跑几遍
+  @State(Scope.Benchmark)
+  public static class Pool {
+
+    @Param({"1", "2", "4", "8", "16"})
+    public int threads;
+
+    private ForkJoinPool pool;
+    private MappedFileReducer reducer;
+
+    @Setup
+    public void setup(MappedBenchmark data) throws IOException {
+      pool = new ForkJoinPool(threads);
+      reducer = new MappedFileReducer(pool);
+      Verify.equal(reducer.sum(data.file), data.expected, "MappedFileReducer");
+    }
+
+    @TearDown
+    public void tearDown() {
+      pool.shutdown();
+    }
+  }
+
+  @Benchmark
+  public long readAllBytes() throws IOException {
+    LongBuffer values = ByteBuffer.wrap(Files.readAllBytes(file)).asLongBuffer();
+    long sum = 0;
+    for (int i = 0; i < values.limit(); i++) {
+      sum += values.get(i);
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public long mapped(Pool p) throws IOException {
+    return p.reducer.sum(file);
+  }
+}
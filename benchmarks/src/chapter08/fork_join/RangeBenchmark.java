@@ -0,0 +1,84 @@
+/*
+ * Copyright 2021 Synopsys Inc. All rights reserved.
+ * This file is confidential material. Unauthorized distribution prohibited.
+ */
+package chapter08.fork_join;
+
+import bench.Verify;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.stream.LongStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+//对[0, n)求和：顺序循环、RangeReducer（自动和几种固定的cutoff）、LongStream.range(...).parallel()
+//Addtask没有放进来：它的结果是int，n大一点就溢出了，而且一亿个数要创建一亿个任务
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RangeBenchmark {
+
+  static final long SIZE = 100_000_000L;
+
+  //线程数和实现只是parallel的参数，放在单独的State里，顺序循环就不会按线程数多跑几遍
+  @State(Scope.Benchmark)
+  public static class Reducer {
+
+    @Param({"1", "2", "4", "8", "16"})
+    public int threads;
+
+    @Param({"auto", "cutoff-1024", "cutoff-65536", "cutoff-1048576", "LongStream.parallel"})
+    public String impl;
+
+    private ForkJoinPool pool;
+    private LongSupplier body;
+
+    @Setup
+    public void setup() {
+      pool = new ForkJoinPool(threads);
+      if (impl.equals("auto")) {
+        RangeReducer reducer = new RangeReducer(pool);
+        body = () -> reducer.sum(0, SIZE);
+      } else if (impl.startsWith("cutoff-")) {
+        RangeReducer reducer = new RangeReducer(pool, Long.parseLong(impl.substring("cutoff-".length())));
+        body = () -> reducer.sum(0, SIZE);
+      } else {
+        //并行流在ForkJoinPool的任务里执行时用的是这个pool，而不是公共池
+        body = () -> pool.submit(() -> LongStream.range(0, SIZE).parallel().sum()).join();
+      }
+      Verify.equal(body.getAsLong(), SIZE / 2 * (SIZE - 1), impl);
+    }
+
+    @TearDown
+    public void tearDown() {
+      pool.shutdown();
+    }
+  }
+
+  @Benchmark
+  public long sequential() {
+    long sum = 0;
+    for (long i = 0; i < SIZE; i++) {
+      sum += i;
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public long parallel(Reducer reducer) {
+    return reducer.body.getAsLong();
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2021 Synopsys Inc. All rights reserved.
+ * This file is confidential material. Unauthorized distribution prohibited.
+ */
+package chapter08.fork_join;
+
+import bench.Verify;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+//LeafKernels的每一种实现（scalar和每一种向量宽度）单线程对整个数组做sum/min/max/dot，和同一个op的scalar比就是加速比
+//向量的实现在vector模块里，要用mvn -Pvector打包才有，fork出来的JVM都带着--add-modules jdk.incubator.vector；
+//没有的宽度在setup里报错，JMH跳过这一组接着测下一组
+//Vector API内部的方法是各种宽度共用的，同一个JVM里测过别的宽度之后JIT的类型profile已经被污染，会慢好几倍，
+//JMH每组参数都在一个新的JVM里测，正好避开这个问题
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class SimdBenchmark {
+
+  static final int SIZE = 1 << 23;
+
+  @Param({"scalar", "vector-64", "vector-128", "vector-256", "vector-512"})
+  public String kernel;
+
+  @Param({"sum-long", "min-long", "max-long", "dot-long", "sum-double", "min-double", "max-double", "dot-double"})
+  public String op;
+
+  private LongSupplier body;
+
+  @Setup
+  public void setup() {
+    LeafKernels leaf = null;
+    for (LeafKernels k : LeafKernels.available()) {
+      if (k.name().equals(kernel)) {
+        leaf = k;
+      }
+    }
+    if (leaf == null) {
+      throw new IllegalStateException(kernel + " 不可用，需要mvn -Pvector打包，并且CPU支持这个宽度");
+    }
+    long[] a = new long[SIZE];
+    long[] b = new long[SIZE];
+    //double用小整数，和在2^53以内，不管按什么顺序加都是精确的，可以和scalar比较
+    double[] d = new double[SIZE];
+    double[] e = new double[SIZE];
+    Random random = new Random(42);
+    for (int i = 0; i < SIZE; i++) {
+      a[i] = random.nextLong();
+      b[i] = random.nextLong();
+      d[i] = random.nextInt(1000);
+      e[i] = random.nextInt(1000);
+    }
+    body = body(leaf, a, b, d, e);
+    Verify.equal(body.getAsLong(), body(LeafKernels.scalar(), a, b, d, e).getAsLong(), kernel + " " + op);
+  }
+
+  private LongSupplier body(LeafKernels k, long[] a, long[] b, double[] d, double[] e) {
+    switch (op) {
+      case "sum-long":
+        return () -> k.sum(a, 0, SIZE);
+      case "min-long":
+        return () -> k.min(a, 0, SIZE);
+      case "max-long":
+        return () -> k.max(a, 0, SIZE);
+      case "dot-long":
+        return () -> k.dot(a, b, 0, SIZE);
+      case "sum-double":
+        return () -> (long) k.sum(d, 0, SIZE);
+      case "min-double":
+        return () -> (long) k.min(d, 0, SIZE);
+      case "max-double":
+        return () -> (long) k.max(d, 0, SIZE);
+      default:
+        return () -> (long) k.dot(d, e, 0, SIZE);
+    }
+  }
+
+  @Benchmark
+  public long run() {
+    return body.getAsLong();
+  }
+}
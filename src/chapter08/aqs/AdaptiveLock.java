@@ -0,0 +1,286 @@
+/*
+ * Copyright 2021 Synopsys Inc. All rights reserved.
+ * This file is confidential material. Unauthorized distribution prohibited.
+ */
+package chapter08.aqs;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.AbstractQueuedSynchronizer;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+
+//在MyLock的基础上改的可重入锁，可以选公平或者非公平
+//  state是重入的次数，0表示没有被持有
+//  拿不到锁的时候先自旋一会儿再进AQS的队列：临界区只有几百纳秒的话，park和unpark一次要几微秒，等一下比睡觉划算
+//  自旋多久由最近的持有时间决定：每隔SAMPLE_PERIOD次加锁记录一次持有了多久，算一个移动平均，
+//  平均持有时间的两倍以内大概率能等到锁释放，就自旋这么久（至少MIN_SPIN_NANOS）；
+//  平均持有时间比MAX_SPIN_NANOS还长就不自旋，直接排队
+//公平模式下队列里有线程在等的时候不自旋也不插队，队列是空的才自旋，所以还是先来先得
+//只有一个CPU的时候自旋没有意义，持有锁的线程要等自旋的线程让出CPU才能运行
+public class AdaptiveLock implements Lock {
+
+  //自旋的上限，比一次park/unpark的开销长就不划算了
+  private static final long MAX_SPIN_NANOS = 20_000;
+
+  //持有时间很短的时候也至少自旋这么久，前面可能还有别的线程在等
+  private static final long MIN_SPIN_NANOS = 1_000;
+
+  //每隔这么多次加锁采样一次持有时间，System.nanoTime本身也要几十纳秒，不能每次都调
+  private static final int SAMPLE_PERIOD = 16;
+
+  private static final boolean MULTI_CORE = Runtime.getRuntime().availableProcessors() > 1;
+
+  abstract static class Sync extends AbstractQueuedSynchronizer {
+    private static final long serialVersionUID = 1L;
+
+    //平均持有时间，纳秒，只有持有锁的线程写，自旋的线程随时读
+    private volatile long averageHoldNanos;
+
+    //下面两个字段只有持有锁的线程访问，受锁本身保护
+    private int acquisitions;
+    private long holdStart;
+
+    //state为0的时候试着拿锁，公平和非公平的区别只在这里
+    //acquires一般是1，Condition的await返回前要把释放掉的重入次数一次拿回来
+    abstract boolean tryAcquireFree(int acquires);
+
+    //tryLock()不管公平不公平都可以插队，和ReentrantLock一样
+    final boolean nonfairTryAcquire() {
+      Thread current = Thread.currentThread();
+      int c = getState();
+      if (c == 0) {
+        if (compareAndSetState(0, 1)) {
+          acquired(current);
+          return true;
+        }
+      } else if (getExclusiveOwnerThread() == current) {
+        reenter(c, 1);
+        return true;
+      }
+      return false;
+    }
+
+    @Override
+    protected final boolean tryAcquire(int arg) {
+      Thread current = Thread.currentThread();
+      int c = getState();
+      if (c == 0) {
+        return tryAcquireFree(arg);
+      }
+      if (getExclusiveOwnerThread() == current) {
+        reenter(c, arg);
+        return true;
+      }
+      return false;
+    }
+
+    final void acquired(Thread current) {
+      setExclusiveOwnerThread(current);
+      holdStart = ++acquisitions % SAMPLE_PERIOD == 0 ? System.nanoTime() : 0;
+    }
+
+    private void reenter(int c, int acquires) {
+      //重入只有持有锁的线程自己能做，不需要CAS
+      if (c + acquires < 0) {
+        throw new Error("Maximum lock count exceeded");
+      }
+      setState(c + acquires);
+    }
+
+    @Override
+    protected final boolean tryRelease(int arg) {
+      if (getExclusiveOwnerThread() != Thread.currentThread()) {
+        throw new IllegalMonitorStateException();
+      }
+      int c = getState() - arg;
+      boolean free = c == 0;
+      if (free) {
+        if (holdStart != 0) {
+          //指数移动平均，新的样本占1/8
+          long avg = averageHoldNanos;
+          averageHoldNanos = avg + ((System.nanoTime() - holdStart - avg) >> 3);
+        }
+        setExclusiveOwnerThread(null);
+      }
+      //和MyLock一样，setState放在最后，它的volatile写保证前面的修改对下一个拿到锁的线程可见
+      setState(c);
+      return free;
+    }
+
+    @Override
+    protected final boolean isHeldExclusively() {
+      return getExclusiveOwnerThread() == Thread.currentThread();
+    }
+
+    //进队列之前自旋，最多自旋timeoutNanos，拿到锁返回true
+    final boolean spin(long timeoutNanos) {
+      long budget = Math.min(spinBudgetNanos(), timeoutNanos);
+      if (budget <= 0) {
+        return false;
+      }
+      long end = System.nanoTime() + budget;
+      boolean fair = this instanceof FairSync;
+      while (true) {
+        //公平模式下队列里有人就不能插队，直接去排队；非公平模式下可以一直试
+        if (fair && hasQueuedThreads()) {
+          return false;
+        }
+        if (getState() == 0 && tryAcquireFree(1)) {
+          return true;
+        }
+        if (System.nanoTime() - end >= 0) {
+          return false;
+        }
+        Thread.onSpinWait();
+      }
+    }
+
+    final long spinBudgetNanos() {
+      if (!MULTI_CORE) {
+        return 0;
+      }
+      long hold = averageHoldNanos;
+      return hold > MAX_SPIN_NANOS ? 0 : Math.min(Math.max(hold * 2, MIN_SPIN_NANOS), MAX_SPIN_NANOS);
+    }
+
+    final long getAverageHoldNanos() {
+      return averageHoldNanos;
+    }
+
+    final boolean isLocked() {
+      return getState() != 0;
+    }
+
+    final Thread getOwner() {
+      return getState() == 0 ? null : getExclusiveOwnerThread();
+    }
+
+    final int getHoldCount() {
+      return isHeldExclusively() ? getState() : 0;
+    }
+
+    final Condition newCondition() {
+      return new ConditionObject();
+    }
+  }
+
+  static final class NonfairSync extends Sync {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    boolean tryAcquireFree(int acquires) {
+      if (compareAndSetState(0, acquires)) {
+        acquired(Thread.currentThread());
+        return true;
+      }
+      return false;
+    }
+  }
+
+  static final class FairSync extends Sync {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    boolean tryAcquireFree(int acquires) {
+      if (!hasQueuedPredecessors() && compareAndSetState(0, acquires)) {
+        acquired(Thread.currentThread());
+        return true;
+      }
+      return false;
+    }
+  }
+
+  private final Sync sync;
+
+  //默认非公平
+  public AdaptiveLock() {
+    this(false);
+  }
+
+  public AdaptiveLock(boolean fair) {
+    sync = fair ? new FairSync() : new NonfairSync();
+  }
+
+  @Override
+  public void lock() {
+    if (!sync.tryAcquire(1) && !sync.spin(Long.MAX_VALUE)) {
+      sync.acquire(1);
+    }
+  }
+
+  @Override
+  public void lockInterruptibly() throws InterruptedException {
+    if (Thread.interrupted()) {
+      throw new InterruptedException();
+    }
+    if (!sync.tryAcquire(1) && !sync.spin(Long.MAX_VALUE)) {
+      sync.acquireInterruptibly(1);
+    }
+  }
+
+  @Override
+  public boolean tryLock() {
+    return sync.nonfairTryAcquire();
+  }
+
+  //自旋也算在等待时间里
+  @Override
+  public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+    if (Thread.interrupted()) {
+      throw new InterruptedException();
+    }
+    long nanos = unit.toNanos(time);
+    long deadline = System.nanoTime() + nanos;
+    if (sync.tryAcquire(1) || sync.spin(nanos)) {
+      return true;
+    }
+    return sync.tryAcquireNanos(1, deadline - System.nanoTime());
+  }
+
+  @Override
+  public void unlock() {
+    sync.release(1);
+  }
+
+  @Override
+  public Condition newCondition() {
+    return sync.newCondition();
+  }
+
+  public boolean isFair() {
+    return sync instanceof FairSync;
+  }
+
+  public boolean isLocked() {
+    return sync.isLocked();
+  }
+
+  public boolean isHeldByCurrentThread() {
+    return sync.isHeldExclusively();
+  }
+
+  //当前线程重入了几次，没有持有返回0
+  public int getHoldCount() {
+    return sync.getHoldCount();
+  }
+
+  public int getQueueLength() {
+    return sync.getQueueLength();
+  }
+
+  //最近的平均持有时间
+  public long getAverageHoldNanos() {
+    return sync.getAverageHoldNanos();
+  }
+
+  //现在拿不到锁的话会先自旋多久，0表示直接排队
+  public long getSpinBudgetNanos() {
+    return sync.spinBudgetNanos();
+  }
+
+  @Override
+  public String toString() {
+    Thread owner = sync.getOwner();
+    return super.toString() + (owner == null ? "[Unlocked]" : "[Locked by thread " + owner.getName() + "]");
+  }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2021 Synopsys Inc. All rights reserved.
+ * This file is confidential material. Unauthorized distribution prohibited.
+ */
+package chapter08.diy_thread_pool;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+//自适应的并发限制：根据排队时间加执行时间动态调整线程池同时接收的任务数(排队+执行)
+//超过上限的任务在execute入口直接丢弃，过载的时候延迟是逐渐变差，而不是队列塞满之后一下子崩掉
+//同时实现了RejectPolicy，队列满了的任务也按同样的方式丢弃，用法：
+//  AdaptiveLimiter limiter = new AdaptiveLimiter(...);
+//  ThreadPool pool = new ThreadPool(..., limiter);
+//  pool.setAdmissionController(limiter);
+class AdaptiveLimiter implements AdmissionController, RejectPolicy<Runnable> {
+
+  enum Algorithm {
+    //加性增、乘性减：延迟没超过目标就慢慢加，超过了就按比例减
+    AIMD,
+    //梯度：比较长期平均延迟和最近的延迟，最近变慢了就按比例缩小上限，不需要设定目标延迟
+    GRADIENT
+  }
+
+  //AIMD每次减少的比例
+  private static final double BACKOFF = 0.9;
+
+  //GRADIENT里短期和长期平均延迟的平滑系数
+  private static final double SHORT_ALPHA = 0.1;
+  private static final double LONG_ALPHA = 0.01;
+
+  //GRADIENT里新的上限所占的权重
+  private static final double SMOOTHING = 0.2;
+
+  private final Algorithm algorithm;
+  private final int minLimit;
+  private final int maxLimit;
+  private final long targetNanos;
+
+  //被丢弃的任务最后交给它处理，比如记录日志或者抛出异常
+  private final RejectPolicy<Runnable> shedPolicy;
+
+  //当前上限，execute里只读这个volatile字段
+  private volatile int limit;
+
+  //已经准入、还没有归还名额的任务数(排队+执行)，准入的时候用CAS占住名额，
+  //并发提交的时候也不会超过上限，线程池也不需要每次提交都去数队列长度
+  private final AtomicInteger inFlight = new AtomicInteger();
+
+  //上限的精确值和算法的状态都只在updateLock里修改
+  private double exactLimit;
+  private double shortLatency;
+  private double longLatency;
+  private long lastDecrease;
+
+  //样本多的时候不用每个都处理，拿不到锁的样本直接跳过，worker之间不会互相等待
+  private final ReentrantLock updateLock = new ReentrantLock();
+
+  private final LongAdder shed = new LongAdder();
+
+  //targetLatency只有AIMD用到，是排队时间加执行时间的目标值
+  AdaptiveLimiter(Algorithm algorithm, int initialLimit, int minLimit, int maxLimit,
+      long targetLatency, TimeUnit timeUnit, RejectPolicy<Runnable> shedPolicy) {
+    if (minLimit <= 0 || maxLimit < minLimit || initialLimit < minLimit || initialLimit > maxLimit) {
+      throw new IllegalArgumentException();
+    }
+    this.algorithm = algorithm;
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.targetNanos = timeUnit.toNanos(targetLatency);
+    this.shedPolicy = shedPolicy;
+    this.limit = initialLimit;
+    this.exactLimit = initialLimit;
+  }
+
+  @Override
+  public boolean tryAdmit() {
+    int current;
+    do {
+      current = inFlight.get();
+      if (current >= limit) {
+        return false;
+      }
+    } while (!inFlight.compareAndSet(current, current + 1));
+    return true;
+  }
+
+  @Override
+  public void onDropped() {
+    inFlight.decrementAndGet();
+  }
+
+  @Override
+  public void reject(BlockingQueue<Runnable> queue, Runnable task) {
+    shed.increment();
+    shedPolicy.reject(queue, task);
+  }
+
+  @Override
+  public void onSample(long queueWaitNanos, long executeNanos, boolean failed) {
+    //名额每个样本都要归还，调整上限的时候才可以跳过
+    int current = inFlight.decrementAndGet() + 1;
+    if (!updateLock.tryLock()) {
+      return;
+    }
+    try {
+      long latency = queueWaitNanos + executeNanos;
+      if (algorithm == Algorithm.AIMD) {
+        aimd(latency, failed, current);
+      } else {
+        gradient(latency, failed, current);
+      }
+      limit = (int) Math.max(minLimit, Math.min(maxLimit, exactLimit));
+    } finally {
+      updateLock.unlock();
+    }
+  }
+
+  //current是这个任务归还名额之前的inFlight，上限没用到一半的时候不再增加上限
+  private void aimd(long latency, boolean failed, int current) {
+    if (failed || latency > targetNanos) {
+      //一次过载会连着产生很多慢样本，一个目标延迟的时间内只减一次
+      long now = System.nanoTime();
+      if (now - lastDecrease > targetNanos) {
+        exactLimit = Math.max(minLimit, exactLimit * BACKOFF);
+        lastDecrease = now;
+      }
+    } else if (current >= limit / 2) {
+      //每个上限的样本数加1
+      exactLimit = Math.min(maxLimit, exactLimit + 1 / exactLimit);
+    }
+  }
+
+  private void gradient(long latency, boolean failed, int current) {
+    if (shortLatency == 0) {
+      shortLatency = latency;
+      longLatency = latency;
+      return;
+    }
+    shortLatency = shortLatency * (1 - SHORT_ALPHA) + latency * SHORT_ALPHA;
+    longLatency = longLatency * (1 - LONG_ALPHA) + latency * LONG_ALPHA;
+    //最近比长期慢，梯度小于1，上限跟着缩小；最多一次缩小一半
+    double gradient = Math.max(0.5, Math.min(1.0, longLatency / Math.max(1, shortLatency)));
+    if (failed) {
+      gradient = 0.5;
+    }
+    //允许一定的排队，排队数取上限的平方根
+    double queueAllowance = current >= limit / 2 ? Math.sqrt(exactLimit) : 0;
+    double newLimit = exactLimit * gradient + queueAllowance;
+    exactLimit = exactLimit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+    //长期延迟也跟着慢慢恢复，否则一次长时间的过载之后上限会一直被压着
+    if (shortLatency < longLatency) {
+      longLatency = shortLatency;
+    }
+  }
+
+  public int getLimit() {
+    return limit;
+  }
+
+  //已经准入、还没有执行完的任务数
+  public int getInFlight() {
+    return inFlight.get();
+  }
+
+  //被丢弃的任务数
+  public long getShedCount() {
+    return shed.sum();
+  }
+}
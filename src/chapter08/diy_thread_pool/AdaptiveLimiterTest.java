@@ -0,0 +1,61 @@
+/*
+ * Copyright 2021 Synopsys Inc. All rights reserved.
+ * This file is confidential material. Unauthorized distribution prohibited.
+ */
+package chapter08.diy_thread_pool;
+
+import java.util.concurrent.TimeUnit;
+
+//提交速度远超处理能力时，对比固定队列和自适应限流的排队时间
+//固定队列：队列被塞满，每个任务都要排很久
+//自适应限流：多出来的任务直接丢弃，被接收的任务排队时间维持在目标附近
+public class AdaptiveLimiterTest {
+
+  public static void main(String[] args) throws InterruptedException {
+    run(null);
+    run(new AdaptiveLimiter(AdaptiveLimiter.Algorithm.AIMD, 20, 4, 1000,
+        50, TimeUnit.MILLISECONDS, (queue, task) -> {
+        }));
+    run(new AdaptiveLimiter(AdaptiveLimiter.Algorithm.GRADIENT, 20, 4, 1000,
+        50, TimeUnit.MILLISECONDS, (queue, task) -> {
+        }));
+  }
+
+  private static void run(AdaptiveLimiter limiter) throws InterruptedException {
+    RejectPolicy<Runnable> policy = limiter != null ? limiter : (queue, task) -> {
+    };
+    ThreadPool pool = new ThreadPool(4, 4, 1000, TimeUnit.MILLISECONDS, 1000, 1000, policy);
+    if (limiter != null) {
+      pool.setAdmissionController(limiter);
+    }
+    ThreadPoolMetrics metrics = pool.enableMetrics();
+
+    //每个任务2ms，4个worker每秒最多处理2000个，每毫秒提交4个，提交速度大约是处理能力的两倍
+    long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+    while (System.nanoTime() < end) {
+      for (int i = 0; i < 4; i++) {
+        pool.execute(() -> {
+          try {
+            Thread.sleep(2);
+          } catch (InterruptedException e) {
+            e.printStackTrace();
+          }
+        });
+      }
+      Thread.sleep(1);
+    }
+    Thread.sleep(1000);
+
+    ThreadPoolMetrics.Snapshot s = metrics.snapshot();
+    System.out.println((limiter == null ? "固定队列" : "自适应限流 " + limiter.getLimit())
+        + " 接收 " + (s.completed + s.failed) + " 拒绝 " + s.rejected
+        + " 排队时间p99 " + TimeUnit.NANOSECONDS.toMillis(s.queueWaitP99) + "ms"
+        + (limiter == null ? "" : " 全部执行完之后占用的名额 " + limiter.getInFlight()));
+
+    //核心线程不会超时，关闭之后它们才会退出，程序才能正常结束
+    pool.shutdown();
+    while (!pool.isTerminated()) {
+      Thread.sleep(10);
+    }
+  }
+}
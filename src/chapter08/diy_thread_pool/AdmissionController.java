@@ -0,0 +1,19 @@
+/*
+ * Copyright 2021 Synopsys Inc. All rights reserved.
+ * This file is confidential material. Unauthorized distribution prohibited.
+ */
+package chapter08.diy_thread_pool;
+
+//线程池在execute入口处调用的准入控制
+//tryAdmit成功就占住一个名额，直到任务执行完(onSample)或者被丢弃(onDropped)才归还，
+//每个被准入的任务线程池保证只归还一次；返回false的任务直接交给rejectPolicy，不会进入队列
+interface AdmissionController {
+
+  boolean tryAdmit();
+
+  //每个被准入的任务执行完之后的反馈，归还名额，同时用来调整准入的上限
+  void onSample(long queueWaitNanos, long executeNanos, boolean failed);
+
+  //被准入的任务没有执行就离开了线程池（被拒绝、删除、取消或者过期），只归还名额
+  void onDropped();
+}
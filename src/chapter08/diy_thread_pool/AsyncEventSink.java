@@ -0,0 +1,186 @@
+/*
+ * Copyright 2021 Synopsys Inc. All rights reserved.
+ * This file is confidential material. Unauthorized distribution prohibited.
+ */
+package chapter08.diy_thread_pool;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+//异步的事件输出：事件先记到预先分配好的环形缓冲区里，由后台线程统一格式化、批量写出
+//记录事件只需要一次CAS，不加锁、不分配内存、不做IO；缓冲区满了就丢弃事件并计数，绝不阻塞线程池
+//多个生产者、一个消费者，槽位的序号规则和RingBlockingQueue一样
+class AsyncEventSink implements PoolEventListener, AutoCloseable {
+
+  private final int mask;
+  private final AtomicLongArray sequences;
+  //事件的内容分别放在几个数组里，每个槽位对应下标相同的一组，不需要为每个事件new对象
+  private final PoolEvent[] events;
+  private final Object[] subjects;
+  private final Object[] details;
+  //计数事件的计数放在counts里，subjects对应位置是COUNTED，这样int不用装箱
+  private final int[] counts;
+  private final long[] times;
+
+  private static final Object COUNTED = new Object();
+
+  //close的时候用CAS把tail的最高位置上，之后谁也占不到槽位，关闭之前最后一个位置也就确定了
+  private static final long CLOSED = Long.MIN_VALUE;
+
+  private final AtomicLong tail = new AtomicLong();
+  //只有后台线程会修改
+  private long head;
+
+  private final LongAdder dropped = new LongAdder();
+
+  private final PrintStream out;
+
+  private final Thread flusher;
+
+  private volatile boolean closed;
+
+  //capcity会向上取整到2的幂
+  AsyncEventSink(int capcity, PrintStream out) {
+    if (capcity <= 0 || capcity > (1 << 30)) {
+      throw new IllegalArgumentException();
+    }
+    int size = capcity < 2 ? 2 : Integer.highestOneBit(capcity - 1) << 1;
+    this.mask = size - 1;
+    this.sequences = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) {
+      sequences.set(i, i);
+    }
+    this.events = new PoolEvent[size];
+    this.subjects = new Object[size];
+    this.details = new Object[size];
+    this.counts = new int[size];
+    this.times = new long[size];
+    this.out = out;
+    this.flusher = new Thread(this::flushLoop, "pool-event-flusher");
+    this.flusher.setDaemon(true);
+    this.flusher.start();
+  }
+
+  @Override
+  public void onEvent(PoolEvent event, Object subject, Object detail) {
+    long pos = claim();
+    if (pos < 0) {
+      return;
+    }
+    int index = (int) pos & mask;
+    events[index] = event;
+    subjects[index] = subject;
+    details[index] = detail;
+    times[index] = System.currentTimeMillis();
+    sequences.set(index, pos + 1);
+  }
+
+  @Override
+  public void onEvent(PoolEvent event, int count) {
+    long pos = claim();
+    if (pos < 0) {
+      return;
+    }
+    int index = (int) pos & mask;
+    events[index] = event;
+    subjects[index] = COUNTED;
+    counts[index] = count;
+    times[index] = System.currentTimeMillis();
+    sequences.set(index, pos + 1);
+  }
+
+  //用CAS占住一个槽位，返回它的位置；缓冲区满了或者已经关闭返回-1，调用者填好内容之后再发布序号
+  private long claim() {
+    long pos = tail.get();
+    while (true) {
+      if (pos < 0) {
+        //已经关闭了，后台线程不会再写，和缓冲区满一样计入丢弃数
+        dropped.increment();
+        return -1;
+      }
+      int index = (int) pos & mask;
+      long diff = sequences.get(index) - pos;
+      if (diff == 0) {
+        if (tail.compareAndSet(pos, pos + 1)) {
+          return pos;
+        }
+        pos = tail.get();
+      } else if (diff < 0) {
+        //后台线程来不及写，丢掉
+        dropped.increment();
+        return -1;
+      } else {
+        pos = tail.get();
+      }
+    }
+  }
+
+  //因为缓冲区满或者已经关闭而丢弃的事件数
+  public long getDropped() {
+    return dropped.sum();
+  }
+
+  private void flushLoop() {
+    StringBuilder sb = new StringBuilder();
+    while (!closed) {
+      if (drain(sb) == 0) {
+        //没有事件就休息一下，不用唤醒机制，生产者那边就不需要做任何额外的事情
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+      }
+    }
+    //closed是在tail关上之后才设置的，这时候最后的位置已经定了，占到槽位的生产者马上就会发布，
+    //等它们都发布了、全部写完再退出，关闭之前记下的事件一个都不会少
+    long end = tail.get() & ~CLOSED;
+    while (head != end) {
+      if (drain(sb) == 0) {
+        Thread.onSpinWait();
+      }
+    }
+  }
+
+  //取出当前所有事件，拼好之后一次写出，返回事件数
+  private int drain(StringBuilder sb) {
+    int n = 0;
+    while (true) {
+      int index = (int) head & mask;
+      if (sequences.get(index) != head + 1) {
+        break;
+      }
+      Object subject = subjects[index];
+      sb.append(times[index]).append(' ')
+          .append(subject == COUNTED ? events[index].format(counts[index])
+              : events[index].format(subject, details[index])).append('\n');
+      events[index] = null;
+      subjects[index] = null;
+      details[index] = null;
+      sequences.set(index, head + mask + 1);
+      head++;
+      n++;
+    }
+    if (n > 0) {
+      out.print(sb);
+      out.flush();
+      sb.setLength(0);
+    }
+    return n;
+  }
+
+  //停止后台线程，并把剩下的事件写完，之后记录的事件都计入丢弃数
+  //等待的时候被中断就不再等了，恢复中断标志交给调用者处理，剩下的事件由后台线程自己写完
+  @Override
+  public void close() {
+    long t;
+    while ((t = tail.get()) >= 0 && !tail.compareAndSet(t, t | CLOSED)) {
+    }
+    closed = true;
+    try {
+      flusher.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2021 Synopsys Inc. All rights reserved.
+ * This file is confidential material. Unauthorized distribution prohibited.
+ */
+package chapter08.diy_thread_pool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+//用AsyncEventSink代替CONSOLE观察线程池：事件由后台线程批量写出，worker不会被控制台IO拖慢
+//缓冲区故意开得很小，事件多的时候会丢弃一部分，最后打印丢弃的个数
+public class AsyncEventSinkTest {
+
+  public static void main(String[] args) throws InterruptedException {
+    AsyncEventSink sink = new AsyncEventSink(64, System.out);
+    //批量入队只记一个带计数的事件，计数不会被装箱
+    DequeBlockingQueue<Integer> numbers = new DequeBlockingQueue<>(10);
+    numbers.setEventListener(sink);
+    List<Integer> batch = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      batch.add(i);
+    }
+    numbers.putAll(batch);
+
+    ThreadPool pool = new ThreadPool(2, 4, 1000, TimeUnit.MILLISECONDS, 50, 40,
+        (queue, task) -> queue.put(task));
+    pool.setEventListener(sink);
+
+    for (int i = 0; i < 200; i++) {
+      int j = i;
+      pool.execute(() -> {
+        if (j % 50 == 0) {
+          try {
+            Thread.sleep(10);
+          } catch (InterruptedException e) {
+            e.printStackTrace();
+          }
+        }
+      });
+    }
+
+    //线程池已经开始执行任务了，不能再换监听
+    try {
+      pool.setEventListener(PoolEventListener.CONSOLE);
+    } catch (IllegalStateException e) {
+      System.out.println("换监听失败: " + e.getMessage());
+    }
+
+    pool.shutdown();
+    while (!pool.isTerminated()) {
+      Thread.sleep(10);
+    }
+
+    //close等后台线程把剩下的事件写完；被中断的话直接返回，中断标志还在
+    Thread.currentThread().interrupt();
+    sink.close();
+    System.out.println("close返回，中断标志: " + Thread.interrupted());
+    sink.close();
+    System.out.println("丢弃的事件数: " + sink.getDropped());
+  }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2021 Synopsys Inc. All rights reserved.
+ * This file is confidential material. Unauthorized distribution prohibited.
+ */
+package chapter08.diy_thread_pool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//批量入队和批量出队：putAll一次加锁放入一批，pollBatch/drainTo一次加锁取走一批
+//每种队列都用容量8的队列放入20个元素，放不下的时候putAll会等消费者取走一批再继续
+//最后用setBatchSize(8)的线程池执行100个任务，worker每次从共享队列取一批
+public class BatchTest {
+
+  public static void main(String[] args) throws InterruptedException {
+    demo("DequeBlockingQueue", new DequeBlockingQueue<>(8));
+    demo("TwoLockBlockingQueue", new TwoLockBlockingQueue<>(8));
+    demo("RingBlockingQueue", new RingBlockingQueue<>(8));
+
+    ThreadPool pool = new ThreadPool(2, 2, 1000, TimeUnit.MILLISECONDS, 100, 100,
+        (queue, task) -> queue.put(task));
+    pool.setBatchSize(8);
+    AtomicInteger done = new AtomicInteger();
+    for (int i = 0; i < 100; i++) {
+      pool.execute(done::incrementAndGet);
+    }
+    pool.shutdown();
+    while (!pool.isTerminated()) {
+      Thread.sleep(10);
+    }
+    System.out.println("批量取任务的线程池执行了 " + done.get() + " 个任务");
+  }
+
+  private static void demo(String name, BlockingQueue<Integer> queue) throws InterruptedException {
+    List<Integer> elements = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      elements.add(i);
+    }
+    Thread producer = new Thread(() -> queue.putAll(elements));
+    producer.start();
+
+    //消费者交替用pollBatch(等到有元素再取一批)和drainTo(不等待，有多少取多少)
+    List<List<Integer>> batches = new ArrayList<>();
+    int total = 0;
+    while (total < elements.size()) {
+      List<Integer> batch = new ArrayList<>();
+      if (batches.size() % 2 == 0) {
+        queue.pollBatch(batch, 4, 1, TimeUnit.SECONDS);
+      } else {
+        queue.drainTo(batch, 4);
+      }
+      if (!batch.isEmpty()) {
+        batches.add(batch);
+        total += batch.size();
+      }
+    }
+    producer.join();
+    System.out.println(name + " 分 " + batches.size() + " 批取出: " + batches);
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2021 Synopsys Inc. All rights reserved.
+ * This file is confidential material. Unauthorized distribution prohibited.
+ */
+package chapter08.diy_thread_pool;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+//阻塞队列，线程池只依赖这个接口，具体实现可以替换
+interface BlockingQueue<T> {
+
+  //阻塞获取
+  T take();
+
+  //超时获取，超时返回null
+  T poll(long timeout, TimeUnit timeUnit);
+
+  //阻塞添加
+  void put(T element);
+
+  //超时添加，超时返回false
+  boolean offer(T element, long timeout, TimeUnit timeUnit);
+
+  //队列中的任务数
+  int size();
+
+  //队列最大容量
+  int capacity();
+
+  //队列满的时候交给rejectPolicy处理
+  void tryPut(RejectPolicy<T> rejectPolicy, T task);
+
+  //不等待，有任务就取走一个，没有返回null
+  //自旋等待的时候会反复调用，实现最好在队列空的时候不加锁
+  default T tryPoll() {
+    return poll(0, TimeUnit.NANOSECONDS);
+  }
+
+  //不等待，一次取走最多max个任务放进c里，返回取走的个数
+  default int drainTo(Collection<? super T> c, int max) {
+    int n = 0;
+    T t;
+    while (n < max && (t = poll(0, TimeUnit.NANOSECONDS)) != null) {
+      c.add(t);
+      n++;
+    }
+    return n;
+  }
+
+  //最多等待timeout直到有任务，然后一次取走最多max个任务，超时返回0
+  default int pollBatch(Collection<? super T> c, int max, long timeout, TimeUnit timeUnit) {
+    if (max <= 0) {
+      return 0;
+    }
+    T first = poll(timeout, timeUnit);
+    if (first == null) {
+      return 0;
+    }
+    c.add(first);
+    return 1 + drainTo(c, max - 1);
+  }
+
+  //线程池在构造时把过期处理交给队列，队列自己丢弃任务时（比如DeadlineBlockingQueue里过期的任务）交给它，
+  //只做统计和清理，不经过rejectPolicy，任务不会再放回队列，也不会被执行；不会自己丢弃任务的实现可以忽略
+  default void setExpiryHandler(Consumer<? super T> handler) {
+  }
+
+  //设置事件监听，不产生事件的实现可以忽略
+  default void setEventListener(PoolEventListener listener) {
+  }
+
+  //把还在排队的element删掉，不支持删除的实现返回false
+  default boolean remove(T element) {
+    return false;
+  }
+
+  //把还在排队的、满足filter的元素都删掉，返回是否删掉了元素，不支持删除的实现返回false
+  //filter在队列的锁里调用，要尽量快
+  default boolean removeIf(Predicate<? super T> filter) {
+    return false;
+  }
+
+  //阻塞添加一批任务
+  default void putAll(Collection<? extends T> elements) {
+    for (T element : elements) {
+      put(element);
+    }
+  }
+}
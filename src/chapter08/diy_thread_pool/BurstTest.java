@@ -0,0 +1,45 @@
+/*
+ * Copyright 2021 Synopsys Inc. All rights reserved.
+ * This file is confidential material. Unauthorized distribution prohibited.
+ */
+package chapter08.diy_thread_pool;
+
+import java.util.concurrent.TimeUnit;
+
+//弹性线程池：队列积压到burstThreshold之后创建救急线程，空闲超过timeout之后救急线程被回收，只留下核心线程
+//2个核心线程，最多6个线程，队列积压到4个就开始创建救急线程，救急线程空闲500ms被回收
+public class BurstTest {
+
+  public static void main(String[] args) throws InterruptedException {
+    ThreadPool pool = new ThreadPool(2, 6, 500, TimeUnit.MILLISECONDS, 10, 4,
+        (queue, task) -> queue.put(task));
+    pool.setEventListener(PoolEventListener.CONSOLE);
+
+    //一下子提交20个任务，每个200ms，核心线程处理不过来
+    for (int i = 0; i < 20; i++) {
+      int j = i;
+      pool.execute(() -> {
+        try {
+          Thread.sleep(200);
+        } catch (InterruptedException e) {
+          e.printStackTrace();
+        }
+        System.out.println("任务 " + j);
+      });
+    }
+    System.out.println("高峰时的线程数 " + pool.getPoolSize() + " 排队 " + pool.getQueueSize());
+
+    //任务执行完之后再空闲一会儿，救急线程超时退出
+    while (pool.getQueueSize() > 0) {
+      Thread.sleep(100);
+    }
+    Thread.sleep(1500);
+    System.out.println("空闲之后的线程数 " + pool.getPoolSize());
+
+    pool.shutdown();
+    while (!pool.isTerminated()) {
+      Thread.sleep(10);
+    }
+    System.out.println("关闭之后的线程数 " + pool.getPoolSize());
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2021 Synopsys Inc. All rights reserved.
+ * This file is confidential material. Unauthorized distribution prohibited.
+ */
+package chapter08.diy_thread_pool;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+//submit提交的任务：既是放进阻塞队列里的Runnable，又是返回给调用者的CompletableFuture
+//这样结果和异常都直接放进future里，不用再包一层
+//取消时不马上去队列里删除（删除要遍历队列，还要拿队列的锁），只是标记为已取消并通知线程池，
+//线程池在取消的任务积累到一定比例或者队列满了的时候一次purge掉，每次取消均摊下来的开销是常数；
+//worker取到还没被删掉的已取消任务直接跳过，不会执行
+//和CompletableFuture一样，mayInterruptIfRunning没有作用，已经开始执行的任务不会被打断
+class CompletableTask<T> extends CompletableFuture<T> implements Runnable, Timed {
+
+  private final Callable<T> callable;
+
+  //提交到的线程池，取消的时候通知它
+  private final ThreadPool pool;
+
+  //保证任务只会被执行一次，也用来区分"还在排队"和"已经开始执行"
+  private final AtomicBoolean started = new AtomicBoolean();
+
+  //提交时间，开启指标统计时用来计算排队时间
+  private long submitNanos;
+
+  //是否占用着准入控制的名额
+  private boolean admitted;
+
+  CompletableTask(Callable<T> callable, ThreadPool pool) {
+    this.callable = callable;
+    this.pool = pool;
+  }
+
+  //还没开始执行就被取消的，多半还在队列里占着位置
+  @Override
+  public boolean cancel(boolean mayInterruptIfRunning) {
+    boolean cancelled = super.cancel(mayInterruptIfRunning);
+    if (cancelled && !started.get()) {
+      pool.onCancel();
+    }
+    return cancelled;
+  }
+
+  @Override
+  public void run() {
+    //已经被取消（或者被别人执行了）就直接跳过，worker一般在出队的时候就跳过了，
+    //这里是出队之后、开始执行之前刚好被取消的情况
+    if (isDone() || !started.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      complete(callable.call());
+    } catch (Throwable e) {
+      completeExceptionally(e);
+    }
+  }
+
+  @Override
+  public void setSubmitNanos(long nanos) {
+    this.submitNanos = nanos;
+  }
+
+  @Override
+  public long getSubmitNanos() {
+    return submitNanos;
+  }
+
+  @Override
+  public void setAdmitted(boolean admitted) {
+    this.admitted = admitted;
+  }
+
+  @Override
+  public boolean isAdmitted() {
+    return admitted;
+  }
+}
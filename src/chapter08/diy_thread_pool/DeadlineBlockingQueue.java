@@ -0,0 +1,297 @@
+/*
+ * Copyright 2021 Synopsys Inc. All rights reserved.
+ * This file is confidential material. Unauthorized distribution prohibited.
+ */
+package chapter08.diy_thread_pool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+//按优先级和截止时间排序的阻塞队列，可以替换ThreadPool默认的FIFO队列
+//出队顺序：
+//  1. 优先级高的先出队（PriorityTask的priority，普通Runnable当作0）
+//  2. 优先级相同的，截止时间早的先出队（EDF），没有截止时间的排在最后
+//  3. 都相同的按放入顺序（FIFO）
+//出队的时候如果发现任务已经过了截止时间，就不交给worker了，而是直接丢弃，交给过期处理：
+//放进线程池时由线程池计入过期数，不经过rejectPolicy，否则放回队列的rejectPolicy会让过期任务一直循环，
+//调用者执行的rejectPolicy又会执行已经过期的任务；不放进线程池单独使用时过期任务直接丢弃
+class DeadlineBlockingQueue implements BlockingQueue<Runnable> {
+
+  //队列里的节点，seq用来保证相同优先级和截止时间的任务先进先出
+  private static class Entry implements Comparable<Entry> {
+    final Runnable task;
+    final int priority;
+    final long deadline;
+    final long seq;
+
+    Entry(Runnable task, long seq) {
+      this.task = task;
+      this.seq = seq;
+      if (task instanceof PriorityTask) {
+        PriorityTask p = (PriorityTask) task;
+        this.priority = p.getPriority();
+        this.deadline = p.getDeadline();
+      } else {
+        this.priority = 0;
+        this.deadline = PriorityTask.NO_DEADLINE;
+      }
+    }
+
+    boolean isExpired(long now) {
+      return deadline != PriorityTask.NO_DEADLINE && now - deadline > 0;
+    }
+
+    @Override
+    public int compareTo(Entry o) {
+      if (priority != o.priority) {
+        return priority > o.priority ? -1 : 1;
+      }
+      if (deadline != o.deadline) {
+        //NO_DEADLINE是Long.MAX_VALUE，不能用差值比较
+        if (deadline == PriorityTask.NO_DEADLINE) {
+          return 1;
+        }
+        if (o.deadline == PriorityTask.NO_DEADLINE) {
+          return -1;
+        }
+        return deadline - o.deadline < 0 ? -1 : 1;
+      }
+      return Long.compare(seq, o.seq);
+    }
+  }
+
+  private final PriorityQueue<Entry> queue = new PriorityQueue<>();
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition fullWaitSet = lock.newCondition();
+  private final Condition emptyWaitSet = lock.newCondition();
+
+  private final int capcity;
+
+  //放入顺序
+  private long seq;
+
+  //事件监听，和DequeBlockingQueue一样在锁里通知
+  private PoolEventListener listener = PoolEventListener.NONE;
+
+  //过期任务的处理，ThreadPool构造的时候会换成它自己的过期统计
+  private volatile Consumer<? super Runnable> expiryHandler = task -> {
+  };
+
+  DeadlineBlockingQueue(int capcity) {
+    if (capcity <= 0) {
+      throw new IllegalArgumentException();
+    }
+    this.capcity = capcity;
+  }
+
+  public void setExpiryHandler(Consumer<? super Runnable> handler) {
+    if (handler == null) {
+      throw new NullPointerException();
+    }
+    this.expiryHandler = handler;
+  }
+
+  public Runnable take() {
+    while (true) {
+      List<Runnable> expired = new ArrayList<>(0);
+      Runnable t;
+      lock.lock();
+      try {
+        while (queue.isEmpty()) {
+          try {
+            emptyWaitSet.await();
+          } catch (InterruptedException e) {
+            e.printStackTrace();
+          }
+        }
+        t = dequeue(expired);
+      } finally {
+        lock.unlock();
+      }
+      dropExpired(expired);
+      if (t != null) {
+        return t;
+      }
+      //取出来的都是过期任务，继续等
+    }
+  }
+
+  public Runnable poll(long timeout, TimeUnit timeUnit) {
+    long deadline = System.nanoTime() + timeUnit.toNanos(timeout);
+    while (true) {
+      List<Runnable> expired = new ArrayList<>(0);
+      Runnable t;
+      lock.lock();
+      try {
+        long nanos = deadline - System.nanoTime();
+        while (queue.isEmpty()) {
+          try {
+            if (nanos <= 0) {
+              return null;
+            }
+            nanos = emptyWaitSet.awaitNanos(nanos);
+          } catch (InterruptedException e) {
+            e.printStackTrace();
+          }
+        }
+        t = dequeue(expired);
+      } finally {
+        lock.unlock();
+      }
+      dropExpired(expired);
+      if (t != null) {
+        return t;
+      }
+    }
+  }
+
+  //需要持有锁，队列不能为空
+  //跳过队头已经过期的任务，放进expired里，返回第一个没过期的任务，都过期了返回null
+  private Runnable dequeue(List<Runnable> expired) {
+    long now = System.nanoTime();
+    Runnable t = null;
+    int removed = 0;
+    while (!queue.isEmpty()) {
+      Entry e = queue.poll();
+      removed++;
+      if (e.isExpired(now)) {
+        expired.add(e.task);
+      } else {
+        t = e.task;
+        break;
+      }
+    }
+    if (removed == 1) {
+      fullWaitSet.signal();
+    } else {
+      fullWaitSet.signalAll();
+    }
+    if (!queue.isEmpty()) {
+      emptyWaitSet.signal();
+    }
+    return t;
+  }
+
+  //过期任务在锁外面交给expiryHandler，避免处理过期任务的时候挡住别的线程
+  private void dropExpired(List<Runnable> expired) {
+    Consumer<? super Runnable> handler = expiryHandler;
+    for (Runnable task : expired) {
+      handler.accept(task);
+    }
+  }
+
+  public void put(Runnable element) {
+    lock.lock();
+    try {
+      while (queue.size() == capcity) {
+        try {
+          listener.onEvent(PoolEvent.TASK_WAITING, element, null);
+          fullWaitSet.await();
+        } catch (InterruptedException e) {
+          e.printStackTrace();
+        }
+      }
+      enqueue(element);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public boolean offer(Runnable element, long timeout, TimeUnit timeUnit) {
+    lock.lock();
+    try {
+      long nanos = timeUnit.toNanos(timeout);
+      while (queue.size() == capcity) {
+        try {
+          if (nanos <= 0) {
+            return false;
+          }
+          listener.onEvent(PoolEvent.TASK_WAITING, element, null);
+          nanos = fullWaitSet.awaitNanos(nanos);
+        } catch (InterruptedException e) {
+          e.printStackTrace();
+        }
+      }
+      enqueue(element);
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  //需要持有锁
+  private void enqueue(Runnable element) {
+    if (element == null) {
+      throw new NullPointerException();
+    }
+    queue.add(new Entry(element, seq++));
+    listener.onEvent(PoolEvent.TASK_ENQUEUED, element, null);
+    emptyWaitSet.signal();
+  }
+
+  public int size() {
+    lock.lock();
+    try {
+      return queue.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int capacity() {
+    return capcity;
+  }
+
+  public void setEventListener(PoolEventListener listener) {
+    this.listener = listener;
+  }
+
+  public boolean remove(Runnable element) {
+    lock.lock();
+    try {
+      if (queue.removeIf(e -> e.task == element)) {
+        fullWaitSet.signal();
+        return true;
+      }
+      return false;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public boolean removeIf(Predicate<? super Runnable> filter) {
+    lock.lock();
+    try {
+      if (queue.removeIf(e -> filter.test(e.task))) {
+        fullWaitSet.signalAll();
+        return true;
+      }
+      return false;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public void tryPut(RejectPolicy<Runnable> rejectPolicy, Runnable task) {
+    boolean full;
+    lock.lock();
+    try {
+      full = queue.size() == capcity;
+      if (!full) {
+        enqueue(task);
+      }
+    } finally {
+      lock.unlock();
+    }
+    if (full) {
+      rejectPolicy.reject(this, task);
+    }
+  }
+}
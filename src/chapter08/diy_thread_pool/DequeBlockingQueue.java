@@ -0,0 +1,315 @@
+/*
+ * Copyright 2021 Synopsys Inc. All rights reserved.
+ * This file is confidential material. Unauthorized distribution prohibited.
+ */
+package chapter08.diy_thread_pool;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+//阻塞队列，默认实现：ArrayDeque加一把锁
+class DequeBlockingQueue<T> implements BlockingQueue<T> {
+
+  //任务队列
+  private Deque<T> queue = new ArrayDeque<>();
+
+  //锁
+  private ReentrantLock lock = new ReentrantLock();
+
+  //条件变量
+  private Condition fullWaitSet = lock.newCondition();
+  private Condition emptyWaitSet = lock.newCondition();
+
+  //队列最大容量
+  private int capcity;
+
+  //事件监听，默认什么都不做
+  //不是volatile的，需要在提交任务之前设置，这样空实现的调用可以被JIT完全优化掉
+  private PoolEventListener listener = PoolEventListener.NONE;
+
+  //队列长度的提示，在锁里修改，tryPoll不加锁读它，队列空的时候自旋的消费者就不用去抢锁
+  private volatile int sizeHint;
+
+  DequeBlockingQueue(int capcity) {
+    this.capcity = capcity;
+  }
+
+  //从队列中拿任务执行，阻塞获取
+  public T take() {
+    lock.lock();
+    try {
+      //如果队列中没有任务了，那么就等待
+      while (queue.isEmpty()) {
+        try {
+          emptyWaitSet.await();
+        } catch (InterruptedException e) {
+          e.printStackTrace();
+        }
+      }
+
+      //如果队列中有任务了，就取走任务
+      T t = queue.removeFirst();
+      sizeHint = queue.size();
+      //唤醒在fullWaitSet中等待的线程，告诉他们非满，可以往队列中加入任务
+      fullWaitSet.signal();
+      //级联唤醒：putAll一批任务只唤醒一次，取完还有剩余就由消费者唤醒下一个消费者
+      if (!queue.isEmpty()) {
+        emptyWaitSet.signal();
+      }
+      return t;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  //take增强，增加了超时时间
+  public T poll(long timeout, TimeUnit timeUnit) {
+    lock.lock();
+    try {
+      //将timeout的单位转化为纳秒
+      long nanos = timeUnit.toNanos(timeout);
+      //如果队列中没有任务了，那么就等待
+      while (queue.isEmpty()) {
+        try {
+          if (nanos <= 0) {
+            return null;
+          }
+          //返回的是剩余的时间
+          nanos = emptyWaitSet.awaitNanos(nanos);
+        } catch (InterruptedException e) {
+          e.printStackTrace();
+        }
+      }
+
+      //如果队列中有任务了，就取走任务
+      T t = queue.removeFirst();
+      sizeHint = queue.size();
+      //唤醒在fullWaitSet中等待的线程，告诉他们非满，可以往队列中加入任务
+      fullWaitSet.signal();
+      //级联唤醒：putAll一批任务只唤醒一次，取完还有剩余就由消费者唤醒下一个消费者
+      if (!queue.isEmpty()) {
+        emptyWaitSet.signal();
+      }
+      return t;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  //把任务加入队列，阻塞添加
+  public void put(T element) {
+    lock.lock();
+    try {
+      while (queue.size() == capcity) {
+        try {
+          listener.onEvent(PoolEvent.TASK_WAITING, element, null);
+          fullWaitSet.await();
+        } catch (InterruptedException e) {
+          e.printStackTrace();
+        }
+      }
+
+      //如果队列没有满，那么就把任务放进队列
+      queue.addLast(element);
+      sizeHint = queue.size();
+      listener.onEvent(PoolEvent.TASK_ENQUEUED, element, null);
+      //唤醒emptyWaitSet中等待的线程，告诉他们队列非空，可以移除任务了
+      emptyWaitSet.signal();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  //带超时的添加
+  public boolean offer(T element, long timeout, TimeUnit timeUnit) {
+    lock.lock();
+    try {
+      long nanos = timeUnit.toNanos(timeout);
+      while (queue.size() == capcity) {
+        try {
+          if (nanos <= 0) {
+            return false;
+          }
+          listener.onEvent(PoolEvent.TASK_WAITING, element, null);
+          nanos = fullWaitSet.awaitNanos(nanos);
+        } catch (InterruptedException e) {
+          e.printStackTrace();
+        }
+      }
+
+      //如果队列没有满，那么就把任务放进队列
+      queue.addLast(element);
+      sizeHint = queue.size();
+      listener.onEvent(PoolEvent.TASK_ENQUEUED, element, null);
+      //唤醒emptyWaitSet中等待的线程，告诉他们队列非空，可以移除任务了
+      emptyWaitSet.signal();
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  //获取队列的大小
+  public int size() {
+    lock.lock();
+    try {
+      return queue.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int capacity() {
+    return capcity;
+  }
+
+  public void setEventListener(PoolEventListener listener) {
+    this.listener = listener;
+  }
+
+  //队列空的时候不加锁直接返回null
+  public T tryPoll() {
+    if (sizeHint == 0) {
+      return null;
+    }
+    return poll(0, TimeUnit.NANOSECONDS);
+  }
+
+  //一次加锁取走一批任务
+  public int drainTo(Collection<? super T> c, int max) {
+    lock.lock();
+    try {
+      return drain(c, max);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int pollBatch(Collection<? super T> c, int max, long timeout, TimeUnit timeUnit) {
+    if (max <= 0) {
+      return 0;
+    }
+    lock.lock();
+    try {
+      long nanos = timeUnit.toNanos(timeout);
+      while (queue.isEmpty()) {
+        try {
+          if (nanos <= 0) {
+            return 0;
+          }
+          nanos = emptyWaitSet.awaitNanos(nanos);
+        } catch (InterruptedException e) {
+          e.printStackTrace();
+        }
+      }
+      return drain(c, max);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  //从队列中删除一个还没被取走的任务
+  public boolean remove(T element) {
+    lock.lock();
+    try {
+      if (queue.removeFirstOccurrence(element)) {
+        sizeHint = queue.size();
+        fullWaitSet.signal();
+        return true;
+      }
+      return false;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public boolean removeIf(Predicate<? super T> filter) {
+    lock.lock();
+    try {
+      if (queue.removeIf(filter)) {
+        sizeHint = queue.size();
+        fullWaitSet.signalAll();
+        return true;
+      }
+      return false;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  //需要持有锁
+  private int drain(Collection<? super T> c, int max) {
+    int n = 0;
+    while (n < max && !queue.isEmpty()) {
+      c.add(queue.removeFirst());
+      n++;
+    }
+    sizeHint = queue.size();
+    if (n == 1) {
+      fullWaitSet.signal();
+    } else if (n > 1) {
+      //一次腾出了多个空位
+      fullWaitSet.signalAll();
+    }
+    if (n > 0 && !queue.isEmpty()) {
+      emptyWaitSet.signal();
+    }
+    return n;
+  }
+
+  //一次加锁放入一批任务，放完只唤醒一次消费者，剩下的由消费者级联唤醒
+  public void putAll(Collection<? extends T> elements) {
+    lock.lock();
+    try {
+      boolean added = false;
+      for (T element : elements) {
+        while (queue.size() == capcity) {
+          //队列满了，等待之前先把已经放进去的任务通知给消费者，否则大家都在等
+          if (added) {
+            emptyWaitSet.signal();
+            added = false;
+          }
+          try {
+            fullWaitSet.await();
+          } catch (InterruptedException e) {
+            e.printStackTrace();
+          }
+        }
+        queue.addLast(element);
+        sizeHint = queue.size();
+        added = true;
+      }
+      listener.onEvent(PoolEvent.BATCH_ENQUEUED, elements.size());
+      if (added) {
+        emptyWaitSet.signal();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public void tryPut(RejectPolicy<T> rejectPolicy, T task) {
+    lock.lock();
+    try {
+      //判断队列是否已满
+      if (queue.size() == capcity) {
+        //具体执行什么方式，由rejectPolicy决定
+        rejectPolicy.reject(this, task);
+      } else {
+        //未满
+        queue.addLast(task);
+        sizeHint = queue.size();
+        listener.onEvent(PoolEvent.TASK_ENQUEUED, task, null);
+        //唤醒emptyWaitSet中等待的线程，告诉他们队列非空，可以移除任务了
+        emptyWaitSet.signal();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2021 Synopsys Inc. All rights reserved.
+ * This file is confidential material. Unauthorized distribution prohibited.
+ */
+package chapter08.diy_thread_pool;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+
+//按key串行执行：同一个key的任务按提交顺序一个接一个执行，不同key之间并行
+//比如同一个账户的事件必须按顺序处理，但不同账户之间互不影响
+//每个有任务的key只有一个排队的KeyQueue，由它自己作为一个任务提交给线程池，
+//所以key再多也不会多出线程；key上的任务执行完就把KeyQueue从map里删掉，内存只和有任务的key数量有关
+//注意：rejectPolicy不能把任务直接丢弃，否则这个key后面的任务永远不会执行，最好是阻塞或者调用者自己执行
+//rejectPolicy只在调用者提交的时候用到，KeyQueue在worker里重新提交自己用的是不阻塞的tryExecute
+class KeyedExecutor<K> {
+
+  private final ThreadPool pool;
+
+  //一个KeyQueue在worker上连续执行的最多任务数，执行完还有剩余就重新提交，让别的key也有机会执行
+  private final int maxBatch;
+
+  //只有有任务的key才在map里
+  private final ConcurrentHashMap<K, KeyQueue> queues = new ConcurrentHashMap<>();
+
+  KeyedExecutor(ThreadPool pool) {
+    this(pool, 16);
+  }
+
+  KeyedExecutor(ThreadPool pool, int maxBatch) {
+    if (pool == null) {
+      throw new NullPointerException();
+    }
+    if (maxBatch <= 0) {
+      throw new IllegalArgumentException();
+    }
+    this.pool = pool;
+    this.maxBatch = maxBatch;
+  }
+
+  //一个key上排队的任务，同一时刻最多只有一个worker在执行它
+  //临界区里只有几次队列操作，不会阻塞，所以直接用synchronized，每个key不用再多一把锁的内存
+  private class KeyQueue implements Runnable {
+
+    private final K key;
+
+    private final ArrayDeque<Runnable> tasks = new ArrayDeque<>(4);
+
+    //是否已经提交给线程池了
+    private boolean scheduled;
+
+    //任务执行完已经从map里删掉了，之后不能再往里放任务
+    private boolean removed;
+
+    KeyQueue(K key) {
+      this.key = key;
+    }
+
+    //放入一个任务，返回是否需要提交给线程池，已经被删掉了返回null
+    private synchronized Boolean add(Runnable task) {
+      if (removed) {
+        return null;
+      }
+      tasks.addLast(task);
+      if (scheduled) {
+        return false;
+      }
+      scheduled = true;
+      return true;
+    }
+
+    //取下一个任务，没有了就把自己从map里删掉
+    //删除和检查队列为空在同一把锁里，execute要么把任务放进来，要么看到removed去创建新的KeyQueue，
+    //新的KeyQueue开始执行的时候这里的任务已经全部执行完了，所以顺序不会乱
+    private synchronized Runnable next() {
+      Runnable t = tasks.pollFirst();
+      if (t == null) {
+        scheduled = false;
+        removed = true;
+        queues.remove(key, this);
+      }
+      return t;
+    }
+
+    //worker上执行的时候不能阻塞也不能把异常抛出去：
+    //阻塞在满的队列上会把所有worker都卡住，抛出去则scheduled一直是true，这个key后面的任务再也不会执行
+    @Override
+    public void run() {
+      //任务取完了，或者已经重新提交给线程池了
+      boolean handedOff = false;
+      try {
+        while (true) {
+          for (int i = 0; i < maxBatch; i++) {
+            Runnable t = next();
+            if (t == null) {
+              handedOff = true;
+              return;
+            }
+            try {
+              t.run();
+            } catch (Exception e) {
+              //一个任务失败不影响同一个key后面的任务
+              e.printStackTrace();
+            }
+          }
+          //还有任务，重新提交，排到其他key后面
+          //队列满了或者线程池已经关闭就提交不进去，那就在这个worker上接着执行下一批
+          if (pool.tryExecute(this)) {
+            handedOff = true;
+            return;
+          }
+        }
+      } finally {
+        if (!handedOff) {
+          //任务抛出了Error，这个worker要退出了，剩下的任务交给别的worker
+          abandon();
+        }
+      }
+    }
+
+    //把剩下的任务重新提交，提交不进去就清除scheduled，等这个key下一次execute的时候再提交
+    private void abandon() {
+      boolean resubmitted = false;
+      try {
+        resubmitted = pool.tryExecute(this);
+      } finally {
+        if (!resubmitted) {
+          unschedule();
+        }
+      }
+    }
+
+    private synchronized void unschedule() {
+      if (tasks.isEmpty()) {
+        removed = true;
+        queues.remove(key, this);
+      }
+      scheduled = false;
+    }
+
+    //提交给线程池失败了（比如线程池已经关闭），把刚放进来的任务拿掉，异常由调用者处理
+    private synchronized void rollback(Runnable task) {
+      tasks.removeLastOccurrence(task);
+      unschedule();
+    }
+
+    @Override
+    public String toString() {
+      return "KeyQueue[" + key + "]";
+    }
+  }
+
+  //提交任务，同一个key的任务按调用execute的顺序执行
+  public void execute(K key, Runnable task) {
+    if (key == null || task == null) {
+      throw new NullPointerException();
+    }
+    while (true) {
+      KeyQueue q = queues.computeIfAbsent(key, KeyQueue::new);
+      Boolean schedule = q.add(task);
+      if (schedule == null) {
+        //刚好碰上这个key执行完被删掉了，重新创建一个
+        continue;
+      }
+      if (schedule) {
+        try {
+          pool.execute(q);
+        } catch (RuntimeException e) {
+          q.rollback(task);
+          throw e;
+        }
+      }
+      return;
+    }
+  }
+
+  //当前有任务在排队或者在执行的key的数量
+  public int getActiveKeyCount() {
+    return queues.size();
+  }
+}
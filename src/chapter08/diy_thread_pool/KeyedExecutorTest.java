@@ -0,0 +1,71 @@
+/*
+ * Copyright 2021 Synopsys Inc. All rights reserved.
+ * This file is confidential material. Unauthorized distribution prohibited.
+ */
+package chapter08.diy_thread_pool;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//一百万个账户，每个账户的事件按顺序处理，所有账户共用4个worker
+public class KeyedExecutorTest {
+
+  public static void main(String[] args) throws InterruptedException {
+    ThreadPool pool = new ThreadPool(4, 4, 1000, TimeUnit.MILLISECONDS,
+        new RingBlockingQueue<>(1024), 1024, (queue, task) -> queue.put(task));
+    KeyedExecutor<Integer> executor = new KeyedExecutor<>(pool);
+
+    int accounts = 1_000_000;
+    int events = 5;
+    //每个账户最后处理的事件序号，只会被这个账户当前的任务访问，串行执行不需要同步
+    int[] last = new int[accounts];
+    AtomicInteger outOfOrder = new AtomicInteger();
+    CountDownLatch done = new CountDownLatch(accounts * events);
+
+    long start = System.nanoTime();
+    //不同账户的事件交错提交
+    for (int e = 1; e <= events; e++) {
+      for (int a = 0; a < accounts; a++) {
+        int account = a;
+        int seq = e;
+        executor.execute(account, () -> {
+          if (last[account] != seq - 1) {
+            outOfOrder.incrementAndGet();
+          }
+          last[account] = seq;
+          done.countDown();
+        });
+      }
+    }
+    done.await();
+    long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+    System.out.println("处理了 " + accounts * events + " 个事件，用时 " + millis + "ms");
+    System.out.println("顺序错乱的事件数 " + outOfOrder.get());
+    System.out.println("线程数 " + pool.getPoolSize());
+    //最后一个任务countDown之后KeyQueue才会被删掉，稍等一下
+    Thread.sleep(100);
+    System.out.println("还在map里的key " + executor.getActiveKeyCount());
+    pool.shutdown();
+
+    smallQueue();
+  }
+
+  //队列比key少、rejectPolicy是阻塞的时候，KeyQueue在worker里重新提交自己不会阻塞，
+  //提交不进去就在当前worker上接着执行，不会把所有worker都卡在满的队列上
+  private static void smallQueue() throws InterruptedException {
+    ThreadPool pool = new ThreadPool(2, 2, 1000, TimeUnit.MILLISECONDS,
+        new RingBlockingQueue<>(2), 2, (queue, task) -> queue.put(task));
+    KeyedExecutor<Integer> executor = new KeyedExecutor<>(pool, 4);
+    CountDownLatch done = new CountDownLatch(400);
+    for (int i = 0; i < 40; i++) {
+      for (int key = 0; key < 10; key++) {
+        executor.execute(key, done::countDown);
+      }
+    }
+    boolean finished = done.await(5, TimeUnit.SECONDS);
+    System.out.println("小队列: " + (finished ? "400个任务全部执行完" : "还剩 " + done.getCount() + " 个任务没有执行"));
+    pool.shutdown();
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2021 Synopsys Inc. All rights reserved.
+ * This file is confidential material. Unauthorized distribution prohibited.
+ */
+package chapter08.diy_thread_pool;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+//无锁的对数分桶直方图，用来统计纳秒级的耗时
+//每个2的幂区间再平均分成8个子桶，所以分位数的相对误差不超过1/8
+//record只有几次原子加，没有锁，也不会分配内存
+class LatencyHistogram {
+
+  //每个2的幂区间的子桶数 = 2^SUB_BITS
+  private static final int SUB_BITS = 3;
+  private static final int SUB_COUNT = 1 << SUB_BITS;
+
+  //小于SUB_COUNT的值每个值一个桶，之后每个2的幂区间SUB_COUNT个桶
+  private static final int BUCKETS = (64 - SUB_BITS) * SUB_COUNT;
+
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder sum = new LongAdder();
+  private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+  public void record(long nanos) {
+    if (nanos < 0) {
+      nanos = 0;
+    }
+    buckets.incrementAndGet(indexOf(nanos));
+    count.increment();
+    sum.add(nanos);
+    max.accumulate(nanos);
+  }
+
+  static int indexOf(long value) {
+    if (value < SUB_COUNT) {
+      return (int) value;
+    }
+    //最高位的位置，value >= SUB_COUNT 所以 exp >= SUB_BITS
+    int exp = 63 - Long.numberOfLeadingZeros(value);
+    int sub = (int) (value >>> (exp - SUB_BITS)) & (SUB_COUNT - 1);
+    return (exp - SUB_BITS + 1) * SUB_COUNT + sub;
+  }
+
+  //桶里能放的最大值
+  static long upperBoundOf(int index) {
+    if (index < SUB_COUNT) {
+      return index;
+    }
+    int exp = index / SUB_COUNT + SUB_BITS - 1;
+    int sub = index % SUB_COUNT;
+    long lower = (long) (SUB_COUNT + sub) << (exp - SUB_BITS);
+    return lower + (1L << (exp - SUB_BITS)) - 1;
+  }
+
+  public long getCount() {
+    return count.sum();
+  }
+
+  public long getMax() {
+    return max.get();
+  }
+
+  public double getMean() {
+    long n = count.sum();
+    return n == 0 ? 0 : (double) sum.sum() / n;
+  }
+
+  //近似的分位数，percentile取值0~100，返回所在桶的上界（不超过最大值）
+  //和record并发执行时结果只是近似的，但不会出错
+  public long getPercentile(double percentile) {
+    long[] counts = new long[BUCKETS];
+    long total = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      counts[i] = buckets.get(i);
+      total += counts[i];
+    }
+    if (total == 0) {
+      return 0;
+    }
+    long rank = (long) Math.ceil(total * percentile / 100);
+    if (rank < 1) {
+      rank = 1;
+    }
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return Math.min(upperBoundOf(i), getMax());
+      }
+    }
+    return getMax();
+  }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2021 Synopsys Inc. All rights reserved.
+ * This file is confidential material. Unauthorized distribution prohibited.
+ */
+package chapter08.diy_thread_pool;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
+
+//开启指标统计，用快照和JMX(jconsole里的chapter08.diy_thread_pool)观察线程池
+public class MetricsTest {
+
+  public static void main(String[] args) throws InterruptedException, JMException {
+    ThreadPool pool = new ThreadPool(2, 4, 1000, TimeUnit.MILLISECONDS, 10, 5,
+        (queue, task) -> System.out.println("放弃 " + task));
+    ThreadPoolMetrics metrics = pool.enableMetrics();
+    metrics.registerMBean("MetricsTest");
+
+    for (int i = 0; i < 30; i++) {
+      int j = i;
+      pool.execute(() -> {
+        try {
+          Thread.sleep(10 * (j % 5));
+        } catch (InterruptedException e) {
+          e.printStackTrace();
+        }
+        if (j % 10 == 0) {
+          throw new IllegalStateException("任务失败 " + j);
+        }
+      });
+    }
+    CompletableFuture<Object> future = pool.submit(() -> {
+      throw new IllegalStateException("submit的任务失败");
+    });
+
+    Thread.sleep(1000);
+    //队列满了被放弃的话future以RejectedExecutionException结束，否则是任务自己抛出的异常
+    future.whenComplete((result, e) -> System.out.println("submit的任务结束了 " + e));
+    System.out.println(metrics.snapshot());
+
+    pool.shutdown();
+    while (!pool.isTerminated()) {
+      Thread.sleep(10);
+    }
+  }
+}
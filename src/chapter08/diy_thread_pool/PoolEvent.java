@@ -0,0 +1,31 @@
+/*
+ * Copyright 2021 Synopsys Inc. All rights reserved.
+ * This file is confidential material. Unauthorized distribution prohibited.
+ */
+package chapter08.diy_thread_pool;
+
+//事件类型，label就是以前println打印的内容
+enum PoolEvent {
+  WORKER_ADDED("新增 worker "),
+  BURST_WORKER_ADDED("新增救急 worker "),
+  WORKER_REMOVED("Worker 被移除了 "),
+  TASK_RUNNING("正在执行... "),
+  TASK_WAITING("等待加入任务队列 "),
+  TASK_ENQUEUED("加入任务队列 "),
+  BATCH_ENQUEUED("加入任务队列 个数 ");
+
+  private final String label;
+
+  PoolEvent(String label) {
+    this.label = label;
+  }
+
+  public String format(Object subject, Object detail) {
+    return detail == null ? label + subject : label + subject + detail;
+  }
+
+  //只带一个计数的事件，比如BATCH_ENQUEUED
+  public String format(int count) {
+    return label + count;
+  }
+}
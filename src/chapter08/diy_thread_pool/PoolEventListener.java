@@ -0,0 +1,38 @@
+/*
+ * Copyright 2021 Synopsys Inc. All rights reserved.
+ * This file is confidential material. Unauthorized distribution prohibited.
+ */
+package chapter08.diy_thread_pool;
+
+//线程池和阻塞队列的事件监听
+//以前每个事件都直接System.out.println，要抢PrintStream的锁还要阻塞写控制台，比任务本身还慢。
+//现在只把事件类型和相关对象传出来，不拼字符串、不分配内存，
+//默认的NONE是空实现，两个onEvent都覆盖了，JIT内联之后相当于什么都没做，计数也不会被装箱
+@FunctionalInterface
+interface PoolEventListener {
+
+  //默认：什么都不做
+  PoolEventListener NONE = new PoolEventListener() {
+    @Override
+    public void onEvent(PoolEvent event, Object subject, Object detail) {
+    }
+
+    @Override
+    public void onEvent(PoolEvent event, int count) {
+    }
+  };
+
+  //和以前一样同步打印到控制台，适合学习和调试
+  PoolEventListener CONSOLE = (event, subject, detail) ->
+      System.out.println(event.format(subject, detail));
+
+  //subject是事件的主体（worker或者任务），detail是附加信息，可能为null
+  void onEvent(PoolEvent event, Object subject, Object detail);
+
+  //只带一个计数的事件，热路径上调用这个，避免每次都把int装箱成Integer
+  //默认实现会装箱后转给上面的方法，不在乎这点开销的监听器（比如CONSOLE）不用覆盖
+  default void onEvent(PoolEvent event, int count) {
+    onEvent(event, count, null);
+  }
+}
+
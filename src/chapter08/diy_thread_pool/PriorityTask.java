@@ -0,0 +1,88 @@
+/*
+ * Copyright 2021 Synopsys Inc. All rights reserved.
+ * This file is confidential material. Unauthorized distribution prohibited.
+ */
+package chapter08.diy_thread_pool;
+
+import java.util.concurrent.TimeUnit;
+
+//带优先级和截止时间的任务，配合DeadlineBlockingQueue使用
+//优先级数字越大越先执行；截止时间是可选的，过了截止时间还没开始执行的任务会被丢弃
+class PriorityTask implements Runnable, Timed {
+
+  //没有截止时间
+  static final long NO_DEADLINE = Long.MAX_VALUE;
+
+  private final Runnable task;
+
+  private final int priority;
+
+  //截止时间，System.nanoTime()的绝对值
+  private final long deadline;
+
+  //提交时间，开启指标统计时用来计算排队时间
+  private long submitNanos;
+
+  //是否占用着准入控制的名额
+  private boolean admitted;
+
+  PriorityTask(Runnable task, int priority) {
+    this.task = task;
+    this.priority = priority;
+    this.deadline = NO_DEADLINE;
+  }
+
+  //timeout是从现在开始算的相对时间
+  PriorityTask(Runnable task, int priority, long timeout, TimeUnit timeUnit) {
+    this.task = task;
+    this.priority = priority;
+    this.deadline = System.nanoTime() + timeUnit.toNanos(timeout);
+  }
+
+  public int getPriority() {
+    return priority;
+  }
+
+  public long getDeadline() {
+    return deadline;
+  }
+
+  public boolean hasDeadline() {
+    return deadline != NO_DEADLINE;
+  }
+
+  //用差值比较，避免nanoTime溢出的问题
+  public boolean isExpired(long now) {
+    return hasDeadline() && now - deadline > 0;
+  }
+
+  @Override
+  public void setSubmitNanos(long nanos) {
+    this.submitNanos = nanos;
+  }
+
+  @Override
+  public long getSubmitNanos() {
+    return submitNanos;
+  }
+
+  @Override
+  public void setAdmitted(boolean admitted) {
+    this.admitted = admitted;
+  }
+
+  @Override
+  public boolean isAdmitted() {
+    return admitted;
+  }
+
+  @Override
+  public void run() {
+    task.run();
+  }
+
+  @Override
+  public String toString() {
+    return "PriorityTask{" + task + ", priority=" + priority + '}';
+  }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2021 Synopsys Inc. All rights reserved.
+ * This file is confidential material. Unauthorized distribution prohibited.
+ */
+package chapter08.diy_thread_pool;
+
+import java.util.concurrent.TimeUnit;
+
+//批量任务和交互任务共用一个线程池：
+//交互任务优先级更高，不用排在一堆批量任务后面；截止时间已经过了的任务不再占用worker
+public class PriorityTest {
+
+  public static void main(String[] args) throws InterruptedException {
+    //队列满了的任务交给线程池的rejectPolicy，过期的任务直接丢弃，只计入过期数
+    run("丢弃", (q, task) -> System.out.println("任务被拒绝了 " + task));
+    //放回队列的rejectPolicy也不会拿到过期任务，过期任务不会在队列里一直循环
+    run("放回队列", (q, task) -> q.put(task));
+  }
+
+  private static void run(String name, RejectPolicy<Runnable> rejectPolicy) throws InterruptedException {
+    System.out.println("rejectPolicy: " + name);
+    DeadlineBlockingQueue queue = new DeadlineBlockingQueue(100);
+    ThreadPool pool = new ThreadPool(1, 1, 1000, TimeUnit.MILLISECONDS, queue, 100, rejectPolicy);
+    ThreadPoolMetrics metrics = pool.enableMetrics();
+
+    //先占住唯一的worker
+    pool.execute(() -> sleep(200));
+
+    for (int i = 0; i < 5; i++) {
+      int j = i;
+      pool.execute(new PriorityTask(() -> {
+        sleep(50);
+        System.out.println("批量任务 " + j);
+      }, 0));
+    }
+    //截止时间很短，等worker空出来的时候已经过期了
+    pool.execute(new PriorityTask(() -> System.out.println("不应该执行"), 10,
+        100, TimeUnit.MILLISECONDS));
+    //交互任务，优先级高，截止时间早的先执行
+    pool.execute(new PriorityTask(() -> System.out.println("交互任务 2"), 10,
+        2000, TimeUnit.MILLISECONDS));
+    pool.execute(new PriorityTask(() -> System.out.println("交互任务 1"), 10,
+        1000, TimeUnit.MILLISECONDS));
+
+    //队列里的任务执行完之后worker退出，程序正常结束
+    pool.shutdown();
+    while (!pool.isTerminated()) {
+      Thread.sleep(10);
+    }
+    System.out.println("拒绝数 " + metrics.getRejectedCount() + " 过期数 " + metrics.getExpiredCount());
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      e.printStackTrace();
+    }
+  }
+}
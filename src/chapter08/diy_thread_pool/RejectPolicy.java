@@ -0,0 +1,11 @@
+/*
+ * Copyright 2021 Synopsys Inc. All rights reserved.
+ * This file is confidential material. Unauthorized distribution prohibited.
+ */
+package chapter08.diy_thread_pool;
+
+//拒绝策略，函数式接口
+@FunctionalInterface
+interface RejectPolicy<T> {
+  public void reject(BlockingQueue<T> queue, T task);
+}
@@ -0,0 +1,350 @@
+/*
+ * Copyright 2021 Synopsys Inc. All rights reserved.
+ * This file is confidential material. Unauthorized distribution prohibited.
+ */
+package chapter08.diy_thread_pool;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+//无锁的有界多生产者多消费者环形队列（Vyukov的算法）
+//每个槽位有一个序号sequence：
+//  sequence == pos       表示这个槽位空着，生产者可以往里放
+//  sequence == pos + 1   表示这个槽位有数据，消费者可以取走
+//生产者和消费者只需要CAS各自的下标，不需要加锁。
+//只有队列真的满了或者空了需要等待的时候，才会用到锁和fullWaitSet/emptyWaitSet
+//删除不能把中间的槽位挪走，只是用CAS把元素换成REMOVED，消费者取到REMOVED直接跳过，
+//删除之后队头连续的REMOVED会马上跳过，中间的要等消费者走到它那里才会真正腾出位置，在这之前size()也还算着它
+class RingBlockingQueue<T> implements BlockingQueue<T> {
+
+  //槽位数组，长度是2的幂，这样可以用 pos & mask 代替取模
+  private final AtomicReferenceArray<Object> buffer;
+  private final AtomicLongArray sequences;
+  private final int mask;
+
+  //被删除的元素留下的占位
+  private static final Object REMOVED = new Object();
+
+  //下一个要放入的位置
+  private final AtomicLong tail = new AtomicLong();
+  //下一个要取出的位置
+  private final AtomicLong head = new AtomicLong();
+
+  //锁和条件变量只在需要等待的时候使用
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition fullWaitSet = lock.newCondition();
+  private final Condition emptyWaitSet = lock.newCondition();
+
+  //正在等待的线程数，没有线程等待的时候生产者和消费者就不用去加锁唤醒了
+  private final AtomicInteger fullWaiters = new AtomicInteger();
+  private final AtomicInteger emptyWaiters = new AtomicInteger();
+
+  //事件监听，在放入成功之后、开始等待之前通知，快速路径上不加锁
+  private PoolEventListener listener = PoolEventListener.NONE;
+
+  //capcity会向上取整到2的幂，算法要求至少有2个槽位
+  RingBlockingQueue(int capcity) {
+    if (capcity <= 0 || capcity > (1 << 30)) {
+      throw new IllegalArgumentException();
+    }
+    int size = capcity < 2 ? 2 : Integer.highestOneBit(capcity - 1) << 1;
+    this.buffer = new AtomicReferenceArray<>(size);
+    this.sequences = new AtomicLongArray(size);
+    this.mask = size - 1;
+    for (int i = 0; i < size; i++) {
+      sequences.set(i, i);
+    }
+  }
+
+  //非阻塞添加，队列满了返回false
+  public boolean tryOffer(T element) {
+    if (element == null) {
+      throw new NullPointerException();
+    }
+    long pos = tail.get();
+    while (true) {
+      int index = (int) pos & mask;
+      long seq = sequences.get(index);
+      long diff = seq - pos;
+      if (diff == 0) {
+        //槽位空着，抢占这个位置
+        if (tail.compareAndSet(pos, pos + 1)) {
+          buffer.lazySet(index, element);
+          //sequences是volatile写，保证消费者看到sequence时也能看到element
+          sequences.set(index, pos + 1);
+          signalNotEmpty();
+          return true;
+        }
+        pos = tail.get();
+      } else if (diff < 0) {
+        //这个槽位上一圈的数据还没被取走，说明队列满了
+        return false;
+      } else {
+        //被别的生产者抢先了，重新读取tail
+        pos = tail.get();
+      }
+    }
+  }
+
+  //非阻塞获取，队列空了返回null
+  @SuppressWarnings("unchecked")
+  public T tryPoll() {
+    long pos = head.get();
+    while (true) {
+      int index = (int) pos & mask;
+      long seq = sequences.get(index);
+      long diff = seq - (pos + 1);
+      if (diff == 0) {
+        if (head.compareAndSet(pos, pos + 1)) {
+          //和removeIf抢这个元素，removeIf先换成了REMOVED就跳过，继续取下一个
+          Object t = buffer.getAndSet(index, null);
+          //把槽位留给下一圈的生产者
+          sequences.set(index, pos + mask + 1);
+          signalNotFull();
+          if (t != REMOVED) {
+            return (T) t;
+          }
+        }
+        pos = head.get();
+      } else if (diff < 0) {
+        //还没有生产者放入数据，队列是空的
+        return null;
+      } else {
+        pos = head.get();
+      }
+    }
+  }
+
+  public T take() {
+    T t = tryPoll();
+    if (t != null) {
+      return t;
+    }
+    lock.lock();
+    emptyWaiters.incrementAndGet();
+    try {
+      //先登记成等待者再检查一次，避免生产者在这之间放入数据却没有唤醒我们
+      while ((t = tryPoll()) == null) {
+        try {
+          emptyWaitSet.await();
+        } catch (InterruptedException e) {
+          e.printStackTrace();
+        }
+      }
+      return t;
+    } finally {
+      emptyWaiters.decrementAndGet();
+      lock.unlock();
+    }
+  }
+
+  public T poll(long timeout, TimeUnit timeUnit) {
+    T t = tryPoll();
+    if (t != null) {
+      return t;
+    }
+    long nanos = timeUnit.toNanos(timeout);
+    lock.lock();
+    emptyWaiters.incrementAndGet();
+    try {
+      while ((t = tryPoll()) == null) {
+        try {
+          if (nanos <= 0) {
+            return null;
+          }
+          nanos = emptyWaitSet.awaitNanos(nanos);
+        } catch (InterruptedException e) {
+          e.printStackTrace();
+        }
+      }
+      return t;
+    } finally {
+      emptyWaiters.decrementAndGet();
+      lock.unlock();
+    }
+  }
+
+  public void put(T element) {
+    if (tryOffer(element)) {
+      listener.onEvent(PoolEvent.TASK_ENQUEUED, element, null);
+      return;
+    }
+    lock.lock();
+    fullWaiters.incrementAndGet();
+    try {
+      while (!tryOffer(element)) {
+        try {
+          listener.onEvent(PoolEvent.TASK_WAITING, element, null);
+          fullWaitSet.await();
+        } catch (InterruptedException e) {
+          e.printStackTrace();
+        }
+      }
+      listener.onEvent(PoolEvent.TASK_ENQUEUED, element, null);
+    } finally {
+      fullWaiters.decrementAndGet();
+      lock.unlock();
+    }
+  }
+
+  public boolean offer(T element, long timeout, TimeUnit timeUnit) {
+    if (tryOffer(element)) {
+      listener.onEvent(PoolEvent.TASK_ENQUEUED, element, null);
+      return true;
+    }
+    long nanos = timeUnit.toNanos(timeout);
+    lock.lock();
+    fullWaiters.incrementAndGet();
+    try {
+      while (!tryOffer(element)) {
+        try {
+          if (nanos <= 0) {
+            return false;
+          }
+          listener.onEvent(PoolEvent.TASK_WAITING, element, null);
+          nanos = fullWaitSet.awaitNanos(nanos);
+        } catch (InterruptedException e) {
+          e.printStackTrace();
+        }
+      }
+      listener.onEvent(PoolEvent.TASK_ENQUEUED, element, null);
+      return true;
+    } finally {
+      fullWaiters.decrementAndGet();
+      lock.unlock();
+    }
+  }
+
+  //并发情况下只是一个近似值
+  public int size() {
+    while (true) {
+      long h = head.get();
+      long t = tail.get();
+      //两次读到的head一样，说明读tail的时候head没有变，结果才是一致的
+      if (h == head.get()) {
+        return (int) Math.max(0, Math.min(t - h, buffer.length()));
+      }
+    }
+  }
+
+  public int capacity() {
+    return buffer.length();
+  }
+
+  //每个元素只需要一次CAS，不用加锁
+  public int drainTo(Collection<? super T> c, int max) {
+    int n = 0;
+    T t;
+    while (n < max && (t = tryPoll()) != null) {
+      c.add(t);
+      n++;
+    }
+    return n;
+  }
+
+  public boolean remove(T element) {
+    return removeIf(new Predicate<T>() {
+      //只删一个
+      private boolean found;
+
+      @Override
+      public boolean test(T t) {
+        return !found && (found = t.equals(element));
+      }
+    });
+  }
+
+  //不加锁，从head到tail扫一遍，满足filter的元素用CAS换成REMOVED
+  //和消费者抢同一个元素时只有一边能成功；扫描期间新放入的元素不一定能看到
+  @SuppressWarnings("unchecked")
+  public boolean removeIf(Predicate<? super T> filter) {
+    boolean removed = false;
+    long h = head.get();
+    long t = tail.get();
+    for (long pos = h; pos < t && pos - h < buffer.length(); pos++) {
+      int index = (int) pos & mask;
+      //槽位里放的还是这一圈的数据才检查
+      if (sequences.get(index) != pos + 1) {
+        continue;
+      }
+      Object e = buffer.get(index);
+      if (e != null && e != REMOVED && filter.test((T) e) && buffer.compareAndSet(index, e, REMOVED)) {
+        removed = true;
+      }
+    }
+    if (removed) {
+      skipRemoved();
+    }
+    return removed;
+  }
+
+  //像消费者一样把队头连续的REMOVED取走，腾出位置
+  //REMOVED只会被抢到这个槽位的消费者清掉，所以看到REMOVED之后CAS成功，槽位里一定还是它
+  private void skipRemoved() {
+    long pos = head.get();
+    while (true) {
+      int index = (int) pos & mask;
+      if (sequences.get(index) != pos + 1 || buffer.get(index) != REMOVED) {
+        return;
+      }
+      if (head.compareAndSet(pos, pos + 1)) {
+        buffer.set(index, null);
+        sequences.set(index, pos + mask + 1);
+        signalNotFull();
+      }
+      pos = head.get();
+    }
+  }
+
+  //放不进去的元素按put等待，和put一样通知等待和入队，最后再通知整批
+  public void putAll(Collection<? extends T> elements) {
+    for (T element : elements) {
+      if (!tryOffer(element)) {
+        put(element);
+      }
+    }
+    listener.onEvent(PoolEvent.BATCH_ENQUEUED, elements.size());
+  }
+
+  public void tryPut(RejectPolicy<T> rejectPolicy, T task) {
+    if (tryOffer(task)) {
+      listener.onEvent(PoolEvent.TASK_ENQUEUED, task, null);
+    } else {
+      //队列满了，不持有任何锁，直接交给rejectPolicy处理
+      rejectPolicy.reject(this, task);
+    }
+  }
+
+  public void setEventListener(PoolEventListener listener) {
+    this.listener = listener;
+  }
+
+  private void signalNotEmpty() {
+    if (emptyWaiters.get() > 0) {
+      lock.lock();
+      try {
+        emptyWaitSet.signal();
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  private void signalNotFull() {
+    if (fullWaiters.get() > 0) {
+      lock.lock();
+      try {
+        fullWaitSet.signal();
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2021 Synopsys Inc. All rights reserved.
+ * This file is confidential material. Unauthorized distribution prohibited.
+ */
+package chapter08.diy_thread_pool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+//submit、invokeAll、invokeAny和取消的用法
+public class SubmitTest {
+
+  public static void main(String[] args) throws InterruptedException, ExecutionException {
+    ThreadPool pool = new ThreadPool(2, 1000, TimeUnit.MILLISECONDS, 10, (queue, task) -> {
+      throw new RuntimeException("任务执行失败 " + task);
+    });
+
+    //1. 拿到返回值
+    CompletableFuture<Integer> future = pool.submit(() -> {
+      Thread.sleep(500);
+      return 1 + 1;
+    });
+    System.out.println("结果 " + future.get());
+
+    //2. 任务里的异常会放进future
+    CompletableFuture<Integer> failed = pool.submit(() -> {
+      throw new IllegalStateException("出错了");
+    });
+    try {
+      failed.get();
+    } catch (ExecutionException e) {
+      System.out.println("异常 " + e.getCause());
+    }
+
+    //3. 两个worker都在忙，第三个任务在队列里排队，取消之后它不会被执行
+    //  取消的任务占到队列的四分之一时线程池会一次把它们从队列中删掉，这里队列里只有它一个，马上就删了
+    pool.submit(() -> sleep(1000));
+    pool.submit(() -> sleep(1000));
+    CompletableFuture<String> queued = pool.submit(() -> {
+      System.out.println("被取消的任务不应该执行");
+      return "queued";
+    });
+    System.out.println("取消 " + queued.cancel(false) + "，队列长度 " + pool.getQueueSize());
+
+    //4. invokeAll等所有任务完成
+    List<Callable<Integer>> tasks = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      int j = i;
+      tasks.add(() -> {
+        Thread.sleep(100);
+        return j * j;
+      });
+    }
+    for (CompletableFuture<Integer> f : pool.invokeAll(tasks)) {
+      System.out.println("invokeAll " + f.join());
+    }
+
+    //5. invokeAny返回最快的那个
+    List<Callable<String>> racers = new ArrayList<>();
+    racers.add(() -> sleep(800));
+    racers.add(() -> sleep(100));
+    System.out.println("invokeAny " + pool.invokeAny(racers));
+  }
+
+  private static String sleep(long millis) throws InterruptedException {
+    Thread.sleep(millis);
+    return "sleep " + millis;
+  }
+}
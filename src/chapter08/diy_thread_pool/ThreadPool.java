@@ -0,0 +1,1013 @@
+/*
+ * Copyright 2021 Synopsys Inc. All rights reserved.
+ * This file is confidential material. Unauthorized distribution prohibited.
+ */
+package chapter08.diy_thread_pool;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+//线程池，包含两个部分：线程集合和阻塞队列
+class ThreadPool {
+
+  //阻塞队列
+  private BlockingQueue<Runnable> taskQueue;
+
+  //线程集合，只用来生成stealTargets，线程数以ctl为准
+  private HashSet<Worker> workers = new HashSet<>();
+
+  //保护workers集合的锁，只有创建和销毁worker的时候才需要，execute只是入队的时候不用加锁
+  //没有用synchronized：虚拟线程在synchronized上阻塞会占住载体线程(pinning)，
+  //大量虚拟worker同时退出时可能把所有载体线程都占满
+  private final ReentrantLock mainLock = new ReentrantLock();
+
+  //控制字，参考ThreadPoolExecutor的ctl，把运行状态和线程数放在一个int里：
+  //高3位是运行状态，低29位是线程数，这样"检查状态和线程数再加一"可以用一次CAS完成
+  private static final int COUNT_BITS = Integer.SIZE - 3;
+  private static final int COUNT_MASK = (1 << COUNT_BITS) - 1;
+  //正常运行，接收新任务
+  private static final int RUNNING = 0;
+  //调用了shutdown，不再接收新任务，已经在队列里的任务会执行完
+  private static final int SHUTDOWN = 1 << COUNT_BITS;
+  private final AtomicInteger ctl = new AtomicInteger(RUNNING);
+
+  private static int runStateOf(int c) {
+    return c & ~COUNT_MASK;
+  }
+
+  private static int workerCountOf(int c) {
+    return c & COUNT_MASK;
+  }
+
+  //shutdown时放进队列里唤醒阻塞等待的worker，worker取到它直接跳过
+  private static final Runnable WAKE_UP = () -> {
+  };
+
+  //核心线程数，线程池里常驻的线程数量
+  private int coreSize;
+
+  //最大线程数，核心线程都在忙并且队列积压超过阈值时，可以临时增加救急线程，但线程总数不能超过maxSize
+  private int maxSize;
+
+  //队列中积压的任务数达到这个阈值时，才会去创建救急线程
+  private int burstThreshold;
+
+  //核心线程是否也会超时销毁
+  //只传coreSize的构造方法保持原来的行为，所有线程空闲超时后都会被销毁
+  private boolean coreTimeout;
+
+  //阻塞队列的最大容量
+  private int queueSize;
+
+  //超时时间，如果超过一定时间线程还没有任务执行就销毁线程
+  private long timeout;
+
+  private TimeUnit timeUnit;
+
+  private RejectPolicy<Runnable> rejectPolicy;
+
+  //线程池内部所有的拒绝都走这里，统计拒绝数，再把原始任务交给rejectPolicy
+  private final RejectPolicy<Runnable> rejectPath = this::rejectFull;
+
+  //上次purge之后取消的、还没开始执行的submit任务数，只是一个提示，用来决定什么时候purge
+  private final AtomicInteger cancelledSincePurge = new AtomicInteger();
+
+  //每个worker本地队列的最大长度，大于0时开启工作窃取
+  private int localQueueSize;
+
+  //所有worker的快照，用来随机挑选被窃取的对象，worker增减时在mainLock里重新生成
+  private volatile Worker[] stealTargets = new Worker[0];
+
+  //正在共享队列上阻塞等待的worker数
+  private final AtomicInteger idleWorkers = new AtomicInteger();
+
+  //worker每次从共享队列最多取多少个任务，大于1时一次加锁取走一批，然后连续执行
+  private int batchSize = 1;
+
+  //创建worker线程的工厂，默认是普通的平台线程，也可以换成VirtualThreads.factory()
+  private ThreadFactory threadFactory = r -> new Thread(r);
+
+  //事件监听，默认什么都不做
+  //不是volatile的，只能在创建第一个worker之前设置，之后就不会再变，
+  //每个调用点看到的一直是同一个实现，空实现的调用可以被JIT完全优化掉
+  private PoolEventListener listener = PoolEventListener.NONE;
+
+  //是否已经创建过worker，由mainLock保护，创建之后就不能再换事件监听了
+  private boolean started;
+
+  //指标统计，没有开启时是null
+  private volatile ThreadPoolMetrics metrics;
+
+  //worker在共享队列上的等待策略，默认直接阻塞
+  private WaitStrategy waitStrategy = WaitStrategy.BLOCKING;
+
+  //准入控制，没有设置时是null
+  private volatile AdmissionController admission;
+
+  //当前线程对应的worker，worker不再继承Thread之后用它来判断"是不是本线程池的worker在提交任务"
+  private static final ThreadLocal<Worker> CURRENT_WORKER = new ThreadLocal<>();
+
+  public ThreadPool(int coreSize, long timeout, TimeUnit timeUnit,
+      int queueSize, RejectPolicy<Runnable> rejectPolicy) {
+    this(coreSize, coreSize, timeout, timeUnit, queueSize, queueSize, rejectPolicy);
+    this.coreTimeout = true;
+  }
+
+  //弹性线程池：核心线程常驻，救急线程在空闲超过timeout之后被回收
+  public ThreadPool(int coreSize, int maxSize, long timeout, TimeUnit timeUnit,
+      int queueSize, int burstThreshold, RejectPolicy<Runnable> rejectPolicy) {
+    this(coreSize, maxSize, timeout, timeUnit, new DequeBlockingQueue<>(queueSize),
+        burstThreshold, rejectPolicy);
+  }
+
+  //由调用者自己选择阻塞队列的实现，比如无锁的RingBlockingQueue
+  public ThreadPool(int coreSize, int maxSize, long timeout, TimeUnit timeUnit,
+      BlockingQueue<Runnable> taskQueue, int burstThreshold, RejectPolicy<Runnable> rejectPolicy) {
+    this(coreSize, maxSize, timeout, timeUnit, taskQueue, burstThreshold, rejectPolicy, 0);
+  }
+
+  //工作窃取线程池：worker在执行任务时提交的子任务放进自己的本地队列（后进先出），
+  //空闲的worker先从随机的其他worker那里偷任务（先进先出），偷不到再去共享队列取。
+  //本地队列满了之后，子任务还是走共享队列和rejectPolicy
+  public ThreadPool(int coreSize, int maxSize, long timeout, TimeUnit timeUnit,
+      BlockingQueue<Runnable> taskQueue, int burstThreshold, RejectPolicy<Runnable> rejectPolicy,
+      int localQueueSize) {
+    if (coreSize <= 0 || maxSize < coreSize || burstThreshold < 0
+        || burstThreshold > taskQueue.capacity() || localQueueSize < 0) {
+      throw new IllegalArgumentException();
+    }
+    this.coreSize = coreSize;
+    this.maxSize = maxSize;
+    this.burstThreshold = burstThreshold;
+    this.timeout = timeout;
+    this.timeUnit = timeUnit;
+    this.queueSize = taskQueue.capacity();
+    this.taskQueue = taskQueue;
+    this.rejectPolicy = rejectPolicy;
+    this.localQueueSize = localQueueSize;
+    taskQueue.setExpiryHandler(this::expire);
+  }
+
+  //worker本身只是一个Runnable，由threadFactory创建真正执行它的线程（平台线程或者虚拟线程）
+  class Worker implements Runnable {
+
+    private final Thread thread;
+
+    private Runnable task;
+
+    //是否是核心线程，核心线程没有任务时一直阻塞等待，救急线程等待超时后就退出
+    private boolean core;
+
+    //本地队列，只有开启工作窃取时才有
+    //自己从队头放、从队头取（后进先出），别的worker从队尾偷（先进先出）
+    private Deque<Runnable> localTasks;
+
+    //本地队列的长度，ConcurrentLinkedDeque的size()需要遍历，所以单独计数
+    private AtomicInteger localCount;
+
+    //从共享队列批量取出来、还没执行的任务，只有自己会访问，别的worker偷不到
+    private Deque<Runnable> batch;
+
+    public Worker(Runnable task, boolean core) {
+      this.task = task;
+      this.core = core;
+      if (localQueueSize > 0) {
+        this.localTasks = new ConcurrentLinkedDeque<>();
+        this.localCount = new AtomicInteger();
+      }
+      this.thread = threadFactory.newThread(this);
+    }
+
+    //核心线程用take阻塞获取，救急线程用poll超时获取
+    private Runnable getTask() {
+      //已经批量取出来的任务先执行完
+      if (batch != null && !batch.isEmpty()) {
+        return batch.pollFirst();
+      }
+      if (localTasks == null) {
+        return pollShared();
+      }
+      //1. 先取自己本地队列里最新放入的任务
+      Runnable t = localTasks.pollFirst();
+      if (t != null) {
+        localCount.decrementAndGet();
+        return t;
+      }
+      //2. 再去别的worker那里偷
+      t = steal();
+      if (t != null) {
+        return t;
+      }
+      //3. 最后去共享队列
+      //先登记为空闲再偷一次，这样execute里要么能看到我们空闲，要么我们能偷到它新放入的子任务
+      idleWorkers.incrementAndGet();
+      try {
+        t = steal();
+        if (t != null) {
+          return t;
+        }
+        return pollShared();
+      } finally {
+        idleWorkers.decrementAndGet();
+      }
+    }
+
+    private Runnable pollShared() {
+      //关闭之后不再等待，队列取空了worker就退出
+      if (runStateOf(ctl.get()) != RUNNING) {
+        return taskQueue.tryPoll();
+      }
+      boolean forever = core && !coreTimeout;
+      long deadline = forever ? 0 : System.nanoTime() + timeUnit.toNanos(timeout);
+      //先按等待策略自旋一会儿，拿到了就不用阻塞了
+      Runnable t = waitStrategy.spin(taskQueue, forever, deadline);
+      if (t != null) {
+        if (batchSize > 1) {
+          if (batch == null) {
+            batch = new ArrayDeque<>(batchSize);
+          }
+          taskQueue.drainTo(batch, batchSize - 1);
+        }
+        return t;
+      }
+      long nanos = forever ? Long.MAX_VALUE : deadline - System.nanoTime();
+      if (batchSize > 1) {
+        if (batch == null) {
+          batch = new ArrayDeque<>(batchSize);
+        }
+        if (forever) {
+          while (taskQueue.pollBatch(batch, batchSize, Long.MAX_VALUE, TimeUnit.NANOSECONDS) == 0) {
+          }
+        } else {
+          taskQueue.pollBatch(batch, batchSize, nanos, TimeUnit.NANOSECONDS);
+        }
+        return batch.pollFirst();
+      }
+      if (forever) {
+        return taskQueue.take();
+      }
+      return taskQueue.poll(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    //从随机的一个worker开始，依次尝试从它们本地队列的队尾偷一个任务
+    private Runnable steal() {
+      Worker[] targets = stealTargets;
+      int n = targets.length;
+      if (n <= 1) {
+        return null;
+      }
+      int start = ThreadLocalRandom.current().nextInt(n);
+      for (int i = 0; i < n; i++) {
+        Worker victim = targets[(start + i) % n];
+        if (victim == this || victim.localTasks == null) {
+          continue;
+        }
+        Runnable t = victim.localTasks.pollLast();
+        if (t != null) {
+          victim.localCount.decrementAndGet();
+          return t;
+        }
+      }
+      return null;
+    }
+
+    //子任务放进本地队列，本地队列满了返回false
+    private boolean pushLocal(Runnable task) {
+      if (localCount.get() >= localQueueSize) {
+        return false;
+      }
+      localCount.incrementAndGet();
+      localTasks.offerFirst(task);
+      //有worker在共享队列上睡着，它们看不到本地队列，就把最早的一个任务转到共享队列上把它唤醒
+      if (idleWorkers.get() > 0) {
+        Runnable oldest = localTasks.pollLast();
+        if (oldest != null) {
+          localCount.decrementAndGet();
+          if (!taskQueue.offer(oldest, 0, TimeUnit.NANOSECONDS)) {
+            localCount.incrementAndGet();
+            localTasks.offerLast(oldest);
+          }
+        }
+      }
+      return true;
+    }
+
+    //把刚放进本地队列的任务删掉，已经被偷走或者转到共享队列的话返回false
+    private boolean removeLocal(Runnable task) {
+      if (localTasks.removeFirstOccurrence(task)) {
+        localCount.decrementAndGet();
+        return true;
+      }
+      return false;
+    }
+
+    private ThreadPool pool() {
+      return ThreadPool.this;
+    }
+
+    //执行任务
+    @Override
+    public void run() {
+      CURRENT_WORKER.set(this);
+      //任务抛出Error时异常会一直抛出去，worker线程结束，退出的清理工作放在finally里
+      boolean abrupt = true;
+      try {
+        runTasks();
+        abrupt = false;
+      } finally {
+        exit(abrupt);
+      }
+    }
+
+    private void runTasks() {
+      //1.当task不为空，直接执行任务
+      //2.当执行完任务后，从queue里获取任务执行
+      while (task != null || (task = getTask()) != null) {
+        if (task == WAKE_UP) {
+          task = null;
+          continue;
+        }
+        //已经取消的future还没被purge掉，或者在本地队列、批量取出来的任务里，取出来直接跳过
+        if (isCancelledFuture(task)) {
+          ThreadPoolMetrics m = metrics;
+          if (m != null) {
+            m.onCancel();
+          }
+          releaseAdmission(task);
+          task = null;
+          continue;
+        }
+        ThreadPoolMetrics m = metrics;
+        AdmissionController ac = admission;
+        //占着名额的任务执行完之后通过onSample归还，rejectPolicy放回队列的任务不占名额
+        boolean admitted = ac != null && Timed.clearAdmitted(task);
+        boolean timed = m != null || admitted;
+        long start = 0;
+        long queueWait = 0;
+        if (timed) {
+          start = System.nanoTime();
+          queueWait = Timed.queueWaitNanos(task, start);
+        }
+        boolean thrown = true;
+        try {
+          listener.onEvent(PoolEvent.TASK_RUNNING, Timed.unwrap(task), null);
+          task.run();
+          thrown = false;
+        } catch (Exception e) {
+          e.printStackTrace();
+        } finally {
+          if (timed) {
+            long elapsed = System.nanoTime() - start;
+            boolean failed = thrown || isFailedFuture(task);
+            if (m != null) {
+              //出队之后、开始执行之前被取消的，run里直接返回了，也算取消
+              if (!thrown && isCancelledFuture(task)) {
+                m.onCancel();
+              } else {
+                m.afterExecute(queueWait, elapsed, failed);
+              }
+            }
+            if (admitted) {
+              ac.onSample(Math.max(queueWait, 0), elapsed, failed);
+            }
+          }
+          task = null;
+        }
+      }
+    }
+
+    //执行完任务之后把该线程从线程池中删掉，参考ThreadPoolExecutor.processWorkerExit
+    //abrupt为true表示任务抛出了Error，这时线程池还在运行的话补一个同类的worker，
+    //否则线程数会越来越少，核心线程也不会被补上
+    private void exit(boolean abrupt) {
+      ctl.decrementAndGet();
+      mainLock.lock();
+      try {
+        listener.onEvent(PoolEvent.WORKER_REMOVED, this, null);
+        workers.remove(this);
+        if (localTasks != null) {
+          stealTargets = workers.toArray(new Worker[0]);
+        }
+      } finally {
+        mainLock.unlock();
+      }
+      CURRENT_WORKER.remove();
+      if (abrupt) {
+        if (runStateOf(ctl.get()) == RUNNING) {
+          addWorker(null, core);
+        }
+        requeueLeftovers();
+      }
+      //execute是先入队再检查线程数，这里是先减线程数再检查队列，两边至少有一边能发现对方，
+      //所以不会出现任务留在队列里却没有线程的情况
+      int c = ctl.get();
+      if (workerCountOf(c) == 0 && taskQueue.size() > 0) {
+        addWorker(null, false);
+      } else if (runStateOf(c) != RUNNING && workerCountOf(c) > 0) {
+        //关闭的时候可能有worker在shutdown放WAKE_UP之后才开始阻塞等待，退出时再接力唤醒一个
+        taskQueue.offer(WAKE_UP, 0, TimeUnit.NANOSECONDS);
+      }
+    }
+
+    //批量取出来的和本地队列里还没执行的任务，只有异常退出时才会剩下，还回共享队列让别的worker执行
+    //这个worker已经不在stealTargets里了，本地队列里的任务别人偷不到
+    private void requeueLeftovers() {
+      Runnable t;
+      while (batch != null && (t = batch.pollFirst()) != null) {
+        requeue(t);
+      }
+      while (localTasks != null && (t = localTasks.pollFirst()) != null) {
+        localCount.decrementAndGet();
+        requeue(t);
+      }
+    }
+
+    //队列满了就阻塞等待，等待之前保证至少有一个worker在取任务，不然会一直等下去
+    private void requeue(Runnable t) {
+      if (!taskQueue.offer(t, 0, TimeUnit.NANOSECONDS)) {
+        if (workerCountOf(ctl.get()) == 0) {
+          addWorker(null, false);
+        }
+        taskQueue.put(t);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return thread.toString();
+    }
+  }
+
+  //设置worker批量取任务的个数，需要在提交任务之前设置
+  public void setBatchSize(int batchSize) {
+    if (batchSize <= 0) {
+      throw new IllegalArgumentException();
+    }
+    this.batchSize = batchSize;
+  }
+
+  //设置创建worker线程的工厂，需要在提交任务之前设置
+  //用VirtualThreads.factory()时每个worker是一个虚拟线程，coreSize/maxSize就变成了并发数的上限，
+  //而不再受平台线程数量和栈内存的限制，阻塞队列和rejectPolicy的背压不变
+  public void setThreadFactory(ThreadFactory threadFactory) {
+    if (threadFactory == null) {
+      throw new NullPointerException();
+    }
+    this.threadFactory = threadFactory;
+  }
+
+  //设置事件监听，阻塞队列支持的话也一起设置，必须在提交任务之前设置，否则抛出IllegalStateException
+  //需要看执行过程的时候用PoolEventListener.CONSOLE，高负载下用AsyncEventSink
+  public void setEventListener(PoolEventListener listener) {
+    if (listener == null) {
+      throw new NullPointerException();
+    }
+    mainLock.lock();
+    try {
+      if (started) {
+        throw new IllegalStateException("线程池已经开始执行任务，不能再设置事件监听");
+      }
+      this.listener = listener;
+      //队列里放的可能是TimedRunnable，交给监听之前拆掉包装；计数事件原样转发，不装箱
+      taskQueue.setEventListener(listener == PoolEventListener.NONE ? listener : new PoolEventListener() {
+        @Override
+        public void onEvent(PoolEvent event, Object subject, Object detail) {
+          listener.onEvent(event, Timed.unwrap(subject), detail);
+        }
+
+        @Override
+        public void onEvent(PoolEvent event, int count) {
+          listener.onEvent(event, count);
+        }
+      });
+    } finally {
+      mainLock.unlock();
+    }
+  }
+
+  //开启指标统计，返回的对象可以随时取快照，也可以注册到JMX
+  //需要在提交任务之前开启，开启之前提交的任务不会被统计
+  public ThreadPoolMetrics enableMetrics() {
+    mainLock.lock();
+    try {
+      if (metrics == null) {
+        metrics = new ThreadPoolMetrics(this);
+      }
+      return metrics;
+    } finally {
+      mainLock.unlock();
+    }
+  }
+
+  //设置worker取任务时的等待策略，用CPU换更短的交接延迟，需要在提交任务之前设置
+  public void setWaitStrategy(WaitStrategy waitStrategy) {
+    if (waitStrategy == null) {
+      throw new NullPointerException();
+    }
+    this.waitStrategy = waitStrategy;
+  }
+
+  //设置准入控制，比如AdaptiveLimiter，需要在提交任务之前设置
+  //不被准入的任务直接交给rejectPolicy，不会进入阻塞队列
+  public void setAdmissionController(AdmissionController admission) {
+    this.admission = admission;
+  }
+
+  //被准入的任务没有执行就离开了线程池，把名额还给准入控制，每个名额只会归还一次
+  private void releaseAdmission(Runnable task) {
+    AdmissionController ac = admission;
+    if (ac != null && Timed.clearAdmitted(task)) {
+      ac.onDropped();
+    }
+  }
+
+  //submit提交的任务不会把异常抛出来，而是放进future里
+  private static boolean isFailedFuture(Runnable task) {
+    return task instanceof CompletableFuture
+        && ((CompletableFuture<?>) task).isCompletedExceptionally()
+        && !((CompletableFuture<?>) task).isCancelled();
+  }
+
+  //submit返回的future，或者调用者自己提交的FutureTask
+  private static boolean isCancelledFuture(Runnable task) {
+    task = Timed.unwrap(task);
+    return task instanceof Future && ((Future<?>) task).isCancelled();
+  }
+
+  //当前的线程数
+  public int getPoolSize() {
+    return workerCountOf(ctl.get());
+  }
+
+  //不再接收新任务，已经提交的任务会继续执行，队列取空之后worker全部退出
+  //不会等待任务执行完，也不会中断正在执行的任务
+  public void shutdown() {
+    int c;
+    while (runStateOf(c = ctl.get()) == RUNNING && !ctl.compareAndSet(c, c | SHUTDOWN)) {
+    }
+    //核心线程可能一直阻塞在take上，每个worker放一个WAKE_UP把它们唤醒
+    //队列满了就不用放了，worker执行完手上的任务会重新检查状态，退出的时候还会接力唤醒下一个
+    for (int i = workerCountOf(ctl.get()); i > 0; i--) {
+      if (!taskQueue.offer(WAKE_UP, 0, TimeUnit.NANOSECONDS)) {
+        break;
+      }
+    }
+  }
+
+  public boolean isShutdown() {
+    return runStateOf(ctl.get()) != RUNNING;
+  }
+
+  //关闭了并且所有worker都已经退出
+  public boolean isTerminated() {
+    int c = ctl.get();
+    return runStateOf(c) != RUNNING && workerCountOf(c) == 0;
+  }
+
+  //阻塞队列中排队的任务数
+  public int getQueueSize() {
+    return taskQueue.size();
+  }
+
+  // 执行任务
+  public void execute(Runnable task) {
+    ThreadPoolMetrics m = metrics;
+    AdmissionController ac = admission;
+    if (m != null || ac != null) {
+      task = Timed.stamp(task, System.nanoTime());
+    }
+    if (m != null) {
+      m.onSubmit();
+    }
+    //当任务数没有超过线程核心数时，直接交给Woker对象执行任务
+    //如果任务数超过了线程核心数时，就把任务加入到阻塞队列中
+    //线程数从ctl读，只有真的要创建worker时才会去加mainLock，只是入队的话线程池这边不加锁
+    int c = ctl.get();
+    if (runStateOf(c) != RUNNING) {
+      if (m != null) {
+        m.onReject();
+      }
+      throw new RejectedExecutionException("线程池已经关闭 " + Timed.unwrap(task));
+    }
+    //准入控制：用CAS占住一个名额，占不到就直接拒绝，worker自己提交的子任务也一样
+    //名额在任务执行完、被拒绝、被删除或者被跳过的时候归还
+    if (ac != null) {
+      if (!ac.tryAdmit()) {
+        reject(taskQueue, task);
+        return;
+      }
+      ((Timed) task).setAdmitted(true);
+    }
+    //开启工作窃取时，worker自己提交的子任务优先放进它的本地队列，不需要加锁
+    //本地队列满了就和普通任务一样走下面的共享队列和rejectPolicy
+    if (localQueueSize > 0) {
+      Worker current = CURRENT_WORKER.get();
+      if (current != null && current.pool() == this && current.pushLocal(task)) {
+        //放进去之后线程池被关闭了，还能从本地队列删掉就拒绝，和共享队列的处理一样
+        if (runStateOf(ctl.get()) != RUNNING && current.removeLocal(task)) {
+          releaseAdmission(task);
+          if (m != null) {
+            m.onReject();
+          }
+          throw new RejectedExecutionException("线程池已经关闭 " + Timed.unwrap(task));
+        }
+        return;
+      }
+    }
+    if (workerCountOf(c) < coreSize && addWorker(task, true)) {
+      return;
+    }
+    //核心线程都在忙，而且队列已经积压到阈值了，就创建救急线程直接执行这个任务
+    //addWorker失败说明别的线程抢先把线程数加满了，那就入队
+    if (workerCountOf(ctl.get()) < maxSize && taskQueue.size() >= burstThreshold
+        && addWorker(task, false)) {
+      return;
+    }
+    //taskQueue.put(task);
+    //当线程都被占用了之后，对于新的task其实有很多处理方法
+    //比如：1.阻塞添加 2. 超时添加 3. 调用者放弃 4. 调用者抛出异常 5. 调用者自己执行 等等
+    //所以在这里我们不妨把具体的执行过程抽象成一个接口，让调用者自己去实现。
+    //最好还是在taskQueue中实现，因为有锁
+    taskQueue.tryPut(rejectPath, task);
+    //入队之后再检查一次：
+    //1. 入队的时候线程池被关闭了，能删掉就拒绝
+    //2. 入队的时候最后一个worker刚好超时退出了，需要补一个worker，否则任务会一直留在队列里
+    c = ctl.get();
+    if (runStateOf(c) != RUNNING && taskQueue.remove(task)) {
+      releaseAdmission(task);
+      if (m != null) {
+        m.onReject();
+      }
+      throw new RejectedExecutionException("线程池已经关闭 " + Timed.unwrap(task));
+    }
+    if (workerCountOf(c) == 0) {
+      addWorker(null, false);
+    }
+  }
+
+  //不阻塞、不抛异常的提交：线程池已经关闭、准入控制不接收或者队列满了都直接返回false，不经过rejectPolicy
+  //提交的是submit的任务的话，返回false的同时future以RejectedExecutionException结束
+  //给在worker里重新提交自己的任务用（比如KeyedExecutor），调用者拿到false之后自己决定怎么办，
+  //不会因为rejectPolicy阻塞在满的队列上，把所有worker都卡住
+  //不放进worker的本地队列，重新提交的任务排在共享队列里其他任务的后面
+  public boolean tryExecute(Runnable task) {
+    if (task == null) {
+      throw new NullPointerException();
+    }
+    ThreadPoolMetrics m = metrics;
+    AdmissionController ac = admission;
+    if (m != null || ac != null) {
+      task = Timed.stamp(task, System.nanoTime());
+    }
+    int c = ctl.get();
+    if (runStateOf(c) != RUNNING) {
+      rejectFuture(task);
+      return false;
+    }
+    if (ac != null) {
+      if (!ac.tryAdmit()) {
+        rejectFuture(task);
+        return false;
+      }
+      ((Timed) task).setAdmitted(true);
+    }
+    if (m != null) {
+      m.onSubmit();
+    }
+    if (workerCountOf(c) < coreSize && addWorker(task, true)) {
+      return true;
+    }
+    if (workerCountOf(ctl.get()) < maxSize && taskQueue.size() >= burstThreshold
+        && addWorker(task, false)) {
+      return true;
+    }
+    if (!taskQueue.offer(task, 0, TimeUnit.NANOSECONDS)) {
+      releaseAdmission(task);
+      if (m != null) {
+        m.onReject();
+      }
+      rejectFuture(task);
+      return false;
+    }
+    //和execute一样，入队之后再检查一次关闭和线程数
+    c = ctl.get();
+    if (runStateOf(c) != RUNNING && taskQueue.remove(task)) {
+      releaseAdmission(task);
+      if (m != null) {
+        m.onReject();
+      }
+      rejectFuture(task);
+      return false;
+    }
+    if (workerCountOf(c) == 0) {
+      addWorker(null, false);
+    }
+    return true;
+  }
+
+  //提交一个有返回值的任务，结果和异常都通过返回的future拿到
+  //任务被rejectPolicy丢弃的话，future以RejectedExecutionException结束
+  public <T> CompletableFuture<T> submit(Callable<T> callable) {
+    if (callable == null) {
+      throw new NullPointerException();
+    }
+    CompletableTask<T> task = new CompletableTask<>(callable, this);
+    execute(task);
+    return task;
+  }
+
+  //提交一批任务，等它们全部完成（正常结束、异常或者取消）之后返回
+  public <T> List<CompletableFuture<T>> invokeAll(Collection<? extends Callable<T>> callables) {
+    List<CompletableFuture<T>> futures = new ArrayList<>(callables.size());
+    for (Callable<T> callable : callables) {
+      futures.add(submit(callable));
+    }
+    for (CompletableFuture<T> future : futures) {
+      try {
+        future.join();
+      } catch (CompletionException | CancellationException e) {
+        //结果由调用者自己从future里拿
+      }
+    }
+    return futures;
+  }
+
+  //提交一批任务，返回最先成功的那个结果，其余的任务取消掉
+  //全部失败时抛出ExecutionException，原因是最后一个失败的异常
+  public <T> T invokeAny(Collection<? extends Callable<T>> callables)
+      throws InterruptedException, ExecutionException {
+    if (callables.isEmpty()) {
+      throw new IllegalArgumentException();
+    }
+    CompletableFuture<T> first = new CompletableFuture<>();
+    AtomicInteger failures = new AtomicInteger();
+    int n = callables.size();
+    List<CompletableFuture<T>> futures = new ArrayList<>(n);
+    try {
+      for (Callable<T> callable : callables) {
+        CompletableFuture<T> future = submit(callable);
+        futures.add(future);
+        future.whenComplete((result, e) -> {
+          if (e == null) {
+            first.complete(result);
+          } else if (failures.incrementAndGet() == n) {
+            first.completeExceptionally(e);
+          }
+        });
+        //已经有结果了，后面的任务就不用再提交了
+        if (first.isDone() && !first.isCompletedExceptionally()) {
+          break;
+        }
+      }
+      return first.get();
+    } finally {
+      for (CompletableFuture<T> future : futures) {
+        future.cancel(false);
+      }
+    }
+  }
+
+  //把还在阻塞队列里排队的任务删掉，返回是否删除成功
+  //开启指标统计时队列里放的可能是包装过的TimedRunnable，按里面的原始任务比较
+  //删掉的是submit的任务的话，future以RejectedExecutionException结束
+  public boolean remove(Runnable task) {
+    if (task == null) {
+      return false;
+    }
+    //同一个任务提交了多次的话只删一个，和BlockingQueue.remove一样
+    boolean[] found = new boolean[1];
+    if (taskQueue.removeIf(t -> {
+      if (!found[0] && task.equals(Timed.unwrap(t))) {
+        found[0] = true;
+        releaseAdmission(t);
+        return true;
+      }
+      return false;
+    })) {
+      rejectFuture(task);
+      return true;
+    }
+    return false;
+  }
+
+  //submit的任务还没开始执行就被取消了，由CompletableTask.cancel调用
+  //队列里取消的任务占到四分之一就purge一次：一次遍历至少删掉四分之一，每次取消均摊下来是常数，
+  //不会像每次取消都去队列里删除那样，在invokeAny取消一大批任务的时候变成O(n^2)
+  void onCancel() {
+    if (cancelledSincePurge.incrementAndGet() >= Math.max(1, taskQueue.size() >>> 2)) {
+      purge();
+    }
+  }
+
+  //把阻塞队列里已经取消的future一次删掉，返回删掉的个数，参考ThreadPoolExecutor.purge
+  //取消之后线程池会在合适的时候自己调用，想马上腾出队列空间也可以直接调用，一次加锁遍历整个队列
+  //worker本地队列和批量取出来的任务不在阻塞队列里，它们在执行的时候会被跳过
+  //RingBlockingQueue删除的时候只是留下占位，要等worker走到那里才会真正腾出位置
+  public int purge() {
+    cancelledSincePurge.set(0);
+    int[] purged = new int[1];
+    taskQueue.removeIf(t -> {
+      if (isCancelledFuture(t)) {
+        purged[0]++;
+        releaseAdmission(t);
+        return true;
+      }
+      return false;
+    });
+    ThreadPoolMetrics m = metrics;
+    if (m != null) {
+      for (int i = 0; i < purged[0]; i++) {
+        m.onCancel();
+      }
+    }
+    return purged[0];
+  }
+
+  //队列满了：还有取消了没删掉的任务的话，先purge腾出位置再放一次，放不进去才真的拒绝
+  //DequeBlockingQueue是在队列的锁里调用的，purge和offer会重入这把锁
+  private void rejectFull(BlockingQueue<Runnable> queue, Runnable task) {
+    if (cancelledSincePurge.get() > 0 && purge() > 0 && queue.offer(task, 0, TimeUnit.NANOSECONDS)) {
+      return;
+    }
+    reject(queue, task);
+  }
+
+  //统计拒绝数，拆掉TimedRunnable的包装，rejectPolicy拿到的是调用者提交的原始任务
+  //rejectPolicy如果把任务重新放回队列，放回去的是原始任务，它的排队时间不再统计
+  //准入的名额在交给rejectPolicy之前归还，放回队列的任务不再占名额
+  //submit的任务交给rejectPolicy之后，既没有被执行也没有被放回队列（被丢弃了或者rejectPolicy抛出了异常），
+  //future就以RejectedExecutionException结束，不会让调用者永远等下去
+  private void reject(BlockingQueue<Runnable> queue, Runnable task) {
+    releaseAdmission(task);
+    ThreadPoolMetrics m = metrics;
+    if (m != null) {
+      m.onReject();
+    }
+    Runnable original = Timed.unwrap(task);
+    if (!(original instanceof CompletableTask)) {
+      rejectPolicy.reject(queue, original);
+      return;
+    }
+    RequeueTracker tracker = new RequeueTracker(queue, original);
+    try {
+      rejectPolicy.reject(tracker, original);
+    } finally {
+      if (!tracker.requeued) {
+        rejectFuture(original);
+      }
+    }
+  }
+
+  //没有被线程池接收的submit任务，future以RejectedExecutionException结束；已经执行完的不受影响
+  private static void rejectFuture(Runnable task) {
+    task = Timed.unwrap(task);
+    if (task instanceof CompletableTask) {
+      ((CompletableTask<?>) task).completeExceptionally(
+          new RejectedExecutionException("任务被拒绝了 " + task));
+    }
+  }
+
+  //交给rejectPolicy的队列，只在submit的任务被拒绝时使用，记下rejectPolicy有没有把任务放回队列
+  //其他操作原样转给线程池的阻塞队列
+  private static class RequeueTracker implements BlockingQueue<Runnable> {
+
+    private final BlockingQueue<Runnable> queue;
+
+    private final Runnable task;
+
+    private boolean requeued;
+
+    RequeueTracker(BlockingQueue<Runnable> queue, Runnable task) {
+      this.queue = queue;
+      this.task = task;
+    }
+
+    public Runnable take() {
+      return queue.take();
+    }
+
+    public Runnable poll(long timeout, TimeUnit timeUnit) {
+      return queue.poll(timeout, timeUnit);
+    }
+
+    public void put(Runnable element) {
+      queue.put(element);
+      requeued |= element == task;
+    }
+
+    public boolean offer(Runnable element, long timeout, TimeUnit timeUnit) {
+      boolean added = queue.offer(element, timeout, timeUnit);
+      requeued |= added && element == task;
+      return added;
+    }
+
+    public int size() {
+      return queue.size();
+    }
+
+    public int capacity() {
+      return queue.capacity();
+    }
+
+    //不交给原队列的tryPut，满了的话rejectPolicy拿到的还是这个队列，才能继续记录
+    public void tryPut(RejectPolicy<Runnable> rejectPolicy, Runnable element) {
+      if (!offer(element, 0, TimeUnit.NANOSECONDS)) {
+        rejectPolicy.reject(this, element);
+      }
+    }
+
+    public Runnable tryPoll() {
+      return queue.tryPoll();
+    }
+
+    public int drainTo(Collection<? super Runnable> c, int max) {
+      return queue.drainTo(c, max);
+    }
+
+    public int pollBatch(Collection<? super Runnable> c, int max, long timeout, TimeUnit timeUnit) {
+      return queue.pollBatch(c, max, timeout, timeUnit);
+    }
+
+    public boolean remove(Runnable element) {
+      boolean removed = queue.remove(element);
+      requeued &= !(removed && element == task);
+      return removed;
+    }
+
+    public boolean removeIf(Predicate<? super Runnable> filter) {
+      return queue.removeIf(filter);
+    }
+
+    public void putAll(Collection<? extends Runnable> elements) {
+      for (Runnable element : elements) {
+        put(element);
+      }
+    }
+  }
+
+  //队列丢弃的过期任务：不交给rejectPolicy，不放回队列也不执行，只归还准入名额，计入过期数
+  private void expire(Runnable task) {
+    releaseAdmission(task);
+    ThreadPoolMetrics m = metrics;
+    if (m != null) {
+      m.onExpire();
+    }
+  }
+
+  //先用CAS把线程数加一占住名额，成功了才创建worker，线程数已经到上限返回false
+  //关闭之后只允许创建不带任务的worker，用来把队列里剩下的任务执行完
+  private boolean addWorker(Runnable task, boolean core) {
+    int limit = core ? coreSize : maxSize;
+    while (true) {
+      int c = ctl.get();
+      if (runStateOf(c) != RUNNING && (task != null || taskQueue.size() == 0)) {
+        return false;
+      }
+      if (workerCountOf(c) >= Math.max(limit, 1)) {
+        return false;
+      }
+      if (ctl.compareAndSet(c, c + 1)) {
+        break;
+      }
+    }
+    Worker worker;
+    try {
+      worker = new Worker(task, core);
+    } catch (RuntimeException | Error e) {
+      //threadFactory失败了，把占住的名额还回去
+      ctl.decrementAndGet();
+      throw e;
+    }
+    mainLock.lock();
+    try {
+      started = true;
+      listener.onEvent(core ? PoolEvent.WORKER_ADDED : PoolEvent.BURST_WORKER_ADDED, worker, Timed.unwrap(task));
+      workers.add(worker);
+      if (localQueueSize > 0) {
+        stealTargets = workers.toArray(new Worker[0]);
+      }
+    } finally {
+      mainLock.unlock();
+    }
+    worker.thread.start();
+    return true;
+  }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2021 Synopsys Inc. All rights reserved.
+ * This file is confidential material. Unauthorized distribution prohibited.
+ */
+package chapter08.diy_thread_pool;
+
+//通过JMX暴露的线程池指标，JMX要求接口是public的
+//耗时的单位都是纳秒
+public interface ThreadPoolMXBean {
+
+  long getSubmittedCount();
+
+  long getRejectedCount();
+
+  long getCompletedCount();
+
+  long getFailedCount();
+
+  long getCancelledCount();
+
+  long getExpiredCount();
+
+  int getPoolSize();
+
+  int getQueueSize();
+
+  long getQueueWaitP50Nanos();
+
+  long getQueueWaitP99Nanos();
+
+  long getQueueWaitMaxNanos();
+
+  long getExecuteP50Nanos();
+
+  long getExecuteP99Nanos();
+
+  long getExecuteMaxNanos();
+}
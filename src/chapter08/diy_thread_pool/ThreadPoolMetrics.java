@@ -0,0 +1,191 @@
+/*
+ * Copyright 2021 Synopsys Inc. All rights reserved.
+ * This file is confidential material. Unauthorized distribution prohibited.
+ */
+package chapter08.diy_thread_pool;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+//线程池的指标：计数器、排队时间和执行时间的直方图、线程数和队列长度
+//计数器用LongAdder，直方图是无锁的，都不会让worker之间互相竞争
+//通过ThreadPool.enableMetrics()开启，没开启的时候线程池里只多一次null判断
+class ThreadPoolMetrics implements ThreadPoolMXBean {
+
+  private final ThreadPool pool;
+
+  private final LongAdder submitted = new LongAdder();
+  private final LongAdder rejected = new LongAdder();
+  private final LongAdder completed = new LongAdder();
+  private final LongAdder failed = new LongAdder();
+  //取消之后被worker跳过或者被purge删掉的任务
+  private final LongAdder cancelled = new LongAdder();
+  //过了截止时间、出队时被队列丢弃的任务，不算在拒绝数里
+  private final LongAdder expired = new LongAdder();
+
+  //从提交到开始执行的时间
+  private final LatencyHistogram queueWait = new LatencyHistogram();
+  //任务的执行时间
+  private final LatencyHistogram execute = new LatencyHistogram();
+
+  ThreadPoolMetrics(ThreadPool pool) {
+    this.pool = pool;
+  }
+
+  void onSubmit() {
+    submitted.increment();
+  }
+
+  void onReject() {
+    rejected.increment();
+  }
+
+  void onCancel() {
+    cancelled.increment();
+  }
+
+  void onExpire() {
+    expired.increment();
+  }
+
+  //queueWaitNanos小于0表示不知道提交时间，比如被rejectPolicy重新放回队列的任务
+  void afterExecute(long queueWaitNanos, long executeNanos, boolean failed) {
+    if (queueWaitNanos >= 0) {
+      queueWait.record(queueWaitNanos);
+    }
+    execute.record(executeNanos);
+    if (failed) {
+      this.failed.increment();
+    } else {
+      completed.increment();
+    }
+  }
+
+  //注册到平台MBeanServer，ObjectName是 chapter08.diy_thread_pool:type=ThreadPool,name=xxx
+  public void registerMBean(String name) throws JMException {
+    ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+        new ObjectName("chapter08.diy_thread_pool:type=ThreadPool,name=" + ObjectName.quote(name)));
+  }
+
+  //所有指标的一份快照
+  public Snapshot snapshot() {
+    return new Snapshot(this);
+  }
+
+  public long getSubmittedCount() {
+    return submitted.sum();
+  }
+
+  public long getRejectedCount() {
+    return rejected.sum();
+  }
+
+  public long getCompletedCount() {
+    return completed.sum();
+  }
+
+  public long getFailedCount() {
+    return failed.sum();
+  }
+
+  public long getCancelledCount() {
+    return cancelled.sum();
+  }
+
+  public long getExpiredCount() {
+    return expired.sum();
+  }
+
+  public int getPoolSize() {
+    return pool.getPoolSize();
+  }
+
+  public int getQueueSize() {
+    return pool.getQueueSize();
+  }
+
+  public long getQueueWaitP50Nanos() {
+    return queueWait.getPercentile(50);
+  }
+
+  public long getQueueWaitP99Nanos() {
+    return queueWait.getPercentile(99);
+  }
+
+  public long getQueueWaitMaxNanos() {
+    return queueWait.getMax();
+  }
+
+  public long getExecuteP50Nanos() {
+    return execute.getPercentile(50);
+  }
+
+  public long getExecuteP99Nanos() {
+    return execute.getPercentile(99);
+  }
+
+  public long getExecuteMaxNanos() {
+    return execute.getMax();
+  }
+
+  LatencyHistogram getQueueWait() {
+    return queueWait;
+  }
+
+  LatencyHistogram getExecute() {
+    return execute;
+  }
+
+  //快照，各个值是分别读取的，并发情况下彼此之间不保证严格一致
+  static class Snapshot {
+    final long submitted;
+    final long rejected;
+    final long completed;
+    final long failed;
+    final long cancelled;
+    final long expired;
+    final int poolSize;
+    final int queueSize;
+    final long queueWaitP50;
+    final long queueWaitP99;
+    final long queueWaitMax;
+    final long executeP50;
+    final long executeP99;
+    final long executeMax;
+
+    Snapshot(ThreadPoolMetrics m) {
+      this.submitted = m.getSubmittedCount();
+      this.rejected = m.getRejectedCount();
+      this.completed = m.getCompletedCount();
+      this.failed = m.getFailedCount();
+      this.cancelled = m.getCancelledCount();
+      this.expired = m.getExpiredCount();
+      this.poolSize = m.getPoolSize();
+      this.queueSize = m.getQueueSize();
+      this.queueWaitP50 = m.getQueueWaitP50Nanos();
+      this.queueWaitP99 = m.getQueueWaitP99Nanos();
+      this.queueWaitMax = m.getQueueWaitMaxNanos();
+      this.executeP50 = m.getExecuteP50Nanos();
+      this.executeP99 = m.getExecuteP99Nanos();
+      this.executeMax = m.getExecuteMaxNanos();
+    }
+
+    @Override
+    public String toString() {
+      return "Snapshot{" +
+          "submitted=" + submitted +
+          ", rejected=" + rejected +
+          ", completed=" + completed +
+          ", failed=" + failed +
+          ", cancelled=" + cancelled +
+          ", expired=" + expired +
+          ", poolSize=" + poolSize +
+          ", queueSize=" + queueSize +
+          ", queueWait(p50/p99/max ns)=" + queueWaitP50 + "/" + queueWaitP99 + "/" + queueWaitMax +
+          ", execute(p50/p99/max ns)=" + executeP50 + "/" + executeP99 + "/" + executeMax +
+          '}';
+    }
+  }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2021 Synopsys Inc. All rights reserved.
+ * This file is confidential material. Unauthorized distribution prohibited.
+ */
+package chapter08.diy_thread_pool;
+
+//能记录提交时间的任务，submit和PriorityTask的任务自己带着这个字段，不需要再包一层，
+//这样取消时从队列中删除、按优先级排序都不受影响
+interface Timed {
+
+  void setSubmitNanos(long nanos);
+
+  long getSubmitNanos();
+
+  //是否占用着准入控制的名额，由线程池在准入时设置、归还时清除
+  void setAdmitted(boolean admitted);
+
+  boolean isAdmitted();
+
+  //记下提交时间，普通的Runnable需要包一层才能带上提交时间
+  static Runnable stamp(Runnable task, long now) {
+    if (task instanceof Timed) {
+      ((Timed) task).setSubmitNanos(now);
+      return task;
+    }
+    return new TimedRunnable(task, now);
+  }
+
+  //排队时间，没有记录提交时间的任务返回-1
+  static long queueWaitNanos(Runnable task, long now) {
+    return task instanceof Timed ? now - ((Timed) task).getSubmitNanos() : -1;
+  }
+
+  //清除准入标记，返回任务是否占用着名额，每个名额只有第一次调用会返回true
+  //任务同一时间只会在一个地方（队列、worker或者拒绝路径），不需要原子操作
+  static boolean clearAdmitted(Runnable task) {
+    if (task instanceof Timed && ((Timed) task).isAdmitted()) {
+      ((Timed) task).setAdmitted(false);
+      return true;
+    }
+    return false;
+  }
+
+  //拆掉stamp包的那一层，交给rejectPolicy、事件监听和remove比较的都是调用者提交的原始任务
+  static Runnable unwrap(Runnable task) {
+    return task instanceof TimedRunnable ? ((TimedRunnable) task).getTask() : task;
+  }
+
+  static Object unwrap(Object subject) {
+    return subject instanceof TimedRunnable ? ((TimedRunnable) subject).getTask() : subject;
+  }
+}
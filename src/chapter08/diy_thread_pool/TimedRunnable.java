@@ -0,0 +1,56 @@
+/*
+ * Copyright 2021 Synopsys Inc. All rights reserved.
+ * This file is confidential material. Unauthorized distribution prohibited.
+ */
+package chapter08.diy_thread_pool;
+
+//普通Runnable的包装，只用来带上提交时间，只在开启指标统计或者准入控制时才会创建
+//包装只在线程池内部使用，rejectPolicy、事件监听和ThreadPool.remove看到的都是里面的原始任务
+class TimedRunnable implements Runnable, Timed {
+
+  private final Runnable task;
+
+  private long submitNanos;
+
+  //是否占用着准入控制的名额
+  private boolean admitted;
+
+  TimedRunnable(Runnable task, long submitNanos) {
+    this.task = task;
+    this.submitNanos = submitNanos;
+  }
+
+  Runnable getTask() {
+    return task;
+  }
+
+  @Override
+  public void setSubmitNanos(long nanos) {
+    this.submitNanos = nanos;
+  }
+
+  @Override
+  public long getSubmitNanos() {
+    return submitNanos;
+  }
+
+  @Override
+  public void setAdmitted(boolean admitted) {
+    this.admitted = admitted;
+  }
+
+  @Override
+  public boolean isAdmitted() {
+    return admitted;
+  }
+
+  @Override
+  public void run() {
+    task.run();
+  }
+
+  @Override
+  public String toString() {
+    return task.toString();
+  }
+}
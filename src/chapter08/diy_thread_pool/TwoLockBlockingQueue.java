@@ -0,0 +1,440 @@
+/*
+ * Copyright 2021 Synopsys Inc. All rights reserved.
+ * This file is confidential material. Unauthorized distribution prohibited.
+ */
+package chapter08.diy_thread_pool;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+//双锁阻塞队列，参考LinkedBlockingQueue
+//用链表实现，生产者只操作队尾，消费者只操作队头，所以可以用两把锁：
+//putLock保护队尾，takeLock保护队头，生产者和消费者之间不会互相竞争。
+//元素个数用AtomicInteger记录，两边都能看到。
+class TwoLockBlockingQueue<T> implements BlockingQueue<T> {
+
+  static class Node<T> {
+    T item;
+    Node<T> next;
+
+    Node(T item) {
+      this.item = item;
+    }
+  }
+
+  //队列最大容量
+  private final int capcity;
+
+  //当前元素个数
+  private final AtomicInteger count = new AtomicInteger();
+
+  //head是一个哑节点，head.item永远是null，真正的第一个元素是head.next
+  private Node<T> head;
+
+  //最后一个节点
+  private Node<T> last;
+
+  //消费者的锁和条件变量
+  private final ReentrantLock takeLock = new ReentrantLock();
+  private final Condition emptyWaitSet = takeLock.newCondition();
+
+  //生产者的锁和条件变量
+  private final ReentrantLock putLock = new ReentrantLock();
+  private final Condition fullWaitSet = putLock.newCondition();
+
+  //事件监听，和DequeBlockingQueue一样在putLock里通知
+  private PoolEventListener listener = PoolEventListener.NONE;
+
+  TwoLockBlockingQueue(int capcity) {
+    if (capcity <= 0) {
+      throw new IllegalArgumentException();
+    }
+    this.capcity = capcity;
+    last = head = new Node<>(null);
+  }
+
+  //入队，需要持有putLock
+  private void enqueue(Node<T> node) {
+    last = last.next = node;
+  }
+
+  //出队，需要持有takeLock
+  private T dequeue() {
+    Node<T> h = head;
+    Node<T> first = h.next;
+    //帮助GC
+    h.next = h;
+    head = first;
+    T t = first.item;
+    first.item = null;
+    return t;
+  }
+
+  //唤醒一个在emptyWaitSet等待的消费者，只有生产者在队列由空变为非空时调用
+  private void signalNotEmpty() {
+    takeLock.lock();
+    try {
+      emptyWaitSet.signal();
+    } finally {
+      takeLock.unlock();
+    }
+  }
+
+  //唤醒一个在fullWaitSet等待的生产者，只有消费者在队列由满变为非满时调用
+  private void signalNotFull() {
+    putLock.lock();
+    try {
+      fullWaitSet.signal();
+    } finally {
+      putLock.unlock();
+    }
+  }
+
+  public T take() {
+    T t;
+    int c;
+    takeLock.lock();
+    try {
+      while (count.get() == 0) {
+        try {
+          emptyWaitSet.await();
+        } catch (InterruptedException e) {
+          e.printStackTrace();
+        }
+      }
+      t = dequeue();
+      c = count.getAndDecrement();
+      //级联唤醒：取完之后还有剩余，就唤醒下一个消费者，而不是由生产者每次都来唤醒
+      if (c > 1) {
+        emptyWaitSet.signal();
+      }
+    } finally {
+      takeLock.unlock();
+    }
+    //取之前是满的，现在有空位了，需要去另一把锁上唤醒生产者
+    if (c == capcity) {
+      signalNotFull();
+    }
+    return t;
+  }
+
+  public T poll(long timeout, TimeUnit timeUnit) {
+    T t;
+    int c;
+    long nanos = timeUnit.toNanos(timeout);
+    takeLock.lock();
+    try {
+      while (count.get() == 0) {
+        try {
+          if (nanos <= 0) {
+            return null;
+          }
+          nanos = emptyWaitSet.awaitNanos(nanos);
+        } catch (InterruptedException e) {
+          e.printStackTrace();
+        }
+      }
+      t = dequeue();
+      c = count.getAndDecrement();
+      if (c > 1) {
+        emptyWaitSet.signal();
+      }
+    } finally {
+      takeLock.unlock();
+    }
+    if (c == capcity) {
+      signalNotFull();
+    }
+    return t;
+  }
+
+  public void put(T element) {
+    if (element == null) {
+      throw new NullPointerException();
+    }
+    Node<T> node = new Node<>(element);
+    int c;
+    putLock.lock();
+    try {
+      while (count.get() == capcity) {
+        try {
+          listener.onEvent(PoolEvent.TASK_WAITING, element, null);
+          fullWaitSet.await();
+        } catch (InterruptedException e) {
+          e.printStackTrace();
+        }
+      }
+      enqueue(node);
+      listener.onEvent(PoolEvent.TASK_ENQUEUED, element, null);
+      c = count.getAndIncrement();
+      //级联唤醒：放完之后还没满，就唤醒下一个生产者
+      if (c + 1 < capcity) {
+        fullWaitSet.signal();
+      }
+    } finally {
+      putLock.unlock();
+    }
+    //放之前是空的，需要去另一把锁上唤醒消费者
+    if (c == 0) {
+      signalNotEmpty();
+    }
+  }
+
+  public boolean offer(T element, long timeout, TimeUnit timeUnit) {
+    if (element == null) {
+      throw new NullPointerException();
+    }
+    Node<T> node = new Node<>(element);
+    int c;
+    long nanos = timeUnit.toNanos(timeout);
+    putLock.lock();
+    try {
+      while (count.get() == capcity) {
+        try {
+          if (nanos <= 0) {
+            return false;
+          }
+          listener.onEvent(PoolEvent.TASK_WAITING, element, null);
+          nanos = fullWaitSet.awaitNanos(nanos);
+        } catch (InterruptedException e) {
+          e.printStackTrace();
+        }
+      }
+      enqueue(node);
+      listener.onEvent(PoolEvent.TASK_ENQUEUED, element, null);
+      c = count.getAndIncrement();
+      if (c + 1 < capcity) {
+        fullWaitSet.signal();
+      }
+    } finally {
+      putLock.unlock();
+    }
+    if (c == 0) {
+      signalNotEmpty();
+    }
+    return true;
+  }
+
+  public int size() {
+    return count.get();
+  }
+
+  //队列空的时候不加锁直接返回null
+  public T tryPoll() {
+    if (count.get() == 0) {
+      return null;
+    }
+    return poll(0, TimeUnit.NANOSECONDS);
+  }
+
+  //一次拿takeLock取走一批
+  public int drainTo(Collection<? super T> c, int max) {
+    if (max <= 0) {
+      return 0;
+    }
+    int n;
+    int c0;
+    takeLock.lock();
+    try {
+      n = drain(c, max);
+      c0 = count.getAndAdd(-n);
+      if (c0 - n > 0) {
+        emptyWaitSet.signal();
+      }
+    } finally {
+      takeLock.unlock();
+    }
+    if (n > 0 && c0 == capcity) {
+      signalNotFull();
+    }
+    return n;
+  }
+
+  public int pollBatch(Collection<? super T> c, int max, long timeout, TimeUnit timeUnit) {
+    if (max <= 0) {
+      return 0;
+    }
+    int n;
+    int c0;
+    long nanos = timeUnit.toNanos(timeout);
+    takeLock.lock();
+    try {
+      while (count.get() == 0) {
+        try {
+          if (nanos <= 0) {
+            return 0;
+          }
+          nanos = emptyWaitSet.awaitNanos(nanos);
+        } catch (InterruptedException e) {
+          e.printStackTrace();
+        }
+      }
+      n = drain(c, max);
+      c0 = count.getAndAdd(-n);
+      if (c0 - n > 0) {
+        emptyWaitSet.signal();
+      }
+    } finally {
+      takeLock.unlock();
+    }
+    if (c0 == capcity) {
+      signalNotFull();
+    }
+    return n;
+  }
+
+  //删除一个还在排队的元素，需要同时拿两把锁，加锁顺序和putAll一样先putLock再takeLock
+  public boolean remove(T element) {
+    if (element == null) {
+      return false;
+    }
+    putLock.lock();
+    takeLock.lock();
+    try {
+      for (Node<T> trail = head, p = trail.next; p != null; trail = p, p = p.next) {
+        if (element.equals(p.item)) {
+          p.item = null;
+          trail.next = p.next;
+          if (last == p) {
+            last = trail;
+          }
+          if (count.getAndDecrement() == capcity) {
+            fullWaitSet.signal();
+          }
+          return true;
+        }
+      }
+      return false;
+    } finally {
+      takeLock.unlock();
+      putLock.unlock();
+    }
+  }
+
+  //和remove一样需要同时拿两把锁
+  public boolean removeIf(Predicate<? super T> filter) {
+    putLock.lock();
+    takeLock.lock();
+    try {
+      int removed = 0;
+      for (Node<T> trail = head, p = trail.next; p != null; p = trail.next) {
+        if (filter.test(p.item)) {
+          p.item = null;
+          trail.next = p.next;
+          if (last == p) {
+            last = trail;
+          }
+          removed++;
+        } else {
+          trail = p;
+        }
+      }
+      if (removed > 0 && count.getAndAdd(-removed) == capcity) {
+        fullWaitSet.signalAll();
+      }
+      return removed > 0;
+    } finally {
+      takeLock.unlock();
+      putLock.unlock();
+    }
+  }
+
+  //需要持有takeLock，最多取走count个，不修改count
+  private int drain(Collection<? super T> c, int max) {
+    int n = Math.min(max, count.get());
+    for (int i = 0; i < n; i++) {
+      c.add(dequeue());
+    }
+    return n;
+  }
+
+  //一次拿putLock放入一批，队列由空变为非空时只唤醒一个消费者，剩下的由消费者级联唤醒
+  public void putAll(Collection<? extends T> elements) {
+    int pending = 0;
+    putLock.lock();
+    try {
+      for (T element : elements) {
+        if (element == null) {
+          throw new NullPointerException();
+        }
+        while (count.get() + pending == capcity) {
+          //先把攒着的任务发布出去再等待，否则消费者看不到它们
+          publish(pending);
+          pending = 0;
+          try {
+            fullWaitSet.await();
+          } catch (InterruptedException e) {
+            e.printStackTrace();
+          }
+        }
+        enqueue(new Node<>(element));
+        pending++;
+      }
+      listener.onEvent(PoolEvent.BATCH_ENQUEUED, elements.size());
+    } finally {
+      //中途抛出异常也要把已经入队的节点发布出去，保证count和链表一致
+      publish(pending);
+      putLock.unlock();
+    }
+  }
+
+  //需要持有putLock，把已经链接到队尾的pending个节点计入count
+  private void publish(int pending) {
+    if (pending == 0) {
+      return;
+    }
+    int c = count.getAndAdd(pending);
+    if (c + pending < capcity) {
+      fullWaitSet.signal();
+    }
+    if (c == 0) {
+      //持有putLock再去拿takeLock是安全的，消费者不会同时持有takeLock去等putLock
+      signalNotEmpty();
+    }
+  }
+
+  public int capacity() {
+    return capcity;
+  }
+
+  public void setEventListener(PoolEventListener listener) {
+    this.listener = listener;
+  }
+
+  public void tryPut(RejectPolicy<T> rejectPolicy, T task) {
+    if (task == null) {
+      throw new NullPointerException();
+    }
+    //队列满了就不用加锁了，直接交给rejectPolicy
+    if (count.get() == capcity) {
+      rejectPolicy.reject(this, task);
+      return;
+    }
+    Node<T> node = new Node<>(task);
+    int c = -1;
+    putLock.lock();
+    try {
+      if (count.get() < capcity) {
+        enqueue(node);
+        listener.onEvent(PoolEvent.TASK_ENQUEUED, task, null);
+        c = count.getAndIncrement();
+        if (c + 1 < capcity) {
+          fullWaitSet.signal();
+        }
+      }
+    } finally {
+      putLock.unlock();
+    }
+    if (c < 0) {
+      //加锁之后发现已经满了，释放putLock之后再执行拒绝策略，
+      //否则像"调用者自己执行"这样的策略会一直占着putLock，挡住其他生产者
+      rejectPolicy.reject(this, task);
+    } else if (c == 0) {
+      signalNotEmpty();
+    }
+  }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2021 Synopsys Inc. All rights reserved.
+ * This file is confidential material. Unauthorized distribution prohibited.
+ */
+package chapter08.diy_thread_pool;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//用虚拟线程跑10万个同时阻塞的任务
+//每个任务先sleep(1000)模拟阻塞IO，然后在allStarted上等待，直到10万个任务全部开始执行才一起结束，
+//所以只有10万个任务真的能同时阻塞，这个程序才能跑完
+public class VirtualThreadPoolTest {
+
+  public static void main(String[] args) throws InterruptedException {
+    if (!VirtualThreads.isSupported()) {
+      System.out.println("当前JDK不支持虚拟线程，需要JDK 21及以上版本");
+      return;
+    }
+
+    int tasks = 100_000;
+    //并发数上限，每个worker都是一个虚拟线程
+    int concurrency = 100_000;
+
+    //第一个构造方法：所有worker空闲超时后都会被销毁，虚拟线程用完就回收
+    ThreadPool pool = new ThreadPool(concurrency, 1000, TimeUnit.MILLISECONDS, 1024,
+        (queue, task) -> queue.put(task));
+    pool.setThreadFactory(VirtualThreads.factory());
+
+    CountDownLatch allStarted = new CountDownLatch(tasks);
+    CountDownLatch latch = new CountDownLatch(tasks);
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+
+    long start = System.nanoTime();
+    for (int i = 0; i < tasks; i++) {
+      pool.execute(() -> {
+        int now = running.incrementAndGet();
+        maxRunning.accumulateAndGet(now, Math::max);
+        allStarted.countDown();
+        try {
+          Thread.sleep(1000);
+          if (!allStarted.await(60, TimeUnit.SECONDS)) {
+            System.out.println("等待其他任务开始执行超时");
+          }
+        } catch (InterruptedException e) {
+          e.printStackTrace();
+        } finally {
+          running.decrementAndGet();
+          latch.countDown();
+        }
+      });
+    }
+    latch.await();
+    long cost = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+    System.out.println("任务数 " + tasks + " 最大同时阻塞数 " + maxRunning.get() + " 耗时 " + cost + "ms");
+    if (maxRunning.get() < tasks) {
+      throw new IllegalStateException("没有做到 " + tasks + " 个任务同时阻塞");
+    }
+  }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2021 Synopsys Inc. All rights reserved.
+ * This file is confidential material. Unauthorized distribution prohibited.
+ */
+package chapter08.diy_thread_pool;
+
+import java.util.concurrent.ThreadFactory;
+
+//虚拟线程（JDK 21+）的线程工厂
+//项目本身按JDK 17编译，所以这里通过反射调用Thread.ofVirtual()，在低版本JDK上isSupported()返回false
+final class VirtualThreads {
+
+  private static final ThreadFactory FACTORY = createFactory();
+
+  private VirtualThreads() {
+  }
+
+  private static ThreadFactory createFactory() {
+    try {
+      Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      builder = builderClass.getMethod("name", String.class, long.class)
+          .invoke(builder, "virtual-worker-", 0L);
+      //Thread.Builder.factory()返回的工厂是线程安全的
+      return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+    } catch (ReflectiveOperationException e) {
+      return null;
+    }
+  }
+
+  public static boolean isSupported() {
+    return FACTORY != null;
+  }
+
+  //在不支持虚拟线程的JDK上抛出UnsupportedOperationException，
+  //不偷偷退回平台线程，否则按虚拟线程设置的并发数去创建平台线程会把机器拖垮
+  public static ThreadFactory factory() {
+    if (FACTORY == null) {
+      throw new UnsupportedOperationException("虚拟线程需要JDK 21及以上版本");
+    }
+    return FACTORY;
+  }
+}
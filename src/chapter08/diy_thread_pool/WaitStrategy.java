@@ -0,0 +1,71 @@
+/*
+ * Copyright 2021 Synopsys Inc. All rights reserved.
+ * This file is confidential material. Unauthorized distribution prohibited.
+ */
+package chapter08.diy_thread_pool;
+
+//worker在共享队列上没有任务时的等待策略
+//阻塞队列的poll是park/unpark，一次交接要几十微秒；任务只有亚毫秒级的时候，
+//可以先自旋一会儿，用CPU换更短的交接延迟
+//spin在阻塞等待之前调用：拿到任务就返回，返回null表示接下来进入队列的阻塞等待
+@FunctionalInterface
+interface WaitStrategy {
+
+  //forever为true时没有超时（核心线程），否则deadline是System.nanoTime()的截止时间
+  Runnable spin(BlockingQueue<Runnable> queue, boolean forever, long deadline);
+
+  //不自旋，直接阻塞，和原来的行为一样
+  WaitStrategy BLOCKING = (queue, forever, deadline) -> null;
+
+  //一直忙等，直到拿到任务或者超时，延迟最低，但会一直占着一个CPU
+  static WaitStrategy busySpin() {
+    return (queue, forever, deadline) -> {
+      while (true) {
+        Runnable t = queue.tryPoll();
+        if (t != null) {
+          return t;
+        }
+        if (!forever && System.nanoTime() - deadline >= 0) {
+          return null;
+        }
+        Thread.onSpinWait();
+      }
+    };
+  }
+
+  //先自旋spins次，之后每次检查前先Thread.yield()让出CPU，直到拿到任务或者超时
+  static WaitStrategy spinThenYield(int spins) {
+    return (queue, forever, deadline) -> {
+      int n = 0;
+      while (true) {
+        Runnable t = queue.tryPoll();
+        if (t != null) {
+          return t;
+        }
+        if (!forever && System.nanoTime() - deadline >= 0) {
+          return null;
+        }
+        if (n < spins) {
+          n++;
+          Thread.onSpinWait();
+        } else {
+          Thread.yield();
+        }
+      }
+    };
+  }
+
+  //最多自旋spins次，还没有任务就进入阻塞等待
+  static WaitStrategy spinThenPark(int spins) {
+    return (queue, forever, deadline) -> {
+      for (int n = 0; n < spins; n++) {
+        Runnable t = queue.tryPoll();
+        if (t != null) {
+          return t;
+        }
+        Thread.onSpinWait();
+      }
+      return null;
+    };
+  }
+}
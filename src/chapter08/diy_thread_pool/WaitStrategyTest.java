@@ -0,0 +1,58 @@
+/*
+ * Copyright 2021 Synopsys Inc. All rights reserved.
+ * This file is confidential material. Unauthorized distribution prohibited.
+ */
+package chapter08.diy_thread_pool;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+//比较几种等待策略下任务从提交到开始执行的交接延迟
+//每次提交之前先等一会儿，让worker进入等待状态，测的就是唤醒空闲worker的开销
+//自旋要有空闲的CPU才有意义，只有一个CPU的时候自旋的worker会和提交任务的线程抢CPU，反而更慢
+public class WaitStrategyTest {
+
+  public static void main(String[] args) throws InterruptedException {
+    System.out.println("CPU个数 " + Runtime.getRuntime().availableProcessors());
+    run("阻塞", WaitStrategy.BLOCKING);
+    run("自旋后阻塞", WaitStrategy.spinThenPark(10_000));
+    run("自旋后让出CPU", WaitStrategy.spinThenYield(1_000));
+    run("忙等", WaitStrategy.busySpin());
+  }
+
+  private static void run(String name, WaitStrategy strategy) throws InterruptedException {
+    ThreadPool pool = new ThreadPool(1, 1, 1, TimeUnit.SECONDS,
+        new DequeBlockingQueue<>(16), 16, (queue, task) -> task.run());
+    pool.setWaitStrategy(strategy);
+
+    int rounds = 2000;
+    long[] latency = new long[rounds];
+    AtomicLong started = new AtomicLong();
+    //先启动worker
+    pool.execute(() -> {
+    });
+    for (int i = 0; i < rounds; i++) {
+      //等20微秒，让worker回到等待状态
+      LockSupport.parkNanos(20_000);
+      started.set(0);
+      long submit = System.nanoTime();
+      pool.execute(() -> started.set(System.nanoTime()));
+      long s;
+      while ((s = started.get()) == 0) {
+        Thread.onSpinWait();
+      }
+      latency[i] = s - submit;
+    }
+    Arrays.sort(latency);
+    System.out.println(name + " 交接延迟 p50 " + latency[rounds / 2] / 1000 + "us"
+        + " p99 " + latency[rounds * 99 / 100] / 1000 + "us");
+
+    //自旋的worker也会取到shutdown放进队列的WAKE_UP，然后退出
+    pool.shutdown();
+    while (!pool.isTerminated()) {
+      Thread.sleep(10);
+    }
+  }
+}
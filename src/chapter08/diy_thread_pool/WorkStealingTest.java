@@ -0,0 +1,94 @@
+/*
+ * Copyright 2021 Synopsys Inc. All rights reserved.
+ * This file is confidential material. Unauthorized distribution prohibited.
+ */
+package chapter08.diy_thread_pool;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+//工作窃取：worker执行任务时提交的子任务放进自己的本地队列，别的worker空闲了来偷
+//这里用递归拆分的方式求1到N的和，只有第一个任务是主线程提交的，其余的都是worker自己提交的子任务
+//本地队列故意开得很小，放不下的子任务走共享队列，共享队列也满了就交给rejectPolicy（调用者自己执行）
+public class WorkStealingTest {
+
+  private static final long N = 1_000_000;
+  private static final long THRESHOLD = 1_000;
+
+  private static ThreadPool pool;
+  private static final AtomicLong sum = new AtomicLong();
+  private static final AtomicInteger pending = new AtomicInteger();
+  private static final Map<String, LongAdder> executed = new ConcurrentHashMap<>();
+
+  public static void main(String[] args) throws InterruptedException {
+    pool = new ThreadPool(4, 4, 1000, TimeUnit.MILLISECONDS, new DequeBlockingQueue<>(16), 16,
+        (queue, task) -> task.run(), 8);
+    ThreadPoolMetrics metrics = pool.enableMetrics();
+
+    submit(1, N);
+    while (pending.get() > 0) {
+      Thread.sleep(10);
+    }
+    System.out.println("结果 " + sum.get() + " 期望 " + N * (N + 1) / 2);
+    executed.forEach((name, count) -> System.out.println(name + " 执行了 " + count + " 个任务"));
+
+    //一个worker一次提交100个子任务：本地队列放8个，共享队列放16个，剩下的被其他worker取走之前都走rejectPolicy
+    pending.incrementAndGet();
+    pool.execute(() -> {
+      for (int i = 0; i < 100; i++) {
+        pending.incrementAndGet();
+        pool.execute(() -> {
+          try {
+            Thread.sleep(1);
+          } catch (InterruptedException e) {
+            e.printStackTrace();
+          }
+          pending.decrementAndGet();
+        });
+      }
+      pending.decrementAndGet();
+    });
+    while (pending.get() > 0) {
+      Thread.sleep(10);
+    }
+    System.out.println("本地队列和共享队列都放不下、由提交者自己执行的子任务数 " + metrics.snapshot().rejected);
+
+    //关闭之后worker再提交子任务也会被拒绝，不会偷偷放进本地队列
+    pool.execute(() -> {
+      pool.shutdown();
+      try {
+        pool.execute(() -> System.out.println("不应该执行"));
+      } catch (RejectedExecutionException e) {
+        System.out.println("关闭之后worker提交的子任务被拒绝: " + e.getMessage());
+      }
+    });
+    while (!pool.isTerminated()) {
+      Thread.sleep(10);
+    }
+  }
+
+  //区间足够小就直接算，否则拆成两半提交
+  private static void submit(long from, long to) {
+    pending.incrementAndGet();
+    pool.execute(() -> {
+      executed.computeIfAbsent(Thread.currentThread().getName(), k -> new LongAdder()).increment();
+      if (to - from < THRESHOLD) {
+        long s = 0;
+        for (long i = from; i <= to; i++) {
+          s += i;
+        }
+        sum.addAndGet(s);
+      } else {
+        long mid = (from + to) >>> 1;
+        submit(from, mid);
+        submit(mid + 1, to);
+      }
+      pending.decrementAndGet();
+    });
+  }
+}
@@ -0,0 +1,468 @@
+/*
+ * Copyright 2021 Synopsys Inc. All rights reserved.
+ * This file is confidential material. Unauthorized distribution prohibited.
+ */
+package chapter08.fork_join;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoublePredicate;
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.IntConsumer;
+import java.util.function.LongBinaryOperator;
+import java.util.function.LongPredicate;
+import java.util.function.LongUnaryOperator;
+
+//long[]和double[]上的并行计算：前缀和（扫描）、map-reduce、过滤、直方图
+//和RangeReducer一样用分治把工作分给ForkJoinPool，区别是这里先把数组切成固定的块，
+//每个块在一个叶子任务里顺序处理，块内只是普通的循环，按顺序访问内存，CPU的预取能跟上；
+//块的长度是8的倍数（一个缓存行64字节），相邻两个块写输出数组的时候不会写到同一个缓存行上
+//需要两遍的计算（扫描、过滤）先对每个块算一个汇总值，再顺序处理这几十个汇总值，最后每个块再并行地走一遍，
+//中间结果只有每个块一个数，不会按元素分配内存
+//
+//所有的op都必须满足结合律，identity是它的单位元；double的加法只是近似满足结合律，并行的结果和顺序计算可能差一点点
+//sum、min、max、dot的叶子循环交给LeafKernels，默认有Vector API就用SIMD的版本
+public class ArrayKernels {
+
+  //一个块至少这么多个元素，太小的话任务的开销比计算还大
+  private static final int MIN_BLOCK = 1 << 13;
+
+  //每个线程大约分到几个块，有线程慢了别的线程可以偷走剩下的
+  private static final int BLOCKS_PER_THREAD = 4;
+
+  private final ForkJoinPool pool;
+
+  private final LeafKernels leaf;
+
+  public ArrayKernels(ForkJoinPool pool) {
+    this(pool, LeafKernels.best());
+  }
+
+  public ArrayKernels(ForkJoinPool pool, LeafKernels leaf) {
+    if (pool == null || leaf == null) {
+      throw new NullPointerException();
+    }
+    this.pool = pool;
+    this.leaf = leaf;
+  }
+
+  public long sum(long[] a) {
+    return reduceLongBlocks(a.length, 0, Long::sum, (from, to) -> leaf.sum(a, from, to));
+  }
+
+  //数组为空返回Long.MAX_VALUE
+  public long min(long[] a) {
+    return reduceLongBlocks(a.length, Long.MAX_VALUE, Math::min, (from, to) -> leaf.min(a, from, to));
+  }
+
+  //数组为空返回Long.MIN_VALUE
+  public long max(long[] a) {
+    return reduceLongBlocks(a.length, Long.MIN_VALUE, Math::max, (from, to) -> leaf.max(a, from, to));
+  }
+
+  public long dot(long[] a, long[] b) {
+    if (a.length != b.length) {
+      throw new IllegalArgumentException();
+    }
+    return reduceLongBlocks(a.length, 0, Long::sum, (from, to) -> leaf.dot(a, b, from, to));
+  }
+
+  public double sum(double[] a) {
+    return reduceDoubleBlocks(a.length, 0, Double::sum, (from, to) -> leaf.sum(a, from, to));
+  }
+
+  public double min(double[] a) {
+    return reduceDoubleBlocks(a.length, Double.POSITIVE_INFINITY, Math::min, (from, to) -> leaf.min(a, from, to));
+  }
+
+  public double max(double[] a) {
+    return reduceDoubleBlocks(a.length, Double.NEGATIVE_INFINITY, Math::max, (from, to) -> leaf.max(a, from, to));
+  }
+
+  public double dot(double[] a, double[] b) {
+    if (a.length != b.length) {
+      throw new IllegalArgumentException();
+    }
+    return reduceDoubleBlocks(a.length, 0, Double::sum, (from, to) -> leaf.dot(a, b, from, to));
+  }
+
+  //out[i] = in[0] op in[1] op ... op in[i]，in和out可以是同一个数组
+  public void inclusiveScan(long[] in, long[] out, long identity, LongBinaryOperator op) {
+    scan(in, out, identity, op, true);
+  }
+
+  //out[0] = identity，out[i] = in[0] op ... op in[i-1]，in和out可以是同一个数组
+  public void exclusiveScan(long[] in, long[] out, long identity, LongBinaryOperator op) {
+    scan(in, out, identity, op, false);
+  }
+
+  public void inclusiveScan(double[] in, double[] out, double identity, DoubleBinaryOperator op) {
+    scan(in, out, identity, op, true);
+  }
+
+  public void exclusiveScan(double[] in, double[] out, double identity, DoubleBinaryOperator op) {
+    scan(in, out, identity, op, false);
+  }
+
+  //mapper(a[0]) combiner mapper(a[1]) combiner ...
+  public long mapReduce(long[] a, LongUnaryOperator mapper, long identity, LongBinaryOperator combiner) {
+    int n = a.length;
+    int block = blockSize(n);
+    int blocks = blocks(n, block);
+    long[] partial = new long[blocks];
+    forEachBlock(blocks, b -> {
+      int end = end(n, b, block);
+      long r = identity;
+      for (int i = b * block; i < end; i++) {
+        r = combiner.applyAsLong(r, mapper.applyAsLong(a[i]));
+      }
+      partial[b] = r;
+    });
+    long r = identity;
+    for (long p : partial) {
+      r = combiner.applyAsLong(r, p);
+    }
+    return r;
+  }
+
+  public double mapReduce(double[] a, DoubleUnaryOperator mapper, double identity, DoubleBinaryOperator combiner) {
+    int n = a.length;
+    int block = blockSize(n);
+    int blocks = blocks(n, block);
+    double[] partial = new double[blocks];
+    forEachBlock(blocks, b -> {
+      int end = end(n, b, block);
+      double r = identity;
+      for (int i = b * block; i < end; i++) {
+        r = combiner.applyAsDouble(r, mapper.applyAsDouble(a[i]));
+      }
+      partial[b] = r;
+    });
+    double r = identity;
+    for (double p : partial) {
+      r = combiner.applyAsDouble(r, p);
+    }
+    return r;
+  }
+
+  //按原来的顺序返回满足条件的元素
+  //第一遍每个块数一下有多少个满足条件，算出每个块在结果里的起点，第二遍再把元素写过去，
+  //所以predicate会对每个元素调用两次，不能有副作用
+  public long[] filter(long[] a, LongPredicate predicate) {
+    int n = a.length;
+    int block = blockSize(n);
+    int blocks = blocks(n, block);
+    int[] offsets = new int[blocks];
+    forEachBlock(blocks, b -> {
+      int end = end(n, b, block);
+      int count = 0;
+      for (int i = b * block; i < end; i++) {
+        if (predicate.test(a[i])) {
+          count++;
+        }
+      }
+      offsets[b] = count;
+    });
+    long[] out = new long[toOffsets(offsets)];
+    forEachBlock(blocks, b -> {
+      int end = end(n, b, block);
+      int j = offsets[b];
+      for (int i = b * block; i < end; i++) {
+        if (predicate.test(a[i])) {
+          out[j++] = a[i];
+        }
+      }
+    });
+    return out;
+  }
+
+  public double[] filter(double[] a, DoublePredicate predicate) {
+    int n = a.length;
+    int block = blockSize(n);
+    int blocks = blocks(n, block);
+    int[] offsets = new int[blocks];
+    forEachBlock(blocks, b -> {
+      int end = end(n, b, block);
+      int count = 0;
+      for (int i = b * block; i < end; i++) {
+        if (predicate.test(a[i])) {
+          count++;
+        }
+      }
+      offsets[b] = count;
+    });
+    double[] out = new double[toOffsets(offsets)];
+    forEachBlock(blocks, b -> {
+      int end = end(n, b, block);
+      int j = offsets[b];
+      for (int i = b * block; i < end; i++) {
+        if (predicate.test(a[i])) {
+          out[j++] = a[i];
+        }
+      }
+    });
+    return out;
+  }
+
+  //把[min, max)等分成bins个区间，数一下每个区间里有多少个元素，不在范围里的不算
+  //每个块先数到自己的数组里，最后再按区间并行地加起来，块之间不需要同步
+  public long[] histogram(long[] a, long min, long max, int bins) {
+    if (bins <= 0 || max <= min) {
+      throw new IllegalArgumentException();
+    }
+    long width = max - min;
+    //width * bins不溢出的话用整数精确计算
+    boolean exact = width > 0 && width <= Long.MAX_VALUE / bins;
+    double scale = (double) bins / ((double) max - (double) min);
+    int n = a.length;
+    int block = blockSize(n);
+    int blocks = blocks(n, block);
+    long[][] local = new long[blocks][];
+    forEachBlock(blocks, b -> {
+      long[] counts = new long[bins];
+      int end = end(n, b, block);
+      for (int i = b * block; i < end; i++) {
+        long v = a[i];
+        if (v < min || v >= max) {
+          continue;
+        }
+        int bin = exact ? (int) ((v - min) * bins / width) : (int) (((double) v - (double) min) * scale);
+        counts[Math.min(bin, bins - 1)]++;
+      }
+      local[b] = counts;
+    });
+    return merge(local, bins);
+  }
+
+  public long[] histogram(double[] a, double min, double max, int bins) {
+    if (bins <= 0 || !(max > min)) {
+      throw new IllegalArgumentException();
+    }
+    double scale = bins / (max - min);
+    int n = a.length;
+    int block = blockSize(n);
+    int blocks = blocks(n, block);
+    long[][] local = new long[blocks][];
+    forEachBlock(blocks, b -> {
+      long[] counts = new long[bins];
+      int end = end(n, b, block);
+      for (int i = b * block; i < end; i++) {
+        double v = a[i];
+        //NaN两个条件都不满足，也不算
+        if (!(v >= min && v < max)) {
+          continue;
+        }
+        //舍入误差可能会算到bins，放进最后一个区间
+        counts[Math.min((int) ((v - min) * scale), bins - 1)]++;
+      }
+      local[b] = counts;
+    });
+    return merge(local, bins);
+  }
+
+  private void scan(long[] in, long[] out, long identity, LongBinaryOperator op, boolean inclusive) {
+    if (out.length < in.length) {
+      throw new IllegalArgumentException();
+    }
+    int n = in.length;
+    int block = blockSize(n);
+    int blocks = blocks(n, block);
+    //第一遍：每个块的汇总值
+    long[] sums = new long[blocks];
+    forEachBlock(blocks, b -> {
+      int end = end(n, b, block);
+      long r = identity;
+      for (int i = b * block; i < end; i++) {
+        r = op.applyAsLong(r, in[i]);
+      }
+      sums[b] = r;
+    });
+    //块的个数很少，顺序算出每个块前面所有元素的汇总值
+    long acc = identity;
+    for (int b = 0; b < blocks; b++) {
+      long s = sums[b];
+      sums[b] = acc;
+      acc = op.applyAsLong(acc, s);
+    }
+    //第二遍：每个块从自己的起点开始扫描；先读in[i]再写out[i]，所以in和out可以是同一个数组
+    forEachBlock(blocks, b -> {
+      int end = end(n, b, block);
+      long r = sums[b];
+      for (int i = b * block; i < end; i++) {
+        long v = in[i];
+        if (inclusive) {
+          r = op.applyAsLong(r, v);
+          out[i] = r;
+        } else {
+          out[i] = r;
+          r = op.applyAsLong(r, v);
+        }
+      }
+    });
+  }
+
+  private void scan(double[] in, double[] out, double identity, DoubleBinaryOperator op, boolean inclusive) {
+    if (out.length < in.length) {
+      throw new IllegalArgumentException();
+    }
+    int n = in.length;
+    int block = blockSize(n);
+    int blocks = blocks(n, block);
+    double[] sums = new double[blocks];
+    forEachBlock(blocks, b -> {
+      int end = end(n, b, block);
+      double r = identity;
+      for (int i = b * block; i < end; i++) {
+        r = op.applyAsDouble(r, in[i]);
+      }
+      sums[b] = r;
+    });
+    double acc = identity;
+    for (int b = 0; b < blocks; b++) {
+      double s = sums[b];
+      sums[b] = acc;
+      acc = op.applyAsDouble(acc, s);
+    }
+    forEachBlock(blocks, b -> {
+      int end = end(n, b, block);
+      double r = sums[b];
+      for (int i = b * block; i < end; i++) {
+        double v = in[i];
+        if (inclusive) {
+          r = op.applyAsDouble(r, v);
+          out[i] = r;
+        } else {
+          out[i] = r;
+          r = op.applyAsDouble(r, v);
+        }
+      }
+    });
+  }
+
+  //一个块[from, to)的计算
+  private interface LongBlock {
+    long apply(int from, int to);
+  }
+
+  private interface DoubleBlock {
+    double apply(int from, int to);
+  }
+
+  //每个块算出一个值，再按块的顺序合并
+  private long reduceLongBlocks(int n, long identity, LongBinaryOperator combiner, LongBlock body) {
+    int block = blockSize(n);
+    int blocks = blocks(n, block);
+    long[] partial = new long[blocks];
+    forEachBlock(blocks, b -> partial[b] = body.apply(b * block, end(n, b, block)));
+    long r = identity;
+    for (long p : partial) {
+      r = combiner.applyAsLong(r, p);
+    }
+    return r;
+  }
+
+  private double reduceDoubleBlocks(int n, double identity, DoubleBinaryOperator combiner, DoubleBlock body) {
+    int block = blockSize(n);
+    int blocks = blocks(n, block);
+    double[] partial = new double[blocks];
+    forEachBlock(blocks, b -> partial[b] = body.apply(b * block, end(n, b, block)));
+    double r = identity;
+    for (double p : partial) {
+      r = combiner.applyAsDouble(r, p);
+    }
+    return r;
+  }
+
+  //每个块的元素个数改成它在结果里的起点，返回总数
+  private static int toOffsets(int[] counts) {
+    int total = 0;
+    for (int b = 0; b < counts.length; b++) {
+      int c = counts[b];
+      counts[b] = total;
+      total += c;
+    }
+    return total;
+  }
+
+  //按区间把每个块的计数加起来，区间多的时候也按块并行
+  private long[] merge(long[][] local, int bins) {
+    long[] result = new long[bins];
+    if (local.length == 0) {
+      return result;
+    }
+    int block = Math.max(MIN_BLOCK / local.length, 64);
+    forEachBlock(blocks(bins, block), b -> {
+      int end = end(bins, b, block);
+      for (long[] counts : local) {
+        for (int i = b * block; i < end; i++) {
+          result[i] += counts[i];
+        }
+      }
+    });
+    return result;
+  }
+
+  //块的长度：每个线程分到BLOCKS_PER_THREAD个块，至少MIN_BLOCK，向上取整到8的倍数
+  int blockSize(int n) {
+    long perBlock = ((long) n + (long) pool.getParallelism() * BLOCKS_PER_THREAD - 1)
+        / ((long) pool.getParallelism() * BLOCKS_PER_THREAD);
+    return (int) ((Math.max(perBlock, MIN_BLOCK) + 7) & ~7L);
+  }
+
+  private static int blocks(int n, int block) {
+    return (int) (((long) n + block - 1) / block);
+  }
+
+  //第b个块的结尾，数组很大的时候(b + 1) * block可能超出int
+  private static int end(int n, int b, int block) {
+    return (int) Math.min(n, (long) (b + 1) * block);
+  }
+
+  //对0到blocks-1的每个块并行地执行body，全部执行完才返回
+  private void forEachBlock(int blocks, IntConsumer body) {
+    if (blocks == 1) {
+      //只有一个块就不用交给线程池了
+      body.accept(0);
+    } else if (blocks > 1) {
+      pool.invoke(new BlockTask(0, blocks, body));
+    }
+  }
+
+  //和RangeReducer的任务一样，只fork右半边，左半边在当前线程里接着拆，拆到一个块为止
+  private static final class BlockTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int from;
+    private final int to;
+    private final IntConsumer body;
+
+    private BlockTask next;
+
+    BlockTask(int from, int to, IntConsumer body) {
+      this.from = from;
+      this.to = to;
+      this.body = body;
+    }
+
+    @Override
+    protected void compute() {
+      int lo = from;
+      int hi = to;
+      BlockTask forked = null;
+      while (hi - lo > 1) {
+        int mid = (lo + hi) >>> 1;
+        BlockTask right = new BlockTask(mid, hi, body);
+        right.next = forked;
+        forked = right;
+        right.fork();
+        hi = mid;
+      }
+      body.accept(lo);
+      for (BlockTask t = forked; t != null; t = t.next) {
+        t.join();
+      }
+    }
+  }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2021 Synopsys Inc. All rights reserved.
+ * This file is confidential material. Unauthorized distribution prohibited.
+ */
+package chapter08.fork_join;
+
+import java.util.List;
+
+//叶子任务里的循环：求和、最小值、最大值、点积，都是对[from, to)这一段
+//scalar是普通的循环；classpath上有vector模块编译出来的类，并且JVM带了jdk.incubator.vector模块
+//（启动时加--add-modules jdk.incubator.vector）的话，
+//best返回用Vector API写的版本，一次处理一个向量寄存器宽的数据
+//long的结果和普通循环完全一样（整数加法、乘法在溢出的时候也满足结合律）；
+//double的求和和点积改变了相加的顺序，结果可能差一点点
+public interface LeafKernels {
+
+  //比如scalar、vector-S_256_BIT
+  String name();
+
+  long sum(long[] a, int from, int to);
+
+  //区间为空返回Long.MAX_VALUE
+  long min(long[] a, int from, int to);
+
+  //区间为空返回Long.MIN_VALUE
+  long max(long[] a, int from, int to);
+
+  long dot(long[] a, long[] b, int from, int to);
+
+  double sum(double[] a, int from, int to);
+
+  //和Math.min一样，有NaN的话结果是NaN；区间为空返回正无穷
+  double min(double[] a, int from, int to);
+
+  //区间为空返回负无穷
+  double max(double[] a, int from, int to);
+
+  double dot(double[] a, double[] b, int from, int to);
+
+  static LeafKernels scalar() {
+    return ScalarLeafKernels.INSTANCE;
+  }
+
+  //有Vector API就用按CPU最宽的向量写的版本，否则用scalar
+  static LeafKernels best() {
+    return VectorSupport.BEST;
+  }
+
+  //scalar和每一种可用的向量宽度，基准测试用
+  static List<LeafKernels> available() {
+    return VectorSupport.AVAILABLE;
+  }
+}
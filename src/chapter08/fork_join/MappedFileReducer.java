@@ -0,0 +1,229 @@
+/*
+ * Copyright 2021 Synopsys Inc. All rights reserved.
+ * This file is confidential material. Unauthorized distribution prohibited.
+ */
+package chapter08.fork_join;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LongSummaryStatistics;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.LongBinaryOperator;
+import java.util.function.LongUnaryOperator;
+
+//对一个由long组成的二进制文件做并行归约，文件不用读进堆里
+//按字节范围拆分，拆分点对齐到8字节，每个叶子任务用FileChannel.map把自己的那一段映射进来，
+//直接在映射的内存上循环，数据不复制，比堆还大的文件也能处理，速度取决于内存（或者页缓存）的带宽
+//一次映射不能超过2GB，所以叶子最大MAX_LEAF_BYTES；映射的内存没有公开的方法主动释放，要等GC回收MappedByteBuffer
+//拆分和合并的方式和RangeReducer一样，op必须满足结合律
+public class MappedFileReducer {
+
+  private static final int ELEMENT = Long.BYTES;
+
+  //叶子至少1MB，太小的话映射的系统调用比计算还慢
+  private static final long MIN_LEAF_BYTES = 1 << 20;
+
+  private static final long MAX_LEAF_BYTES = 256 << 20;
+
+  private final ForkJoinPool pool;
+
+  //文件里long的字节序，DataOutputStream写出来的是大端
+  private final ByteOrder order;
+
+  public MappedFileReducer(ForkJoinPool pool) {
+    this(pool, ByteOrder.BIG_ENDIAN);
+  }
+
+  public MappedFileReducer(ForkJoinPool pool, ByteOrder order) {
+    if (pool == null || order == null) {
+      throw new NullPointerException();
+    }
+    this.pool = pool;
+    this.order = order;
+  }
+
+  public long sum(Path file) throws IOException {
+    return mapReduce(file, LongUnaryOperator.identity(), 0, Long::sum);
+  }
+
+  public long mapReduce(Path file, LongUnaryOperator mapper, long identity, LongBinaryOperator op)
+      throws IOException {
+    if (mapper == null || op == null) {
+      throw new NullPointerException();
+    }
+    return invoke(file, channel -> new ReduceTask(channel, mapper, identity, op)).result;
+  }
+
+  //个数、总和、最小值、最大值一遍算出来，每个叶子任务一个LongSummaryStatistics，最后合并
+  public LongSummaryStatistics summarize(Path file) throws IOException {
+    return invoke(file, StatisticsTask::new).result;
+  }
+
+  private interface TaskFactory<T extends RangeTask<T>> {
+    T create(FileChannel channel);
+  }
+
+  private <T extends RangeTask<T>> T invoke(Path file, TaskFactory<T> factory) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size % ELEMENT != 0) {
+        throw new IOException(file + " 的长度 " + size + " 不是" + ELEMENT + "的倍数");
+      }
+      T task = factory.create(channel);
+      task.from = 0;
+      task.to = size;
+      task.leaf = leafBytes(size, pool.getParallelism());
+      task.order = order;
+      try {
+        pool.invoke(task);
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
+      }
+      return task;
+    }
+  }
+
+  //每个线程大约分到8个叶子，对齐到8字节
+  static long leafBytes(long size, int parallelism) {
+    long leaf = Math.min(Math.max(size / ((long) parallelism * 8), MIN_LEAF_BYTES), MAX_LEAF_BYTES);
+    return leaf - leaf % ELEMENT;
+  }
+
+  //按字节范围[from, to)拆分的任务，子类只需要实现叶子的计算和两个结果的合并
+  private abstract static class RangeTask<T extends RangeTask<T>> extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    final FileChannel channel;
+    long from;
+    long to;
+    long leaf;
+    ByteOrder order;
+
+    //同一个父任务fork出来的右半边，离自己最近的在前面
+    T next;
+
+    RangeTask(FileChannel channel) {
+      this.channel = channel;
+    }
+
+    //新建一个同样参数的空任务
+    abstract T copy();
+
+    //处理[from, to)对应的long，结果存在自己的字段里
+    abstract void leaf(LongBuffer values);
+
+    //把右边相邻区间的结果合并到自己的结果里
+    abstract void combine(T right);
+
+    @Override
+    protected void compute() {
+      T forked = null;
+      while (to - from > leaf) {
+        //对齐到元素大小，叶子里不会出现半个long
+        long mid = from + (to - from) / 2 / ELEMENT * ELEMENT;
+        T right = copy();
+        right.from = mid;
+        right.to = to;
+        right.leaf = leaf;
+        right.order = order;
+        right.next = forked;
+        forked = right;
+        right.fork();
+        to = mid;
+      }
+      try {
+        //映射的缓冲区不复制数据，asLongBuffer按order直接解码映射的内存
+        leaf(channel.map(FileChannel.MapMode.READ_ONLY, from, to - from).order(order).asLongBuffer());
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      for (T t = forked; t != null; t = t.next) {
+        t.join();
+        combine(t);
+      }
+    }
+  }
+
+  private static final class ReduceTask extends RangeTask<ReduceTask> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final LongUnaryOperator mapper;
+    private final long identity;
+    private final LongBinaryOperator op;
+
+    private long result;
+
+    ReduceTask(FileChannel channel, LongUnaryOperator mapper, long identity, LongBinaryOperator op) {
+      super(channel);
+      this.mapper = mapper;
+      this.identity = identity;
+      this.op = op;
+    }
+
+    @Override
+    ReduceTask copy() {
+      return new ReduceTask(channel, mapper, identity, op);
+    }
+
+    @Override
+    void leaf(LongBuffer values) {
+      long r = identity;
+      int n = values.limit();
+      for (int i = 0; i < n; i++) {
+        r = op.applyAsLong(r, mapper.applyAsLong(values.get(i)));
+      }
+      result = r;
+    }
+
+    @Override
+    void combine(ReduceTask right) {
+      result = op.applyAsLong(result, right.result);
+    }
+  }
+
+  private static final class StatisticsTask extends RangeTask<StatisticsTask> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final LongSummaryStatistics result = new LongSummaryStatistics();
+
+    StatisticsTask(FileChannel channel) {
+      super(channel);
+    }
+
+    @Override
+    StatisticsTask copy() {
+      return new StatisticsTask(channel);
+    }
+
+    @Override
+    void leaf(LongBuffer values) {
+      long sum = 0;
+      long min = Long.MAX_VALUE;
+      long max = Long.MIN_VALUE;
+      int n = values.limit();
+      for (int i = 0; i < n; i++) {
+        long v = values.get(i);
+        sum += v;
+        min = Math.min(min, v);
+        max = Math.max(max, v);
+      }
+      if (n > 0) {
+        result.combine(new LongSummaryStatistics(n, min, max, sum));
+      }
+    }
+
+    @Override
+    void combine(StatisticsTask right) {
+      result.combine(right.result);
+    }
+  }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2021 Synopsys Inc. All rights reserved.
+ * This file is confidential material. Unauthorized distribution prohibited.
+ */
+package chapter08.fork_join;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.LongBinaryOperator;
+import java.util.function.LongUnaryOperator;
+
+//对一个long区间[from, to)做并行归约，Addtask的改进版：
+//  区间小于cutoff就不再拆分，直接在一个循环里算完，而不是拆到只剩一两个数
+//  拆分的时候只fork右半边，左半边在当前线程里接着拆，一层只创建一个任务
+//  结果存在任务的long字段里，不用RecursiveTask<Integer>，不装箱也不会在int范围溢出
+//op必须满足结合律（不需要交换律），identity是op的单位元，比如加法的0、乘法的1、最大值的Long.MIN_VALUE
+//
+//什么时候停止拆分由Splitting决定，固定的cutoff要按核数和负载去调，
+//SURPLUS和LAZY看当前线程的队列里还有多少没被偷走的任务，别的线程都有活干了就不再拆，核多核少都不用调参数
+public class RangeReducer {
+
+  //拆分策略
+  public enum Splitting {
+    //区间大于cutoff就拆
+    FIXED,
+    //区间大于cutoff，并且当前线程队列里多出来的任务不超过SURPLUS_THRESHOLD个才拆，否则整个区间顺序算完
+    SURPLUS,
+    //先不拆，每次顺序算cutoff个数，算之前看一眼队列，任务不够了再把剩下的区间拆一半出去（lazy binary splitting）
+    //叶子任务执行到一半发现别的线程闲了也能分出去，负载不均匀的时候最好
+    LAZY
+  }
+
+  //队列里多出来的任务不超过这么多个，说明别的线程可能没活干了，需要接着拆
+  //ForkJoinTask.getSurplusQueuedTaskCount的文档里建议的值是3
+  private static final int SURPLUS_THRESHOLD = 3;
+
+  //SURPLUS和LAZY默认的最小区间，再小的话拆分的开销比计算还大
+  private static final long MIN_LEAF = 1 << 12;
+
+  private final ForkJoinPool pool;
+
+  //FIXED的叶子大小，小于等于0表示按区间大小和并行度自动计算；SURPLUS和LAZY的最小区间，小于等于0用MIN_LEAF
+  private final long cutoff;
+
+  private final Splitting splitting;
+
+  public RangeReducer(ForkJoinPool pool) {
+    this(pool, 0);
+  }
+
+  public RangeReducer(ForkJoinPool pool, long cutoff) {
+    this(pool, cutoff, Splitting.FIXED);
+  }
+
+  public RangeReducer(ForkJoinPool pool, long cutoff, Splitting splitting) {
+    if (pool == null || splitting == null) {
+      throw new NullPointerException();
+    }
+    this.pool = pool;
+    this.cutoff = cutoff;
+    this.splitting = splitting;
+  }
+
+  //from + (from+1) + ... + (to-1)
+  public long sum(long from, long to) {
+    return reduce(from, to, 0, Long::sum);
+  }
+
+  public long reduce(long from, long to, long identity, LongBinaryOperator op) {
+    return mapReduce(from, to, LongUnaryOperator.identity(), identity, op);
+  }
+
+  //对区间里的每个数先做mapper再归约，比如mapper为i -> i * i就是平方和
+  public long mapReduce(long from, long to, LongUnaryOperator mapper, long identity, LongBinaryOperator op) {
+    if (mapper == null || op == null) {
+      throw new NullPointerException();
+    }
+    if (from >= to) {
+      return identity;
+    }
+    long leaf = cutoff > 0 ? cutoff
+        : splitting == Splitting.FIXED ? autoCutoff(to - from, pool.getParallelism()) : MIN_LEAF;
+    ReduceTask task = new ReduceTask(from, to, leaf, splitting, mapper, identity, op);
+    pool.invoke(task);
+    return task.result;
+  }
+
+  //每个线程大约分到8个叶子任务，有线程慢了别的线程可以偷走剩下的；叶子太小的话创建任务的开销比计算还大
+  static long autoCutoff(long size, int parallelism) {
+    return Math.max(Long.divideUnsigned(size, (long) parallelism * 8), MIN_LEAF);
+  }
+
+  private static final class ReduceTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long from;
+    private final long to;
+    private final long cutoff;
+    private final Splitting splitting;
+    private final LongUnaryOperator mapper;
+    private final long identity;
+    private final LongBinaryOperator op;
+
+    private long result;
+
+    //同一个父任务fork出来的右半边连成链表，离自己最近的在前面
+    private ReduceTask next;
+
+    ReduceTask(long from, long to, long cutoff, Splitting splitting, LongUnaryOperator mapper, long identity,
+        LongBinaryOperator op) {
+      this.from = from;
+      this.to = to;
+      this.cutoff = cutoff;
+      this.splitting = splitting;
+      this.mapper = mapper;
+      this.identity = identity;
+      this.op = op;
+    }
+
+    @Override
+    protected void compute() {
+      long lo = from;
+      long hi = to;
+      ReduceTask forked = null;
+      long r = identity;
+      while (true) {
+        //右半边交给别的线程，左半边留给自己接着拆
+        while (shouldSplit(hi - lo)) {
+          long mid = lo + ((hi - lo) >>> 1);
+          ReduceTask right = new ReduceTask(mid, hi, cutoff, splitting, mapper, identity, op);
+          right.next = forked;
+          forked = right;
+          right.fork();
+          hi = mid;
+        }
+        //LAZY每次只算cutoff个数，然后回去看看要不要再拆；其他策略把剩下的区间一次算完
+        long end = splitting == Splitting.LAZY && Long.compareUnsigned(hi - lo, cutoff) > 0 ? lo + cutoff : hi;
+        for (long i = lo; i < end; i++) {
+          r = op.applyAsLong(r, mapper.applyAsLong(i));
+        }
+        if (end == hi) {
+          break;
+        }
+        lo = end;
+      }
+      //fork出去的区间都在[lo, hi)的右边，后fork的离得近，
+      //所以按链表的顺序就是从左到右合并，op不满足交换律也没关系；
+      //右半边还没被偷走的话join会直接在当前线程里执行它
+      for (ReduceTask t = forked; t != null; t = t.next) {
+        t.join();
+        r = op.applyAsLong(r, t.result);
+      }
+      result = r;
+    }
+
+    //区间长度按无符号数比较，from到to跨过整个long范围也不会溢出
+    private boolean shouldSplit(long size) {
+      return Long.compareUnsigned(size, cutoff) > 0
+          && (splitting == Splitting.FIXED || getSurplusQueuedTaskCount() <= SURPLUS_THRESHOLD);
+    }
+  }
+}
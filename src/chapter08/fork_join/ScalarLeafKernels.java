@@ -0,0 +1,96 @@
+/*
+ * Copyright 2021 Synopsys Inc. All rights reserved.
+ * This file is confidential material. Unauthorized distribution prohibited.
+ */
+package chapter08.fork_join;
+
+//普通循环的版本，没有Vector API的时候用，也是向量版本对比的基准
+final class ScalarLeafKernels implements LeafKernels {
+
+  static final ScalarLeafKernels INSTANCE = new ScalarLeafKernels();
+
+  private ScalarLeafKernels() {
+  }
+
+  @Override
+  public String name() {
+    return "scalar";
+  }
+
+  @Override
+  public long sum(long[] a, int from, int to) {
+    long r = 0;
+    for (int i = from; i < to; i++) {
+      r += a[i];
+    }
+    return r;
+  }
+
+  @Override
+  public long min(long[] a, int from, int to) {
+    long r = Long.MAX_VALUE;
+    for (int i = from; i < to; i++) {
+      r = Math.min(r, a[i]);
+    }
+    return r;
+  }
+
+  @Override
+  public long max(long[] a, int from, int to) {
+    long r = Long.MIN_VALUE;
+    for (int i = from; i < to; i++) {
+      r = Math.max(r, a[i]);
+    }
+    return r;
+  }
+
+  @Override
+  public long dot(long[] a, long[] b, int from, int to) {
+    long r = 0;
+    for (int i = from; i < to; i++) {
+      r += a[i] * b[i];
+    }
+    return r;
+  }
+
+  @Override
+  public double sum(double[] a, int from, int to) {
+    double r = 0;
+    for (int i = from; i < to; i++) {
+      r += a[i];
+    }
+    return r;
+  }
+
+  @Override
+  public double min(double[] a, int from, int to) {
+    double r = Double.POSITIVE_INFINITY;
+    for (int i = from; i < to; i++) {
+      r = Math.min(r, a[i]);
+    }
+    return r;
+  }
+
+  @Override
+  public double max(double[] a, int from, int to) {
+    double r = Double.NEGATIVE_INFINITY;
+    for (int i = from; i < to; i++) {
+      r = Math.max(r, a[i]);
+    }
+    return r;
+  }
+
+  @Override
+  public double dot(double[] a, double[] b, int from, int to) {
+    double r = 0;
+    for (int i = from; i < to; i++) {
+      r += a[i] * b[i];
+    }
+    return r;
+  }
+
+  @Override
+  public String toString() {
+    return name();
+  }
+}
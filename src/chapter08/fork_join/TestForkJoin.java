@@ -14,6 +14,8 @@ public class TestForkJoin {
     //默认线程等于核心数
     ForkJoinPool pool = new ForkJoinPool();
     System.out.println(pool.invoke(new Addtask(1, 5)));
+    //Addtask的结果是int，n大了会溢出，而且会拆出n个任务；RangeReducer拆到cutoff就停，结果是long
+    System.out.println(new RangeReducer(pool).sum(1, 100_000_001));
   }
 
 }
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2021 Synopsys Inc. All rights reserved.
+ * This file is confidential material. Unauthorized distribution prohibited.
+ */
+package chapter08.fork_join;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+//用反射加载VectorLeafKernels：只有jdk.incubator.vector模块在启动时被加进来，才去碰那个类，
+//否则加载它会抛NoClassDefFoundError，这样没加--add-modules的时候还能用scalar
+//VectorLeafKernels在单独的vector模块里（mvn -Pvector），classpath上没有它的时候也用scalar
+final class VectorSupport {
+
+  private static final String MODULE = "jdk.incubator.vector";
+
+  static final List<LeafKernels> AVAILABLE;
+  static final LeafKernels BEST;
+
+  static {
+    List<LeafKernels> kernels = new ArrayList<>();
+    kernels.add(LeafKernels.scalar());
+    LeafKernels best = LeafKernels.scalar();
+    if (ModuleLayer.boot().findModule(MODULE).isPresent()) {
+      try {
+        Class<?> c = Class.forName("chapter08.fork_join.VectorLeafKernels");
+        @SuppressWarnings("unchecked")
+        List<LeafKernels> vectors = (List<LeafKernels>) c.getMethod("all").invoke(null);
+        kernels.addAll(vectors);
+        best = (LeafKernels) c.getMethod("preferred").invoke(null);
+      } catch (ClassNotFoundException e) {
+        //没有编译vector模块，用scalar
+      } catch (ReflectiveOperationException | LinkageError e) {
+        //模块不完整，用scalar
+        e.printStackTrace();
+      }
+    }
+    AVAILABLE = Collections.unmodifiableList(kernels);
+    BEST = best;
+  }
+
+  private VectorSupport() {
+  }
+}
@@ -0,0 +1,398 @@
+/*
+ * Copyright 2021 Synopsys Inc. All rights reserved.
+ * This file is confidential material. Unauthorized distribution prohibited.
+ */
+package chapter08.schedule_pool;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+
+//cron表达式，解析的时候把每个字段编译成位图，比如"0 18 * * THU"的小时字段就是第18位为1的int
+//计算下一次触发时间只用位运算和整数运算，在本地时间上逐个字段往后找，不创建LocalDateTime之类的对象
+//
+//支持的格式：
+//  5个字段  分 时 日 月 星期
+//  6个字段  秒 分 时 日 月 星期
+//  每个字段可以是 *  ?  数字  a-b  a,b,c  */n  a-b/n，月和星期可以用英文缩写（JAN、THU），星期的0和7都是周日
+//  也可以用 @yearly @monthly @weekly @daily @hourly
+//日和星期都不是*的时候，满足其中一个就触发（和Vixie cron一样）
+//
+//时间按时区的本地时间计算，所以夏令时切换前后每周四18:00还是本地时间18:00：
+//  本地时间不存在（夏令时开始时跳过的一小时）就跳过这一次
+//  本地时间出现两次（夏令时结束时重复的一小时）只在第一次触发，重复的那一小时里按秒/分触发的任务也不会再触发一遍
+public final class CronExpression implements Trigger {
+
+  //最多往后找几年，像"0 0 30 2 *"这样永远不会触发的表达式不能一直找下去
+  private static final int MAX_YEARS = 8;
+
+  private static final String[] MONTHS =
+      {"JAN", "FEB", "MAR", "APR", "MAY", "JUN", "JUL", "AUG", "SEP", "OCT", "NOV", "DEC"};
+  private static final String[] DAYS = {"SUN", "MON", "TUE", "WED", "THU", "FRI", "SAT"};
+
+  private final String expression;
+
+  //第i位为1表示i满足条件
+  private final long seconds;
+  private final long minutes;
+  private final int hours;
+  //第1~31位
+  private final long daysOfMonth;
+  //第1~12位
+  private final int months;
+  //第0~6位，0是周日
+  private final int daysOfWeek;
+  //日和星期是不是*，都不是*的时候两者满足其一即可
+  private final boolean domStar;
+  private final boolean dowStar;
+
+  private final ZoneId zone;
+  private final ZoneRules rules;
+
+  //时区偏移的缓存：[validFrom, validTo)这段时间里偏移都是offset秒，只有跨过夏令时切换点的时候才需要重新查询
+  //下面三个字段只在synchronized的next里访问
+  private long validFrom = 1;
+  private long validTo;
+  private int offset;
+
+  private CronExpression(String expression, long seconds, long minutes, int hours, long daysOfMonth,
+      int months, int daysOfWeek, boolean domStar, boolean dowStar, ZoneId zone) {
+    this.expression = expression;
+    this.seconds = seconds;
+    this.minutes = minutes;
+    this.hours = hours;
+    this.daysOfMonth = daysOfMonth;
+    this.months = months;
+    this.daysOfWeek = daysOfWeek;
+    this.domStar = domStar;
+    this.dowStar = dowStar;
+    this.zone = zone;
+    this.rules = zone.getRules();
+  }
+
+  public static CronExpression parse(String expression) {
+    return parse(expression, ZoneId.systemDefault());
+  }
+
+  public static CronExpression parse(String expression, ZoneId zone) {
+    String s = expression.trim();
+    switch (s) {
+      case "@yearly":
+      case "@annually":
+        s = "0 0 1 1 *";
+        break;
+      case "@monthly":
+        s = "0 0 1 * *";
+        break;
+      case "@weekly":
+        s = "0 0 * * 0";
+        break;
+      case "@daily":
+      case "@midnight":
+        s = "0 0 * * *";
+        break;
+      case "@hourly":
+        s = "0 * * * *";
+        break;
+      default:
+        break;
+    }
+    String[] fields = s.split("\\s+");
+    if (fields.length == 5) {
+      String[] withSeconds = new String[6];
+      withSeconds[0] = "0";
+      System.arraycopy(fields, 0, withSeconds, 1, 5);
+      fields = withSeconds;
+    } else if (fields.length != 6) {
+      throw new IllegalArgumentException("cron表达式需要5个或6个字段: " + expression);
+    }
+    long sec = parseField(fields[0], 0, 59, null, expression);
+    long min = parseField(fields[1], 0, 59, null, expression);
+    long hour = parseField(fields[2], 0, 23, null, expression);
+    long dom = parseField(fields[3], 1, 31, null, expression);
+    long mon = parseField(fields[4], 1, 12, MONTHS, expression);
+    long dow = parseField(fields[5], 0, 7, DAYS, expression);
+    //7也是周日
+    if ((dow & (1L << 7)) != 0) {
+      dow = (dow | 1) & ~(1L << 7);
+    }
+    return new CronExpression(expression, sec, min, (int) hour, dom, (int) mon, (int) dow,
+        isStar(fields[3]), isStar(fields[5]), zone);
+  }
+
+  private static boolean isStar(String field) {
+    return field.equals("*") || field.equals("?");
+  }
+
+  //把一个字段解析成位图，names是名字的缩写，下标加上min就是对应的值
+  private static long parseField(String field, int min, int max, String[] names, String expression) {
+    long bits = 0;
+    for (String part : field.split(",")) {
+      int step = 1;
+      int slash = part.indexOf('/');
+      if (slash >= 0) {
+        //步长超过字段的范围也只会触发一次，再大就没有意义了，i += step还会溢出
+        step = parseValue(part.substring(slash + 1), 1, max - min + 1, null, expression);
+        part = part.substring(0, slash);
+      }
+      int from;
+      int to;
+      if (part.equals("*") || part.equals("?")) {
+        from = min;
+        to = max;
+      } else {
+        int dash = part.indexOf('-');
+        if (dash >= 0) {
+          from = parseValue(part.substring(0, dash), min, max, names, expression);
+          to = parseValue(part.substring(dash + 1), min, max, names, expression);
+        } else {
+          from = parseValue(part, min, max, names, expression);
+          //"5/15"表示从5开始每15一次
+          to = slash >= 0 ? max : from;
+        }
+      }
+      if (from > to) {
+        throw new IllegalArgumentException("范围不对: " + expression);
+      }
+      for (int i = from; i <= to; i += step) {
+        bits |= 1L << i;
+      }
+    }
+    return bits;
+  }
+
+  private static int parseValue(String value, int min, int max, String[] names, String expression) {
+    if (names != null) {
+      for (int i = 0; i < names.length; i++) {
+        if (names[i].equalsIgnoreCase(value)) {
+          //月份从1开始，星期从0开始
+          return i + (min == 1 ? 1 : 0);
+        }
+      }
+    }
+    int v;
+    try {
+      v = Integer.parseInt(value);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("不支持的值 " + value + ": " + expression);
+    }
+    if (v < min || v > max) {
+      throw new IllegalArgumentException("超出范围的值 " + value + ": " + expression);
+    }
+    return v;
+  }
+
+  //after之后（不包括after）下一次触发的时间，都是epoch毫秒，永远不会再触发返回-1
+  //除了跨过夏令时切换点时查询一次时区规则，不分配内存
+  @Override
+  public synchronized long next(long afterMillis) {
+    long after = Math.floorDiv(afterMillis, 1000);
+    //本地时间，按UTC的方式从1970年开始计算的秒数
+    long local = after + offsetAt(after);
+    long limit = local + MAX_YEARS * 366L * 86400;
+    while (true) {
+      local = nextLocal(local, limit);
+      if (local < 0) {
+        return -1;
+      }
+      long epoch = toEpoch(local, after);
+      if (epoch != Long.MIN_VALUE) {
+        return epoch * 1000;
+      }
+      //这个本地时间不存在或者已经过去了，接着往后找
+    }
+  }
+
+  //local之后（不包括local）第一个满足表达式的本地时间，超过limit返回-1
+  private long nextLocal(long local, long limit) {
+    long t = local + 1;
+    long days = Math.floorDiv(t, 86400);
+    int secOfDay = (int) (t - days * 86400);
+    long ymd = civilFromDays(days);
+    int year = (int) (ymd >> 9);
+    int month = (int) (ymd >> 5) & 0xF;
+    int day = (int) ymd & 0x1F;
+    int hour = secOfDay / 3600;
+    int minute = secOfDay / 60 % 60;
+    int second = secOfDay % 60;
+    int lastYear = year + MAX_YEARS;
+
+    while (year <= lastYear) {
+      //月
+      int m = nextBit(months, month);
+      if (m < 0) {
+        year++;
+        month = 1;
+        day = 1;
+        hour = minute = second = 0;
+        continue;
+      }
+      if (m != month) {
+        month = m;
+        day = 1;
+        hour = minute = second = 0;
+      }
+      //日
+      if (day > daysInMonth(year, month) || !matchDay(year, month, day)) {
+        day++;
+        hour = minute = second = 0;
+        if (day > daysInMonth(year, month)) {
+          day = 1;
+          if (++month > 12) {
+            month = 1;
+            year++;
+          }
+        }
+        continue;
+      }
+      //时
+      int h = nextBit(hours, hour);
+      if (h < 0) {
+        day++;
+        hour = minute = second = 0;
+        continue;
+      }
+      if (h != hour) {
+        hour = h;
+        minute = second = 0;
+      }
+      //分
+      int mi = nextBit(minutes, minute);
+      if (mi < 0) {
+        hour++;
+        minute = second = 0;
+        if (hour > 23) {
+          day++;
+          hour = 0;
+        }
+        continue;
+      }
+      if (mi != minute) {
+        minute = mi;
+        second = 0;
+      }
+      //秒
+      int s = nextBit(seconds, second);
+      if (s < 0) {
+        minute++;
+        second = 0;
+        if (minute > 59) {
+          minute = 0;
+          hour++;
+          if (hour > 23) {
+            day++;
+            hour = 0;
+          }
+        }
+        continue;
+      }
+      long result = daysFromCivil(year, month, day) * 86400 + hour * 3600 + minute * 60 + s;
+      return result <= limit ? result : -1;
+    }
+    return -1;
+  }
+
+  private boolean matchDay(int year, int month, int day) {
+    boolean dom = (daysOfMonth & (1L << day)) != 0;
+    //1970-01-01是周四
+    int dow = (int) Math.floorMod(daysFromCivil(year, month, day) + 4, 7L);
+    boolean dowMatch = (daysOfWeek & (1 << dow)) != 0;
+    if (domStar || dowStar) {
+      return dom && dowMatch;
+    }
+    return dom || dowMatch;
+  }
+
+  //bits里大于等于from的最小的位，没有返回-1
+  private static int nextBit(long bits, int from) {
+    if (from > 63) {
+      return -1;
+    }
+    long m = bits & (-1L << from);
+    return m == 0 ? -1 : Long.numberOfTrailingZeros(m);
+  }
+
+  private static int daysInMonth(int year, int month) {
+    switch (month) {
+      case 2:
+        return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+      case 4:
+      case 6:
+      case 9:
+      case 11:
+        return 30;
+      default:
+        return 31;
+    }
+  }
+
+  //公历日期和1970-01-01之间的天数互相转换（Howard Hinnant的算法），不需要创建LocalDate
+  static long daysFromCivil(int year, int month, int day) {
+    long y = month <= 2 ? year - 1 : year;
+    long era = Math.floorDiv(y, 400);
+    long yoe = y - era * 400;
+    long doy = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+    long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+    return era * 146097 + doe - 719468;
+  }
+
+  //返回值按位打包：年 << 9 | 月 << 5 | 日
+  static long civilFromDays(long days) {
+    long z = days + 719468;
+    long era = Math.floorDiv(z, 146097);
+    long doe = z - era * 146097;
+    long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+    long y = yoe + era * 400;
+    long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+    long mp = (5 * doy + 2) / 153;
+    long d = doy - (153 * mp + 2) / 5 + 1;
+    long m = mp < 10 ? mp + 3 : mp - 9;
+    if (m <= 2) {
+      y++;
+    }
+    return y << 9 | m << 5 | d;
+  }
+
+  //本地时间local对应的、在after之后的最早的时刻，本地时间不存在或者都不在after之后返回Long.MIN_VALUE
+  //夏令时结束时同一个本地时间对应两个时刻，两个偏移都试一下
+  private long toEpoch(long local, long after) {
+    int o1 = offsetAt(local - offset);
+    long e1 = local - o1;
+    boolean valid1 = offsetAt(e1) == o1;
+    int o2 = offsetAt(e1);
+    long e2 = local - o2;
+    boolean valid2 = o2 != o1 && offsetAt(e2) == o2;
+    long best = Long.MIN_VALUE;
+    if (valid1 && e1 > after) {
+      best = e1;
+    }
+    if (valid2 && e2 > after && (best == Long.MIN_VALUE || e2 < best)) {
+      best = e2;
+    }
+    return best;
+  }
+
+  //epoch秒对应的时区偏移，在缓存的区间里直接返回
+  private int offsetAt(long epochSecond) {
+    if (epochSecond >= validFrom && epochSecond < validTo) {
+      return offset;
+    }
+    Instant instant = Instant.ofEpochSecond(epochSecond);
+    offset = rules.getOffset(instant).getTotalSeconds();
+    ZoneOffsetTransition prev = rules.previousTransition(Instant.ofEpochSecond(epochSecond + 1));
+    ZoneOffsetTransition next = rules.nextTransition(instant);
+    validFrom = prev == null ? Long.MIN_VALUE : prev.toEpochSecond();
+    validTo = next == null ? Long.MAX_VALUE : next.toEpochSecond();
+    return offset;
+  }
+
+  public ZoneId getZone() {
+    return zone;
+  }
+
+  @Override
+  public String toString() {
+    return expression;
+  }
+}
@@ -0,0 +1,560 @@
+/*
+ * Copyright 2021 Synopsys Inc. All rights reserved.
+ * This file is confidential material. Unauthorized distribution prohibited.
+ */
+package chapter08.schedule_pool;
+
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+//按cron表达式（或者固定频率）重复执行任务的调度器
+//所有任务放在一个按下一次触发时间排序的最小堆里，一个调度线程等堆顶的任务到期，
+//到期之后算出它的下一次触发时间，在堆里原地下沉，交给executor执行。
+//堆是两个数组，任务记着自己在堆里的下标，所以触发和取消都是O(log n)，触发的时候不分配内存
+//
+//时间用单调时钟（System.nanoTime）推算：启动时把单调时钟和系统时间对齐，之后的"现在"都由单调时钟算出来，
+//每次等待都按绝对的触发时间重新计算，不会累积误差；系统时间被大幅调整（超过CLOCK_STEP_MILLIS）时重新对齐，
+//这样cron任务还是跟着墙上时间走
+//比触发时间晚了超过misfireThreshold算作错过，按任务的MisfirePolicy处理
+//
+//带名字注册的任务会写进ScheduleJournal，重启之后用restore按名字把任务找回来，
+//下一次触发时间从日志里记的时间点算起，停机期间错过的触发同样按MisfirePolicy处理
+//写日志都在释放lock之后，日志压缩在单独的线程里做，schedule、cancel和调度线程不会因为日志的IO互相挡住
+public class CronScheduler {
+
+  //系统时间和单调时钟推算的时间相差超过这个值，就认为系统时间被调整了
+  private static final long CLOCK_STEP_MILLIS = 1000;
+
+  //调度的任务，可以用来取消和查看延迟统计
+  public static final class Job {
+
+    private final CronScheduler scheduler;
+    private final String name;
+    private final Trigger trigger;
+    private final Runnable task;
+    private final MisfirePolicy misfirePolicy;
+
+    //下一次触发的时间，epoch毫秒，只在持有lock的时候访问
+    private long nextFire;
+
+    //在堆里的下标，不在堆里是-1
+    private int index = -1;
+
+    //CATCH_UP已经连续补了几次
+    private int burst;
+
+    //在日志里的id，0表示没有持久化
+    private long journalId;
+
+    //延迟统计，只有调度线程修改，其他线程随时可以读
+    private volatile long fireCount;
+    private volatile long misfireCount;
+    private volatile long lastLateness;
+    private volatile long maxLateness;
+    private volatile long totalLateness;
+
+    Job(CronScheduler scheduler, String name, Trigger trigger, Runnable task, MisfirePolicy misfirePolicy) {
+      this.scheduler = scheduler;
+      this.name = name;
+      this.trigger = trigger;
+      this.task = task;
+      this.misfirePolicy = misfirePolicy;
+    }
+
+    //取消成功返回true，已经取消过返回false
+    public boolean cancel() {
+      return scheduler.remove(this);
+    }
+
+    //没有持久化的任务返回null
+    public String getName() {
+      return name;
+    }
+
+    public Trigger getTrigger() {
+      return trigger;
+    }
+
+    //交给executor执行的次数
+    public long getFireCount() {
+      return fireCount;
+    }
+
+    //错过触发时间的次数
+    public long getMisfireCount() {
+      return misfireCount;
+    }
+
+    //最近一次交给executor的时间比计划晚了多少毫秒
+    public long getLastLateness() {
+      return lastLateness;
+    }
+
+    public long getMaxLateness() {
+      return maxLateness;
+    }
+
+    public double getMeanLateness() {
+      long n = fireCount;
+      return n == 0 ? 0 : (double) totalLateness / n;
+    }
+
+    //只在调度线程里调用
+    private void recordFire(long lateness) {
+      lastLateness = lateness;
+      if (lateness > maxLateness) {
+        maxLateness = lateness;
+      }
+      totalLateness += lateness;
+      fireCount++;
+    }
+
+    @Override
+    public String toString() {
+      return name == null ? "Job[" + trigger + "]" : "Job[" + name + ", " + trigger + "]";
+    }
+  }
+
+  private final Executor executor;
+
+  //为null的话不持久化
+  private final ScheduleJournal journal;
+
+  private boolean restored;
+
+  //保护堆和时钟
+  private final ReentrantLock lock = new ReentrantLock();
+
+  //堆顶变了或者有新任务的时候唤醒调度线程
+  private final Condition available = lock.newCondition();
+
+  //最小堆，nextFire和jobs下标一一对应，比较的时候只读long数组
+  private long[] nextFire = new long[16];
+  private Job[] jobs = new Job[16];
+  private int size;
+
+  //单调时钟和系统时间的对齐点
+  private long anchorMillis = System.currentTimeMillis();
+  private long anchorNanos = System.nanoTime();
+
+  private long misfireThreshold = 1000;
+
+  private final Thread timerThread;
+
+  //是不是已经有压缩日志的线程在运行了
+  private final AtomicBoolean compacting = new AtomicBoolean();
+
+  //fire算出来要写进日志的内容，只有调度线程访问，释放lock之后再写
+  private long firedFrom;
+  private boolean firedLast;
+
+  private volatile boolean stopped;
+
+  public CronScheduler(Executor executor) {
+    this(executor, null);
+  }
+
+  //journal由调用者打开和关闭，stop之后再关闭
+  public CronScheduler(Executor executor, ScheduleJournal journal) {
+    if (executor == null) {
+      throw new NullPointerException();
+    }
+    this.executor = executor;
+    this.journal = journal;
+    this.timerThread = new Thread(this::run, "cron-scheduler");
+    timerThread.start();
+  }
+
+  //比计划时间晚了超过threshold才算错过，默认1秒
+  public void setMisfireThreshold(long threshold, TimeUnit unit) {
+    if (threshold < 0) {
+      throw new IllegalArgumentException();
+    }
+    lock.lock();
+    try {
+      this.misfireThreshold = unit.toMillis(threshold);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public Job schedule(String cron, Runnable task) {
+    return schedule(CronExpression.parse(cron), task, MisfirePolicy.COALESCE);
+  }
+
+  //错过的触发默认合并成一次
+  public Job schedule(Trigger trigger, Runnable task) {
+    return schedule(trigger, task, MisfirePolicy.COALESCE);
+  }
+
+  //固定频率执行，下一次的时间按计划的时间点计算，不受执行耗时影响
+  public Job scheduleAtFixedRate(Runnable task, long initialDelay, long period, TimeUnit unit,
+      MisfirePolicy misfirePolicy) {
+    lock.lock();
+    try {
+      long anchor = now() + unit.toMillis(initialDelay);
+      return schedule(Trigger.fixedRate(anchor, unit.toMillis(period)), task, misfirePolicy);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  //规则永远不会触发的话抛出IllegalArgumentException
+  public Job schedule(Trigger trigger, Runnable task, MisfirePolicy misfirePolicy) {
+    return schedule(null, trigger, task, misfirePolicy);
+  }
+
+  //name不为null的话写进日志，重启之后restore靠name找回task，
+  //这时trigger只能是CronExpression或者Trigger.fixedRate
+  public Job schedule(String name, Trigger trigger, Runnable task, MisfirePolicy misfirePolicy) {
+    if (trigger == null || task == null || misfirePolicy == null) {
+      throw new NullPointerException();
+    }
+    if (name != null && journal == null) {
+      throw new IllegalStateException("没有设置ScheduleJournal");
+    }
+    Job job = new Job(this, name, trigger, task, misfirePolicy);
+    long from;
+    long first;
+    lock.lock();
+    try {
+      if (stopped) {
+        throw new IllegalStateException("调度器已经停止");
+      }
+      //减1是为了让正好在现在的时间点也算进来，比如initialDelay为0的固定频率任务
+      from = now() - 1;
+      first = trigger.next(from);
+      if (first < 0) {
+        throw new IllegalArgumentException("永远不会触发: " + trigger);
+      }
+      if (name == null) {
+        add(job, first);
+        return job;
+      }
+    } finally {
+      lock.unlock();
+    }
+    //不持有lock写日志，这时任务还不在堆里，不会被触发
+    job.journalId = journal.register(name, trigger, misfirePolicy, from);
+    lock.lock();
+    try {
+      if (!stopped) {
+        add(job, first);
+        return job;
+      }
+    } finally {
+      lock.unlock();
+    }
+    //写日志的时候调度器停止了，调用者拿不到这个任务，日志里也不能留着它
+    journal.cancelled(job.journalId);
+    throw new IllegalStateException("调度器已经停止");
+  }
+
+  //把日志里的任务重新放进调度器，tasks按任务名返回要执行的Runnable，返回null的任务留在日志里不调度
+  //下一次触发时间从日志里记的时间点算起，停机期间错过的触发会马上按MisfirePolicy处理
+  //只能调用一次，返回恢复的任务
+  public List<Job> restore(Function<String, Runnable> tasks) {
+    if (journal == null) {
+      throw new IllegalStateException("没有设置ScheduleJournal");
+    }
+    List<ScheduleJournal.Registration> registrations = journal.recovered();
+    List<Job> restoredJobs = new ArrayList<>(registrations.size());
+    //已经不会再触发的任务，释放lock之后从日志里删掉
+    List<Long> finished = new ArrayList<>();
+    lock.lock();
+    try {
+      if (stopped) {
+        throw new IllegalStateException("调度器已经停止");
+      }
+      if (restored) {
+        throw new IllegalStateException("已经恢复过了");
+      }
+      restored = true;
+      for (ScheduleJournal.Registration r : registrations) {
+        Runnable task = tasks.apply(r.getName());
+        if (task == null) {
+          continue;
+        }
+        long next = r.getTrigger().next(r.getLastFired());
+        if (next < 0) {
+          //规则已经不会再触发了
+          finished.add(r.getId());
+          continue;
+        }
+        Job job = new Job(this, r.getName(), r.getTrigger(), task, r.getMisfirePolicy());
+        job.journalId = r.getId();
+        job.nextFire = next;
+        offer(job);
+        restoredJobs.add(job);
+      }
+      available.signal();
+    } finally {
+      lock.unlock();
+    }
+    for (long id : finished) {
+      journal.cancelled(id);
+    }
+    return restoredJobs;
+  }
+
+  private boolean remove(Job job) {
+    lock.lock();
+    try {
+      if (job.index < 0) {
+        return false;
+      }
+      boolean wasHead = job.index == 0;
+      removeAt(job.index);
+      if (wasHead) {
+        available.signal();
+      }
+    } finally {
+      lock.unlock();
+    }
+    //和调度线程写的FIRED谁先谁后都可以，恢复的时候CANCEL之后的FIRED会被忽略
+    if (job.journalId != 0) {
+      journal.cancelled(job.journalId);
+    }
+    return true;
+  }
+
+  public int size() {
+    lock.lock();
+    try {
+      return size;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  //停止调度线程，已经交给executor的任务不受影响，日志里的任务下次restore的时候还在
+  //等调度线程退出再返回，之后调度线程不会再写日志，可以关闭journal；正在进行的压缩由journal.close等它结束
+  public void stop() {
+    lock.lock();
+    try {
+      stopped = true;
+      available.signal();
+    } finally {
+      lock.unlock();
+    }
+    //在调度线程上执行的任务（比如executor让调用者自己执行）调用stop的话不能等自己
+    if (Thread.currentThread() != timerThread) {
+      try {
+        timerThread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  //用单调时钟推算的当前时间，epoch毫秒，需要持有lock
+  private long now() {
+    long nanos = System.nanoTime();
+    long estimated = anchorMillis + (nanos - anchorNanos) / 1_000_000;
+    long wall = System.currentTimeMillis();
+    if (Math.abs(wall - estimated) > CLOCK_STEP_MILLIS) {
+      //系统时间被调整了，重新对齐
+      anchorMillis = wall;
+      anchorNanos = nanos;
+      return wall;
+    }
+    return estimated;
+  }
+
+  private void run() {
+    while (true) {
+      Runnable task;
+      long journalId;
+      lock.lock();
+      try {
+        long now;
+        while (true) {
+          if (stopped) {
+            return;
+          }
+          if (size == 0) {
+            available.awaitUninterruptibly();
+            continue;
+          }
+          now = now();
+          long delay = nextFire[0] - now;
+          if (delay <= 0) {
+            break;
+          }
+          //按绝对的触发时间算出这次要等多久，醒早了或者醒晚了下一轮会重新算
+          try {
+            available.awaitNanos(TimeUnit.MILLISECONDS.toNanos(delay));
+          } catch (InterruptedException e) {
+            e.printStackTrace();
+          }
+        }
+        Job job = jobs[0];
+        journalId = job.journalId;
+        task = fire(job, nextFire[0], now) ? job.task : null;
+      } finally {
+        lock.unlock();
+      }
+      if (journalId != 0) {
+        journal(journalId);
+      }
+      //不持有锁执行，executor阻塞也不会挡住schedule和cancel
+      if (task != null) {
+        try {
+          executor.execute(task);
+        } catch (RuntimeException e) {
+          e.printStackTrace();
+        }
+      }
+    }
+  }
+
+  //处理堆顶到期的任务：按MisfirePolicy算出下一次触发时间，原地下沉，返回这次要不要执行
+  private boolean fire(Job job, long scheduled, long now) {
+    long lateness = now - scheduled;
+    boolean execute = true;
+    //下一次触发时间从这个时间点算起，持久化的任务把它写进日志
+    long from = scheduled;
+    if (lateness > misfireThreshold) {
+      job.misfireCount++;
+      MisfirePolicy policy = job.misfirePolicy;
+      //CATCH_UP还能接着补的话，下一次还是按原来的时间点
+      if (policy.kind != MisfirePolicy.Kind.CATCH_UP || ++job.burst >= policy.maxBurst) {
+        //SKIP不执行这一次；COALESCE和补够了次数的CATCH_UP执行这一次，之后的都合并掉
+        execute = policy.kind != MisfirePolicy.Kind.SKIP;
+        job.burst = 0;
+        from = now;
+      }
+    } else {
+      job.burst = 0;
+    }
+    long next = job.trigger.next(from);
+    if (execute) {
+      job.recordFire(lateness);
+    }
+    firedFrom = from;
+    firedLast = next < 0;
+    if (next < 0) {
+      removeAt(0);
+    } else {
+      job.nextFire = next;
+      nextFire[0] = next;
+      siftDown(0);
+    }
+    return execute;
+  }
+
+  //把fire的结果写进日志，不持有lock，只在调度线程里调用
+  private void journal(long journalId) {
+    try {
+      if (firedLast) {
+        journal.cancelled(journalId);
+      } else {
+        journal.fired(journalId, firedFrom);
+      }
+    } catch (UncheckedIOException e) {
+      //写日志失败不能影响调度
+      e.printStackTrace();
+      return;
+    }
+    //压缩要扫两遍整个日志，一百万个任务的时候要零点几秒，放在单独的线程里做，同一时间只有一个
+    if (journal.needsCompaction() && compacting.compareAndSet(false, true)) {
+      Thread compactor = new Thread(() -> {
+        try {
+          journal.maybeCompact();
+        } catch (UncheckedIOException e) {
+          e.printStackTrace();
+        } finally {
+          compacting.set(false);
+        }
+      }, "journal-compact");
+      compactor.setDaemon(true);
+      compactor.start();
+    }
+  }
+
+  //下面的方法都需要持有lock
+
+  private void add(Job job, long first) {
+    job.nextFire = first;
+    offer(job);
+    if (job.index == 0) {
+      available.signal();
+    }
+  }
+
+  private void offer(Job job) {
+    if (size == nextFire.length) {
+      int capacity = size * 2;
+      long[] f = new long[capacity];
+      Job[] j = new Job[capacity];
+      System.arraycopy(nextFire, 0, f, 0, size);
+      System.arraycopy(jobs, 0, j, 0, size);
+      nextFire = f;
+      jobs = j;
+    }
+    set(size, job.nextFire, job);
+    siftUp(size++);
+  }
+
+  private void removeAt(int i) {
+    Job removed = jobs[i];
+    int last = --size;
+    if (i != last) {
+      //把最后一个放到空出来的位置上，先试着下沉，没动的话再试着上浮
+      Job moved = jobs[last];
+      set(i, nextFire[last], moved);
+      siftDown(i);
+      if (jobs[i] == moved) {
+        siftUp(i);
+      }
+    }
+    jobs[last] = null;
+    removed.index = -1;
+  }
+
+  private void set(int i, long fire, Job job) {
+    nextFire[i] = fire;
+    jobs[i] = job;
+    job.index = i;
+  }
+
+  private void siftUp(int i) {
+    long fire = nextFire[i];
+    Job job = jobs[i];
+    while (i > 0) {
+      int parent = (i - 1) >>> 1;
+      if (nextFire[parent] <= fire) {
+        break;
+      }
+      set(i, nextFire[parent], jobs[parent]);
+      i = parent;
+    }
+    set(i, fire, job);
+  }
+
+  private void siftDown(int i) {
+    long fire = nextFire[i];
+    Job job = jobs[i];
+    int half = size >>> 1;
+    while (i < half) {
+      int child = 2 * i + 1;
+      int right = child + 1;
+      if (right < size && nextFire[right] < nextFire[child]) {
+        child = right;
+      }
+      if (fire <= nextFire[child]) {
+        break;
+      }
+      set(i, nextFire[child], jobs[child]);
+      i = child;
+    }
+    set(i, fire, job);
+  }
+}
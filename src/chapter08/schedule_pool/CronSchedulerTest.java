@@ -0,0 +1,79 @@
+/*
+ * Copyright 2021 Synopsys Inc. All rights reserved.
+ * This file is confidential material. Unauthorized distribution prohibited.
+ */
+package chapter08.schedule_pool;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+//一个调度线程驱动十万个按cron表达式重复执行的任务，以及错过触发时间之后的几种处理方式
+public class CronSchedulerTest {
+
+  public static void main(String[] args) throws InterruptedException {
+    //每周四18:00:00，按本地时间计算，夏令时切换前后都是18:00
+    CronExpression thursday = CronExpression.parse("0 0 18 * * THU", ZoneId.of("America/New_York"));
+    long t = System.currentTimeMillis();
+    for (int i = 0; i < 3; i++) {
+      t = thursday.next(t);
+      System.out.println("周四的任务 " + Instant.ofEpochMilli(t).atZone(ZoneId.of("America/New_York")));
+    }
+
+    ExecutorService workers = Executors.newFixedThreadPool(2);
+    CronScheduler scheduler = new CronScheduler(workers);
+    LongAdder fired = new LongAdder();
+    int jobs = 100_000;
+    long start = System.nanoTime();
+    for (int i = 0; i < jobs; i++) {
+      //每个任务每分钟触发一次，均匀分布在60秒里
+      scheduler.schedule((i % 60) + " * * * * *", fired::increment);
+    }
+    System.out.println("注册 " + jobs + " 个任务用时 " + (System.nanoTime() - start) / 1_000_000 + "ms");
+
+    Thread.sleep(5000);
+    System.out.println("5秒内触发了 " + fired.sum() + " 次，大约是 " + jobs / 60 * 5);
+
+    scheduler.stop();
+    workers.shutdown();
+
+    //任务直接在调度线程里执行（和newScheduledThreadPool(1)一样），第3次执行卡住1秒，看看之后会连续补多少次
+    MisfirePolicy[] policies = {MisfirePolicy.catchUp(Integer.MAX_VALUE), MisfirePolicy.catchUp(3),
+        MisfirePolicy.COALESCE, MisfirePolicy.SKIP};
+    for (MisfirePolicy policy : policies) {
+      CronScheduler single = new CronScheduler(Runnable::run);
+      single.setMisfireThreshold(50, TimeUnit.MILLISECONDS);
+      AtomicInteger runs = new AtomicInteger();
+      //卡住之后50毫秒内连续执行的次数
+      AtomicInteger burst = new AtomicInteger();
+      long[] resumed = new long[1];
+      CronScheduler.Job job = single.scheduleAtFixedRate(() -> {
+        int n = runs.incrementAndGet();
+        if (n == 3) {
+          sleep(1000);
+          resumed[0] = System.nanoTime();
+        } else if (resumed[0] != 0 && System.nanoTime() - resumed[0] < 50_000_000) {
+          burst.incrementAndGet();
+        }
+      }, 0, 100, TimeUnit.MILLISECONDS, policy);
+      Thread.sleep(2000);
+      single.stop();
+      System.out.println(policy + " 卡住之后马上执行了 " + burst.get() + " 次"
+          + "，一共执行 " + job.getFireCount() + " 次，错过 " + job.getMisfireCount() + " 次"
+          + "，最大延迟 " + job.getMaxLateness() + "ms，平均延迟 "
+          + String.format("%.1f", job.getMeanLateness()) + "ms");
+    }
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      e.printStackTrace();
+    }
+  }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2021 Synopsys Inc. All rights reserved.
+ * This file is confidential material. Unauthorized distribution prohibited.
+ */
+package chapter08.schedule_pool;
+
+//错过触发时间（调度线程被卡住、任务执行超时、JVM停顿）之后怎么处理
+//ScheduledThreadPoolExecutor的scheduleAtFixedRate会把错过的每一次都补上，连续执行一串，把单个调度线程占满
+public final class MisfirePolicy {
+
+  enum Kind {
+    COALESCE, SKIP, CATCH_UP
+  }
+
+  //错过的几次合并成一次，马上执行一次，然后从现在之后的下一个时间点继续
+  public static final MisfirePolicy COALESCE = new MisfirePolicy(Kind.COALESCE, 0);
+
+  //错过的都不执行，直接从现在之后的下一个时间点继续
+  public static final MisfirePolicy SKIP = new MisfirePolicy(Kind.SKIP, 0);
+
+  final Kind kind;
+
+  //CATCH_UP最多连续补几次
+  final int maxBurst;
+
+  private MisfirePolicy(Kind kind, int maxBurst) {
+    this.kind = kind;
+    this.maxBurst = maxBurst;
+  }
+
+  //按原来的时间点一次一次补上，但最多连续补maxBurst次，剩下的合并掉
+  public static MisfirePolicy catchUp(int maxBurst) {
+    if (maxBurst <= 0) {
+      throw new IllegalArgumentException();
+    }
+    return new MisfirePolicy(Kind.CATCH_UP, maxBurst);
+  }
+
+  //ScheduleJournal恢复的时候用
+  static MisfirePolicy of(Kind kind, int maxBurst) {
+    switch (kind) {
+      case COALESCE:
+        return COALESCE;
+      case SKIP:
+        return SKIP;
+      default:
+        return catchUp(maxBurst);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return kind == Kind.CATCH_UP ? "CATCH_UP(" + maxBurst + ")" : kind.name();
+  }
+}
@@ -0,0 +1,623 @@
+/*
+ * Copyright 2021 Synopsys Inc. All rights reserved.
+ * This file is confidential material. Unauthorized distribution prohibited.
+ */
+package chapter08.schedule_pool;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+//调度任务的持久化日志，重启之后不用重新注册，停机期间错过的触发也能按MisfirePolicy补上
+//
+//文件只追加，按CHUNK大小一段一段地映射到内存（MappedByteBuffer），写记录就是往映射的内存里put，不经过系统调用。
+//每条记录是：长度(int) + 类型(byte) + 任务id(long) + 内容
+//  REGISTER：lastFired、MisfirePolicy、触发规则（cron表达式+时区，或者固定频率的anchor+period）、任务名
+//  FIRED：这次触发之后用来计算下一次触发时间的那个时间点
+//  CANCEL：没有内容
+//长度最后写，映射出来的新内存都是0，所以读到长度为0就是日志的结尾，写了一半进程就挂了的记录不会被读到；
+//一段的剩余空间放不下一条记录的时候写一个-1，读的时候跳到下一段
+//
+//启动时从头到尾顺序扫一遍就能恢复所有任务和它们最后一次触发的时间。
+//FIRED记录会一直增长，记录数超过存活任务数的COMPACT_RATIO倍时压缩：
+//顺序扫两遍旧文件，把存活任务的REGISTER记录（带上最新的lastFired）写到新文件，再原子地替换掉旧文件。
+//压缩的时候只有开始和最后替换文件的时候拿一下锁，中间扫描和写新文件的时候其他线程照样可以写记录，
+//这期间追加的记录在替换之前原样复制到新文件后面
+//
+//线程安全，写一条记录只是在锁里往映射的内存put几个字段
+public class ScheduleJournal implements Closeable {
+
+  private static final int MAGIC = 0x5343484A;
+  private static final int VERSION = 1;
+
+  private static final int CHUNK = 16 << 20;
+
+  //一段剩下的空间不够写记录时的标记
+  private static final int SKIP = -1;
+
+  private static final byte REGISTER = 1;
+  private static final byte FIRED = 2;
+  private static final byte CANCEL = 3;
+
+  private static final byte CRON = 1;
+  private static final byte FIXED_RATE = 2;
+
+  //记录数超过存活任务数的这么多倍就压缩
+  private static final int COMPACT_RATIO = 4;
+
+  //记录太少的时候不值得压缩
+  private static final long COMPACT_MIN_RECORDS = 1 << 16;
+
+  //日志里保存的一个任务，lastFired是下一次触发时间的计算起点
+  public static final class Registration {
+
+    private final long id;
+    private final String name;
+    private final Trigger trigger;
+    private final MisfirePolicy misfirePolicy;
+    private long lastFired;
+
+    Registration(long id, String name, Trigger trigger, MisfirePolicy misfirePolicy, long lastFired) {
+      this.id = id;
+      this.name = name;
+      this.trigger = trigger;
+      this.misfirePolicy = misfirePolicy;
+      this.lastFired = lastFired;
+    }
+
+    public long getId() {
+      return id;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public Trigger getTrigger() {
+      return trigger;
+    }
+
+    public MisfirePolicy getMisfirePolicy() {
+      return misfirePolicy;
+    }
+
+    public long getLastFired() {
+      return lastFired;
+    }
+
+    @Override
+    public String toString() {
+      return "Registration[" + id + ", " + name + ", " + trigger + "]";
+    }
+  }
+
+  private final Path path;
+
+  //保护下面的字段，压缩的时候只在开始和结束时持有
+  private final ReentrantLock lock = new ReentrantLock();
+
+  //close等正在进行的压缩结束
+  private final Condition compactDone = lock.newCondition();
+
+  //当前的日志文件
+  private Appender out;
+
+  private long nextId = 1;
+  private long liveCount;
+
+  private boolean compacting;
+  private boolean closed;
+
+  //打开时从文件里恢复出来的任务，按注册顺序
+  private final List<Registration> recovered;
+
+  //文件不存在就新建一个
+  public ScheduleJournal(Path path) throws IOException {
+    this.path = path;
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+        StandardOpenOption.WRITE);
+    if (channel.size() == 0) {
+      recovered = Collections.emptyList();
+      out = new Appender(channel, 0);
+    } else {
+      recovered = replay(channel);
+    }
+  }
+
+  //打开时恢复出来的任务
+  public List<Registration> recovered() {
+    return recovered;
+  }
+
+  //存活的任务数
+  public long size() {
+    lock.lock();
+    try {
+      return liveCount;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  //登记一个新任务，返回它的id
+  public long register(String name, Trigger trigger, MisfirePolicy misfirePolicy, long lastFired) {
+    byte[] nameBytes = checkLength(name.getBytes(StandardCharsets.UTF_8), "任务名");
+    byte[] zone = null;
+    byte[] expression = null;
+    int size = 1 + 8 + 8 + 1 + 4 + 1 + 2 + nameBytes.length;
+    if (trigger instanceof CronExpression) {
+      CronExpression cron = (CronExpression) trigger;
+      zone = checkLength(cron.getZone().getId().getBytes(StandardCharsets.UTF_8), "时区");
+      expression = checkLength(cron.toString().getBytes(StandardCharsets.UTF_8), "cron表达式");
+      size += 2 + zone.length + 2 + expression.length;
+    } else if (trigger instanceof Trigger.FixedRate) {
+      size += 16;
+    } else {
+      throw new IllegalArgumentException("只能持久化cron表达式和固定频率的触发规则: " + trigger);
+    }
+    lock.lock();
+    try {
+      long id = nextId++;
+      ByteBuffer b = out.begin(size);
+      b.put(REGISTER).putLong(id).putLong(lastFired);
+      b.put((byte) misfirePolicy.kind.ordinal()).putInt(misfirePolicy.maxBurst);
+      if (zone != null) {
+        b.put(CRON);
+        putBytes(b, zone);
+        putBytes(b, expression);
+      } else {
+        Trigger.FixedRate rate = (Trigger.FixedRate) trigger;
+        b.put(FIXED_RATE).putLong(rate.getAnchor()).putLong(rate.getPeriod());
+      }
+      putBytes(b, nameBytes);
+      out.commit();
+      liveCount++;
+      return id;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  //记下任务id下一次触发时间的计算起点
+  public void fired(long id, long lastFired) {
+    lock.lock();
+    try {
+      out.begin(1 + 8 + 8).put(FIRED).putLong(id).putLong(lastFired);
+      out.commit();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public void cancelled(long id) {
+    lock.lock();
+    try {
+      out.begin(1 + 8).put(CANCEL).putLong(id);
+      out.commit();
+      liveCount--;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  //记录数是不是已经多到需要压缩了，CronScheduler用它决定要不要启动压缩线程
+  boolean needsCompaction() {
+    lock.lock();
+    try {
+      return !compacting && !closed && out.records >= COMPACT_MIN_RECORDS
+          && out.records >= liveCount * COMPACT_RATIO;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  //记录数太多的话压缩，返回是否压缩了；已经有别的线程在压缩的话直接返回false
+  //要扫两遍整个文件，一百万个任务的时候要零点几秒，最好不要在等着调度的线程里调用
+  public boolean maybeCompact() {
+    FileChannel old;
+    long end;
+    long live;
+    lock.lock();
+    try {
+      if (!needsCompaction()) {
+        return false;
+      }
+      compacting = true;
+      //扫描只读到这里，之后追加的记录在替换文件的时候再复制
+      out.force();
+      old = out.channel;
+      end = out.position();
+      live = liveCount;
+    } finally {
+      lock.unlock();
+    }
+    try {
+      compact(old, end, live);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      lock.lock();
+      try {
+        compacting = false;
+        compactDone.signalAll();
+      } finally {
+        lock.unlock();
+      }
+    }
+    return true;
+  }
+
+  //写到内存里的记录只要进程退出就会由操作系统写回文件，机器掉电也不丢的话需要调用sync
+  public void sync() {
+    lock.lock();
+    try {
+      out.force();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  //正在压缩的话等它结束
+  @Override
+  public void close() throws IOException {
+    lock.lock();
+    try {
+      closed = true;
+      while (compacting) {
+        compactDone.awaitUninterruptibly();
+      }
+      out.close();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  //启动时顺序扫一遍，恢复所有存活的任务
+  private List<Registration> replay(FileChannel channel) throws IOException {
+    //按注册顺序恢复，压缩之后也还是这个顺序
+    Map<Long, Registration> live = new LinkedHashMap<>();
+    //同一个表达式只解析一次，很多任务用的是同一个cron
+    //直接用日志里时区和表达式的原始字节查，命中的话不用解码字符串
+    Map<ByteBuffer, CronExpression> crons = new HashMap<>();
+    long[] records = new long[1];
+    long end = scan(channel, 0, channel.size(), (type, id, b, offset, length) -> {
+      records[0]++;
+      switch (type) {
+        case REGISTER:
+          live.put(id, readRegistration(id, b, crons));
+          nextId = Math.max(nextId, id + 1);
+          break;
+        case FIRED:
+          Registration r = live.get(id);
+          if (r != null) {
+            r.lastFired = b.getLong();
+          }
+          break;
+        case CANCEL:
+          live.remove(id);
+          break;
+        default:
+          throw new IOException("不认识的记录类型 " + type + "，位置 " + offset);
+      }
+    });
+    liveCount = live.size();
+    out = new Appender(channel, end);
+    out.records = records[0];
+    return new ArrayList<>(live.values());
+  }
+
+  private static Registration readRegistration(long id, ByteBuffer b, Map<ByteBuffer, CronExpression> crons) {
+    long lastFired = b.getLong();
+    MisfirePolicy.Kind kind = MisfirePolicy.Kind.values()[b.get()];
+    MisfirePolicy misfirePolicy = MisfirePolicy.of(kind, b.getInt());
+    Trigger trigger;
+    if (b.get() == CRON) {
+      int start = b.position();
+      int zoneLength = b.getShort(start) & 0xFFFF;
+      int length = 2 + zoneLength + 2 + (b.getShort(start + 2 + zoneLength) & 0xFFFF);
+      //ByteBuffer按内容比较
+      ByteBuffer key = b.slice(start, length);
+      CronExpression cron = crons.get(key);
+      if (cron == null) {
+        String zone = getString(b);
+        cron = CronExpression.parse(getString(b), ZoneId.of(zone));
+        crons.put(ByteBuffer.allocate(length).put(key).flip(), cron);
+      } else {
+        b.position(start + length);
+      }
+      trigger = cron;
+    } else {
+      trigger = Trigger.fixedRate(b.getLong(), b.getLong());
+    }
+    return new Registration(id, getString(b), trigger, misfirePolicy, lastFired);
+  }
+
+  //压缩：第一遍找出存活的任务，记下它们REGISTER记录的位置和最新的lastFired，
+  //第二遍把这些REGISTER记录复制到新文件，换上新的lastFired，这两遍都只读旧文件[0, end)，不持有锁；
+  //最后拿着锁把end之后新追加的记录原样复制过去，替换掉旧文件
+  private void compact(FileChannel old, long end, long live) throws IOException {
+    LiveTable table = new LiveTable((int) Math.min(live * 2 + 16, Integer.MAX_VALUE / 2));
+    scan(old, 0, end, (type, id, b, offset, length) -> {
+      if (type == REGISTER) {
+        table.put(id, offset, b.getLong());
+      } else if (type == FIRED) {
+        table.fired(id, b.getLong());
+      } else {
+        table.remove(id);
+      }
+    });
+
+    Path tmp = path.resolveSibling(path.getFileName() + ".compact");
+    Appender fresh = new Appender(FileChannel.open(tmp, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE), 0);
+    try {
+      scan(old, 0, end, (type, id, b, offset, length) -> {
+        int slot;
+        if (type != REGISTER || (slot = table.find(id)) < 0 || table.offsets[slot] != offset) {
+          return;
+        }
+        //跳过旧的lastFired，后面的内容原样复制
+        int rest = length - 17;
+        ByteBuffer t = fresh.begin(length);
+        t.put(REGISTER).putLong(id).putLong(table.lastFired[slot]);
+        t.put(t.position(), b, b.position() + 8, rest);
+        t.position(t.position() + rest);
+        fresh.commit();
+      });
+      lock.lock();
+      try {
+        out.force();
+        //压缩期间追加的记录，回放的时候按顺序作用在上面的快照上
+        scan(old, end, out.position(), (type, id, b, offset, length) -> {
+          ByteBuffer t = fresh.begin(length);
+          t.put(type).putLong(id);
+          t.put(t.position(), b, b.position(), length - 9);
+          t.position(t.position() + length - 9);
+          fresh.commit();
+        });
+        fresh.force();
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        out = fresh;
+      } finally {
+        lock.unlock();
+      }
+    } catch (IOException | RuntimeException e) {
+      //压缩失败的话接着用旧文件
+      fresh.channel.close();
+      throw e;
+    }
+    //旧文件已经被替换掉了，映射的内存等GC回收
+    old.close();
+  }
+
+  private interface Visitor {
+    //b的位置在任务id之后，length是类型、id和内容的总长度，offset是记录在文件里的位置
+    void visit(byte type, long id, ByteBuffer b, long offset, int length) throws IOException;
+  }
+
+  //从from开始顺序扫描日志直到to，from和to都要在记录的边界上，返回日志结尾在文件里的位置
+  private static long scan(FileChannel channel, long from, long to, Visitor visitor) throws IOException {
+    for (long start = from - from % CHUNK; start < to; start += CHUNK) {
+      MappedByteBuffer b = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK, to - start));
+      if (start < from) {
+        b.position((int) (from - start));
+      } else if (start == 0) {
+        if (b.getInt() != MAGIC || b.getInt() != VERSION) {
+          throw new IOException("不是调度日志文件");
+        }
+      }
+      while (b.remaining() >= 4) {
+        int pos = b.position();
+        int length = b.getInt();
+        if (length == SKIP) {
+          break;
+        }
+        //0是日志结尾；长度不对的话只可能是文件被截断了，也当作结尾
+        if (length < 9 || length > b.remaining()) {
+          return start + pos;
+        }
+        int next = pos + 4 + length;
+        visitor.visit(b.get(), b.getLong(), b, start + pos, length);
+        b.position(next);
+      }
+    }
+    return to;
+  }
+
+  //往一个日志文件后面追加记录，访问需要持有lock，压缩时正在写的新文件只由压缩线程访问
+  private static final class Appender {
+
+    final FileChannel channel;
+
+    //当前正在写的一段
+    private MappedByteBuffer tail;
+    private long tailStart;
+
+    //正在写的记录在tail里的起点
+    private int recordStart;
+
+    //文件里的记录数
+    long records;
+
+    //从文件的end位置接着写，end为0的话先写文件头
+    Appender(FileChannel channel, long end) throws IOException {
+      this.channel = channel;
+      mapTail(end - end % CHUNK);
+      if (end == 0) {
+        tail.putInt(MAGIC).putInt(VERSION);
+      } else {
+        tail.position((int) (end % CHUNK));
+      }
+    }
+
+    //预留一条记录的空间，返回的buffer已经跳过了长度字段
+    ByteBuffer begin(int size) {
+      //后面至少还要留4个字节写下一条记录的长度或者SKIP
+      if (tail.remaining() < 4 + size + 4) {
+        tail.putInt(tail.position(), SKIP);
+        try {
+          mapTail(tailStart + CHUNK);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+      recordStart = tail.position();
+      tail.position(recordStart + 4);
+      return tail;
+    }
+
+    //最后才写长度，这之前读的人看到的还是0
+    void commit() {
+      tail.putInt(recordStart, tail.position() - recordStart - 4);
+      records++;
+    }
+
+    //下一条记录在文件里的位置
+    long position() {
+      return tailStart + tail.position();
+    }
+
+    void force() {
+      tail.force();
+    }
+
+    void close() throws IOException {
+      tail.force();
+      channel.close();
+    }
+
+    private void mapTail(long start) throws IOException {
+      tail = channel.map(FileChannel.MapMode.READ_WRITE, start, CHUNK);
+      tailStart = start;
+    }
+  }
+
+  //字符串前面的长度只有两个字节，按无符号读，超过65535个字节就写不下了，在写记录之前拒绝
+  private static byte[] checkLength(byte[] bytes, String what) {
+    if (bytes.length > 0xFFFF) {
+      throw new IllegalArgumentException(what + "太长了，UTF-8编码之后不能超过65535个字节: " + bytes.length);
+    }
+    return bytes;
+  }
+
+  private static void putBytes(ByteBuffer b, byte[] bytes) {
+    b.putShort((short) bytes.length);
+    b.put(bytes);
+  }
+
+  private static String getString(ByteBuffer b) {
+    byte[] bytes = new byte[b.getShort() & 0xFFFF];
+    b.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  //压缩时用的开放寻址哈希表，任务id -> REGISTER记录的位置和最新的lastFired，
+  //一百万个任务也只是几个long数组，不用给每个任务分配对象
+  //按存活任务数估计初始容量，但第一遍扫描会把注册过的任务都放进来，包括后来取消了的，
+  //所以用掉一半的槽就重建：丢掉已经取消的，存活的还是很多的话容量翻倍
+  private static final class LiveTable {
+
+    private static final long REMOVED = -1;
+
+    private long[] keys;
+    private long[] offsets;
+    private long[] lastFired;
+    private int mask;
+
+    //用掉的槽数，包括已经取消的
+    private int used;
+
+    LiveTable(int expected) {
+      allocate(Integer.highestOneBit(Math.max(expected, 16) - 1) << 1);
+    }
+
+    private void allocate(int capacity) {
+      keys = new long[capacity];
+      offsets = new long[capacity];
+      lastFired = new long[capacity];
+      mask = capacity - 1;
+      used = 0;
+    }
+
+    //任务id从1开始，0表示空位；同一个id只注册一次
+    void put(long id, long offset, long fired) {
+      if (used >= (mask + 1) >>> 1) {
+        rehash();
+      }
+      int i = slot(id);
+      keys[i] = id;
+      offsets[i] = offset;
+      lastFired[i] = fired;
+      used++;
+    }
+
+    //取消了的任务之后只会再遇到FIRED和CANCEL，find找不到它们结果也一样，可以直接丢掉
+    private void rehash() {
+      long[] oldKeys = keys;
+      long[] oldOffsets = offsets;
+      long[] oldLastFired = lastFired;
+      int live = 0;
+      for (int i = 0; i < oldKeys.length; i++) {
+        if (oldKeys[i] != 0 && oldOffsets[i] != REMOVED) {
+          live++;
+        }
+      }
+      //重建之后最多用掉四分之一，不会马上又要重建
+      allocate(live >= oldKeys.length >>> 2 ? oldKeys.length << 1 : oldKeys.length);
+      for (int i = 0; i < oldKeys.length; i++) {
+        if (oldKeys[i] != 0 && oldOffsets[i] != REMOVED) {
+          int j = slot(oldKeys[i]);
+          keys[j] = oldKeys[i];
+          offsets[j] = oldOffsets[i];
+          lastFired[j] = oldLastFired[i];
+          used++;
+        }
+      }
+    }
+
+    void fired(long id, long fired) {
+      int i = find(id);
+      if (i >= 0) {
+        lastFired[i] = fired;
+      }
+    }
+
+    void remove(long id) {
+      int i = find(id);
+      if (i >= 0) {
+        offsets[i] = REMOVED;
+      }
+    }
+
+    //存活的任务返回下标，否则返回-1
+    int find(long id) {
+      int i = slot(id);
+      return keys[i] == id && offsets[i] != REMOVED ? i : -1;
+    }
+
+    private int slot(long id) {
+      int i = (int) (id * 0x9E3779B97F4A7C15L >>> 32) & mask;
+      while (keys[i] != 0 && keys[i] != id) {
+        i = (i + 1) & mask;
+      }
+      return i;
+    }
+  }
+}
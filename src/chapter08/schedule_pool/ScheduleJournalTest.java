@@ -0,0 +1,110 @@
+/*
+ * Copyright 2021 Synopsys Inc. All rights reserved.
+ * This file is confidential material. Unauthorized distribution prohibited.
+ */
+package chapter08.schedule_pool;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+//一百万个任务写进日志，模拟停机两秒后重启：顺序扫一遍日志恢复所有任务，停机期间错过的触发按MisfirePolicy补上
+public class ScheduleJournalTest {
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    Path dir = Files.createTempDirectory("schedule-journal");
+    Path file = dir.resolve("schedules.journal");
+    int n = 1_000_000;
+    CronExpression[] crons = {
+        CronExpression.parse("0 18 * * THU"),
+        CronExpression.parse("*/5 * * * *"),
+        CronExpression.parse("0 0 1 * *"),
+    };
+    Runnable noop = () -> {
+    };
+    ExecutorService workers = Executors.newFixedThreadPool(2);
+
+    ScheduleJournal journal = new ScheduleJournal(file);
+    CronScheduler scheduler = new CronScheduler(workers, journal);
+    long start = System.nanoTime();
+    long now = System.currentTimeMillis();
+    for (int i = 0; i < n; i++) {
+      Trigger trigger = i % 2 == 0 ? crons[i % 3] : Trigger.fixedRate(now + 3_600_000 + i, 86_400_000);
+      scheduler.schedule("job-" + i, trigger, noop, MisfirePolicy.COALESCE);
+    }
+    System.out.println("注册 " + n + " 个任务用时 " + (System.nanoTime() - start) / 1_000_000 + "ms");
+    scheduler.schedule("report", Trigger.fixedRate(System.currentTimeMillis(), 500), noop, MisfirePolicy.COALESCE);
+    Thread.sleep(1200);
+    scheduler.stop();
+    journal.close();
+    System.out.println("日志文件 " + Files.size(file) / (1 << 20) + "MB");
+
+    //停机2秒，report任务错过了4次
+    Thread.sleep(2000);
+
+    start = System.nanoTime();
+    journal = new ScheduleJournal(file);
+    System.out.println("扫描日志恢复 " + journal.recovered().size() + " 个任务用时 "
+        + (System.nanoTime() - start) / 1_000_000 + "ms");
+    scheduler = new CronScheduler(workers, journal);
+    start = System.nanoTime();
+    List<CronScheduler.Job> jobs = scheduler.restore(name -> noop);
+    System.out.println("重新调度用时 " + (System.nanoTime() - start) / 1_000_000 + "ms，调度器里 " + scheduler.size()
+        + " 个任务");
+    CronScheduler.Job report = jobs.get(jobs.size() - 1);
+    Thread.sleep(1200);
+    System.out.println(report.getName() + " 重启后执行 " + report.getFireCount() + " 次，错过 "
+        + report.getMisfireCount() + " 次（停机期间的触发合并成了一次）");
+    scheduler.stop();
+    journal.close();
+
+    //压缩：1000个任务触发了十万次，日志里大部分是FIRED记录
+    Path small = dir.resolve("compact.journal");
+    journal = new ScheduleJournal(small);
+    for (int i = 0; i < 1000; i++) {
+      journal.register("job-" + i, crons[0], MisfirePolicy.SKIP, now);
+    }
+    for (int i = 0; i < 100_000; i++) {
+      journal.fired(1 + i % 1000, now + i);
+    }
+    for (int i = 0; i < 500; i++) {
+      journal.cancelled(1 + i * 2);
+    }
+    start = System.nanoTime();
+    boolean compacted = journal.maybeCompact();
+    System.out.println("压缩 " + compacted + " 用时 " + (System.nanoTime() - start) / 1_000_000 + "ms，剩余 "
+        + journal.size() + " 个任务");
+    journal.close();
+    journal = new ScheduleJournal(small);
+    ScheduleJournal.Registration last = journal.recovered().get(journal.recovered().size() - 1);
+    System.out.println("压缩后恢复 " + journal.recovered().size() + " 个任务，" + last.getName() + " 的lastFired "
+        + (last.getLastFired() - now));
+    journal.close();
+
+    //大部分任务都取消了：十万个任务只剩10个，第一遍扫描放进哈希表的任务远远多于按存活任务数估计的容量
+    Path cancelled = dir.resolve("cancelled.journal");
+    journal = new ScheduleJournal(cancelled);
+    for (int i = 0; i < 100_000; i++) {
+      journal.register("job-" + i, crons[1], MisfirePolicy.SKIP, now);
+    }
+    for (int i = 0; i < 99_990; i++) {
+      journal.cancelled(1 + i);
+    }
+    start = System.nanoTime();
+    compacted = journal.maybeCompact();
+    System.out.println("压缩 " + compacted + " 用时 " + (System.nanoTime() - start) / 1_000_000 + "ms，剩余 "
+        + journal.size() + " 个任务");
+    journal.close();
+    journal = new ScheduleJournal(cancelled);
+    System.out.println("压缩后恢复 " + journal.recovered().size() + " 个任务，第一个是 "
+        + journal.recovered().get(0).getName() + "，日志文件 " + Files.size(cancelled) / (1 << 20) + "MB");
+    journal.close();
+
+    workers.shutdown();
+    workers.awaitTermination(1, TimeUnit.SECONDS);
+  }
+}
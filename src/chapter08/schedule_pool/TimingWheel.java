@@ -0,0 +1,395 @@
+/*
+ * Copyright 2021 Synopsys Inc. All rights reserved.
+ * This file is confidential material. Unauthorized distribution prohibited.
+ */
+package chapter08.schedule_pool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+//分层时间轮：
+//ScheduledThreadPoolExecutor用堆来排序，添加和取消都是O(log n)，取消之后任务还留在堆里直到被执行到。
+//时间轮把时间切成固定长度的tick，第0层每个槽是1个tick，第L层每个槽是wheelSize^L个tick，
+//任务按到期时间直接放进对应的槽里，添加和取消都是O(1)。
+//延迟超过低层一圈的任务放进更高层（溢出轮），等时间走到它所在的槽时再降到低层，溢出轮用到的时候才创建。
+//
+//所有的槽只由tick线程访问，不需要加锁：
+//  schedule只是把任务放进newTimeouts，取消只是修改状态并放进cancelledTimeouts，
+//  tick线程每个tick把它们转移到时间轮上或者从槽里摘掉
+//到期的任务交给executor执行，tick线程自己不执行任务
+//周期任务和ScheduledThreadPoolExecutor一样，这一次执行完才放回时间轮，同一个任务不会在两个线程上同时执行
+public class TimingWheel {
+
+  //任务句柄，可以用来取消任务
+  public static final class Timeout {
+
+    private static final int INIT = 0;
+    private static final int CANCELLED = 1;
+    private static final int EXPIRED = 2;
+
+    private static final AtomicIntegerFieldUpdater<Timeout> STATE =
+        AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+    private final TimingWheel wheel;
+    private final Runnable task;
+
+    //交给executor执行的：一次性任务就是task，周期任务是包装了task的Periodic
+    private final Runnable runner;
+
+    //到期时间，相对于时间轮启动的纳秒数
+    //周期任务执行的时候由执行它的线程修改，通过newTimeouts交回给tick线程
+    private long deadline;
+
+    //周期，0表示只执行一次
+    private final long period;
+
+    private volatile int state;
+
+    //下面的字段只由tick线程访问
+    //所在的槽，双向链表，取消的时候可以O(1)摘掉
+    private Bucket bucket;
+    private Timeout prev;
+    private Timeout next;
+
+    Timeout(TimingWheel wheel, Runnable task, long deadline, long period) {
+      this.wheel = wheel;
+      this.task = task;
+      this.deadline = deadline;
+      this.period = period;
+      this.runner = period > 0 ? new Periodic() : task;
+    }
+
+    //周期任务每次执行的是它，task执行完（包括抛出异常）才算下一次的到期时间重新放回时间轮
+    private final class Periodic implements Runnable {
+      @Override
+      public void run() {
+        try {
+          task.run();
+        } finally {
+          wheel.reschedule(Timeout.this);
+        }
+      }
+
+      @Override
+      public String toString() {
+        return task.toString();
+      }
+    }
+
+    //取消成功返回true，已经执行过（一次性任务）或者已经取消过返回false
+    public boolean cancel() {
+      if (!STATE.compareAndSet(this, INIT, CANCELLED)) {
+        return false;
+      }
+      wheel.pending.decrementAndGet();
+      //从槽里摘掉交给tick线程做，这里只登记一下
+      wheel.cancelledTimeouts.add(this);
+      return true;
+    }
+
+    public boolean isCancelled() {
+      return state == CANCELLED;
+    }
+
+    public boolean isExpired() {
+      return state == EXPIRED;
+    }
+
+    @Override
+    public String toString() {
+      return "Timeout[" + task + "]";
+    }
+  }
+
+  //一个槽，任务的双向链表
+  private static final class Bucket {
+    private Timeout head;
+    private Timeout tail;
+
+    void add(Timeout t) {
+      t.bucket = this;
+      t.prev = tail;
+      t.next = null;
+      if (tail == null) {
+        head = t;
+      } else {
+        tail.next = t;
+      }
+      tail = t;
+    }
+
+    void remove(Timeout t) {
+      if (t.prev == null) {
+        head = t.next;
+      } else {
+        t.prev.next = t.next;
+      }
+      if (t.next == null) {
+        tail = t.prev;
+      } else {
+        t.next.prev = t.prev;
+      }
+      t.bucket = null;
+      t.prev = null;
+      t.next = null;
+    }
+
+    //把整个链表拿走，槽变空
+    Timeout clear() {
+      Timeout h = head;
+      head = null;
+      tail = null;
+      return h;
+    }
+  }
+
+  private final long tickNanos;
+
+  //wheelSize = 2^bits，下标可以用位运算
+  private final int bits;
+  private final int mask;
+
+  //levels.get(L)是第L层，用到的时候才创建
+  private final List<Bucket[]> levels = new ArrayList<>();
+
+  private final Executor executor;
+
+  private final long startTime = System.nanoTime();
+
+  //已经处理完的tick，只由tick线程访问
+  private long currentTick;
+
+  private final ConcurrentLinkedQueue<Timeout> newTimeouts = new ConcurrentLinkedQueue<>();
+  private final ConcurrentLinkedQueue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<>();
+
+  //还没到期也没被取消的任务数
+  private final AtomicLong pending = new AtomicLong();
+
+  private final Thread tickThread;
+
+  private volatile boolean stopped;
+
+  //tick是时间轮的精度，到期时间会向上取整到tick；wheelSize是每层的槽数，会向上取整到2的幂
+  public TimingWheel(long tick, TimeUnit unit, int wheelSize, Executor executor) {
+    if (tick <= 0 || wheelSize <= 1 || wheelSize > (1 << 20)) {
+      throw new IllegalArgumentException();
+    }
+    if (executor == null) {
+      throw new NullPointerException();
+    }
+    this.tickNanos = unit.toNanos(tick);
+    int size = Integer.highestOneBit(wheelSize - 1) << 1;
+    this.bits = Integer.numberOfTrailingZeros(size);
+    this.mask = size - 1;
+    this.executor = executor;
+    levels.add(newLevel());
+    this.tickThread = new Thread(this::run, "timing-wheel");
+    tickThread.start();
+  }
+
+  //延迟delay之后执行一次
+  public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+    return add(task, unit.toNanos(delay), 0);
+  }
+
+  //延迟initialDelay之后第一次执行，之后每隔period执行一次
+  //下一次的到期时间按上一次的到期时间加period计算，不会因为执行晚了而累积误差
+  //上一次执行完才放回时间轮，所以不会重叠执行；执行时间超过period或者tick线程被耽误了，
+  //错过的那几次直接跳过，不会一次补执行好几遍
+  public Timeout scheduleAtFixedRate(Runnable task, long initialDelay, long period, TimeUnit unit) {
+    if (period <= 0) {
+      throw new IllegalArgumentException();
+    }
+    return add(task, unit.toNanos(initialDelay), unit.toNanos(period));
+  }
+
+  private Timeout add(Runnable task, long delayNanos, long periodNanos) {
+    if (task == null) {
+      throw new NullPointerException();
+    }
+    if (stopped) {
+      throw new IllegalStateException("时间轮已经停止");
+    }
+    long deadline = System.nanoTime() - startTime + Math.max(0, delayNanos);
+    Timeout t = new Timeout(this, task, deadline, periodNanos);
+    //从0变成1说明tick线程可能因为时间轮空了在睡觉，需要把它叫醒
+    if (pending.getAndIncrement() == 0) {
+      newTimeouts.add(t);
+      LockSupport.unpark(tickThread);
+    } else {
+      newTimeouts.add(t);
+    }
+    return t;
+  }
+
+  //还没到期也没被取消的任务数
+  public long pendingCount() {
+    return pending.get();
+  }
+
+  //停止tick线程，还没到期的任务不会再执行
+  public void stop() {
+    stopped = true;
+    LockSupport.unpark(tickThread);
+  }
+
+  private Bucket[] newLevel() {
+    Bucket[] level = new Bucket[mask + 1];
+    for (int i = 0; i < level.length; i++) {
+      level[i] = new Bucket();
+    }
+    return level;
+  }
+
+  private void run() {
+    while (!stopped) {
+      processCancelled();
+      if (pending.get() == 0 && newTimeouts.isEmpty()) {
+        //时间轮是空的，不用每个tick醒一次，直接睡到有新任务
+        LockSupport.park(this);
+        //槽里已经没有任务了，中间的tick不需要一个一个走，直接跳到现在
+        currentTick = Math.max(currentTick, (System.nanoTime() - startTime) / tickNanos);
+        continue;
+      }
+      transferNew();
+      long now = System.nanoTime() - startTime;
+      long target = now / tickNanos;
+      //tick线程被耽误了的话，要把落下的tick都补上
+      while (currentTick < target) {
+        long tick = currentTick + 1;
+        cascade(tick);
+        Timeout expired = levels.get(0)[(int) tick & mask].clear();
+        currentTick = tick;
+        expire(expired);
+      }
+      long sleep = (currentTick + 1) * tickNanos - (System.nanoTime() - startTime);
+      if (sleep > 0) {
+        LockSupport.parkNanos(this, sleep);
+      }
+    }
+  }
+
+  //把新添加的任务放到时间轮上，已经取消的直接丢掉
+  private void transferNew() {
+    Timeout t;
+    while ((t = newTimeouts.poll()) != null) {
+      if (t.state == Timeout.INIT) {
+        place(t);
+      }
+    }
+  }
+
+  //把取消的任务从槽里摘掉，释放内存
+  private void processCancelled() {
+    Timeout t;
+    while ((t = cancelledTimeouts.poll()) != null) {
+      if (t.bucket != null) {
+        t.bucket.remove(t);
+      }
+    }
+  }
+
+  //到期tick向上取整，已经到期的放进下一个要处理的tick
+  private void place(Timeout t) {
+    long next = currentTick + 1;
+    long d = Math.max(next, (t.deadline + tickNanos - 1) / tickNanos);
+    //找最低的一层L，使得d和next在第L+1层属于同一个槽，这样到期之前第L层不会转满一圈
+    int level = 0;
+    while (true) {
+      int shift = bits * (level + 1);
+      if (shift >= 63 || (d >>> shift) == (next >>> shift)) {
+        break;
+      }
+      level++;
+    }
+    while (levels.size() <= level) {
+      //溢出轮用到的时候才创建
+      levels.add(newLevel());
+    }
+    int index = (int) (d >>> (bits * level)) & mask;
+    levels.get(level)[index].add(t);
+  }
+
+  //tick的低L*bits位都是0，说明走到了第L层一个新的槽，把这个槽里的任务降到低层
+  //在处理tick之前调用，这时currentTick还是tick-1，降下来的任务最早放进tick这个槽
+  private void cascade(long tick) {
+    for (int level = 1; level < levels.size(); level++) {
+      int shift = bits * level;
+      if ((tick & ((1L << shift) - 1)) != 0) {
+        return;
+      }
+      int index = (int) (tick >>> shift) & mask;
+      Timeout t = levels.get(level)[index].clear();
+      while (t != null) {
+        Timeout next = t.next;
+        t.bucket = null;
+        t.prev = null;
+        t.next = null;
+        //已经取消了但还没来得及从槽里摘掉的，直接丢掉
+        if (t.state == Timeout.INIT) {
+          place(t);
+        }
+        t = next;
+      }
+    }
+  }
+
+  //执行一个槽里的任务，周期任务执行完由Periodic放回时间轮
+  private void expire(Timeout t) {
+    while (t != null) {
+      Timeout next = t.next;
+      t.bucket = null;
+      t.prev = null;
+      t.next = null;
+      if (t.period > 0) {
+        if (t.state == Timeout.INIT && !dispatch(t)) {
+          //executor拒绝了，这一次就不执行了，直接排下一次
+          advance(t);
+          place(t);
+        }
+      } else if (Timeout.STATE.compareAndSet(t, Timeout.INIT, Timeout.EXPIRED)) {
+        pending.decrementAndGet();
+        dispatch(t);
+      }
+      t = next;
+    }
+  }
+
+  private boolean dispatch(Timeout t) {
+    try {
+      executor.execute(t.runner);
+      return true;
+    } catch (RuntimeException e) {
+      //executor拒绝了也不能影响tick线程
+      e.printStackTrace();
+      return false;
+    }
+  }
+
+  //周期任务执行完之后在执行它的线程上调用，槽只能由tick线程访问，所以和新任务一样经过newTimeouts
+  //这里和cancel并发也没关系：transferNew只放回状态还是INIT的任务
+  private void reschedule(Timeout t) {
+    if (t.state != Timeout.INIT || stopped) {
+      return;
+    }
+    advance(t);
+    newTimeouts.add(t);
+    //不用叫醒tick线程：周期任务一直算在pending里，tick线程每个tick都会醒来
+  }
+
+  //下一次的到期时间：上一次加period，已经过去了的周期跳过，保持原来的相位
+  private void advance(Timeout t) {
+    long now = System.nanoTime() - startTime;
+    long d = t.deadline + t.period;
+    if (d <= now) {
+      d += ((now - d) / t.period + 1) * t.period;
+    }
+    t.deadline = d;
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2021 Synopsys Inc. All rights reserved.
+ * This file is confidential material. Unauthorized distribution prohibited.
+ */
+package chapter08.schedule_pool;
+
+import java.time.DayOfWeek;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//一百万个超时任务，90%在到期之前被取消（比如请求已经正常返回了），比较时间轮和ScheduledThreadPoolExecutor
+public class TimingWheelTest {
+
+  public static void main(String[] args) throws InterruptedException {
+    int n = 1_000_000;
+    Runnable timeout = () -> {
+    };
+
+    ExecutorService workers = Executors.newFixedThreadPool(2);
+    TimingWheel wheel = new TimingWheel(1, TimeUnit.MILLISECONDS, 512, workers);
+    TimingWheel.Timeout[] timeouts = new TimingWheel.Timeout[n];
+    long start = System.nanoTime();
+    for (int i = 0; i < n; i++) {
+      timeouts[i] = wheel.schedule(timeout, 30 + i % 1000, TimeUnit.SECONDS);
+    }
+    for (int i = 0; i < n; i++) {
+      if (i % 10 != 0) {
+        timeouts[i].cancel();
+      }
+    }
+    System.out.println("时间轮 添加并取消用时 " + (System.nanoTime() - start) / 1_000_000 + "ms"
+        + "，剩余 " + wheel.pendingCount());
+
+    //设置取消时从堆里删除，否则取消的任务会一直占着内存直到到期
+    ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+    executor.setRemoveOnCancelPolicy(true);
+    ScheduledFuture<?>[] futures = new ScheduledFuture<?>[n];
+    start = System.nanoTime();
+    for (int i = 0; i < n; i++) {
+      futures[i] = executor.schedule(timeout, 30 + i % 1000, TimeUnit.SECONDS);
+    }
+    for (int i = 0; i < n; i++) {
+      if (i % 10 != 0) {
+        futures[i].cancel(false);
+      }
+    }
+    System.out.println("ScheduledThreadPoolExecutor 添加并取消用时 " + (System.nanoTime() - start) / 1_000_000 + "ms"
+        + "，剩余 " + executor.getQueue().size());
+    executor.shutdownNow();
+
+    //每10ms一次、每次要执行35ms的周期任务：上一次执行完才排下一次，错过的周期跳过，
+    //所以两个worker也不会同时执行它，300ms里大约执行8次，而不是30次
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+    AtomicInteger runs = new AtomicInteger();
+    TimingWheel.Timeout slow = wheel.scheduleAtFixedRate(() -> {
+      maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+      runs.incrementAndGet();
+      try {
+        Thread.sleep(35);
+      } catch (InterruptedException e) {
+        e.printStackTrace();
+      }
+      running.decrementAndGet();
+    }, 0, 10, TimeUnit.MILLISECONDS);
+    Thread.sleep(300);
+    slow.cancel();
+    System.out.println("慢的周期任务 执行了 " + runs.get() + " 次，最多同时执行 " + maxRunning.get() + " 个");
+
+    //每周四18:00:00执行的任务，延迟一周左右，会放在溢出轮上
+    LocalDateTime now = LocalDateTime.now();
+    LocalDateTime time = now.withHour(18).withMinute(0).withSecond(0).withNano(0).with(DayOfWeek.THURSDAY);
+    if (now.compareTo(time) > 0) {
+      time = time.plusWeeks(1);
+    }
+    long initialDelay = Duration.between(now, time).toMillis();
+    long period = 1000 * 60 * 60 * 24 * 7;
+    wheel.scheduleAtFixedRate(() -> System.out.println("running"), initialDelay, period, TimeUnit.MILLISECONDS);
+    System.out.println("周四的任务 " + initialDelay / 1000 + " 秒之后执行");
+
+    wheel.stop();
+    workers.shutdown();
+  }
+}
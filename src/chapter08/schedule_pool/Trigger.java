@@ -0,0 +1,55 @@
+/*
+ * Copyright 2021 Synopsys Inc. All rights reserved.
+ * This file is confidential material. Unauthorized distribution prohibited.
+ */
+package chapter08.schedule_pool;
+
+//触发规则：给定一个时间，算出它之后的下一次触发时间
+//CronScheduler的调度线程每次触发都会调用，实现不应该分配内存
+public interface Trigger {
+
+  //after之后（不包括after）下一次触发的时间，都是epoch毫秒，永远不会再触发返回-1
+  long next(long afterMillis);
+
+  //从anchor开始每隔period毫秒触发一次，anchor本身也是一次触发
+  static Trigger fixedRate(long anchorMillis, long periodMillis) {
+    return new FixedRate(anchorMillis, periodMillis);
+  }
+
+  //固定频率，单独写成类而不是lambda，这样ScheduleJournal可以把anchor和period存下来
+  final class FixedRate implements Trigger {
+
+    private final long anchor;
+    private final long period;
+
+    FixedRate(long anchor, long period) {
+      if (period <= 0) {
+        throw new IllegalArgumentException();
+      }
+      this.anchor = anchor;
+      this.period = period;
+    }
+
+    @Override
+    public long next(long after) {
+      if (after < anchor) {
+        return anchor;
+      }
+      //直接算出after之后的第一个时间点，不用一个周期一个周期地加
+      return anchor + (Math.floorDiv(after - anchor, period) + 1) * period;
+    }
+
+    public long getAnchor() {
+      return anchor;
+    }
+
+    public long getPeriod() {
+      return period;
+    }
+
+    @Override
+    public String toString() {
+      return "FixedRate[" + anchor + ", " + period + "ms]";
+    }
+  }
+}
@@ -0,0 +1,588 @@
+/*
+ * Copyright 2021 Synopsys Inc. All rights reserved.
+ * This file is confidential material. Unauthorized distribution prohibited.
+ */
+package chapter08.fork_join;
+
+import java.util.ArrayList;
+import java.util.List;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+//用Vector API写的叶子循环，每次从数组里取一个向量的数据一起算，最后把各个lane归约成一个数，剩下不够一个向量的用普通循环
+//编译和运行都要加--add-modules jdk.incubator.vector，所以单独放在vector模块里，只有mvn -Pvector才会编译，
+//src下的代码不用带这个参数也能编译；运行时只通过VectorSupport用反射加载
+//
+//向量的宽度（species）必须是编译期常量，JIT才会把向量操作编译成SIMD指令，否则每个向量都是一个对象，比普通循环慢十几倍。
+//把species当参数传给公共的方法也不行：热循环在那个方法里被单独编译的时候species不是常量。
+//所以每种宽度一个子类，species放在static final字段里，循环在每个子类里各写一遍
+abstract class VectorLeafKernels implements LeafKernels {
+
+  //按CPU支持的最宽的向量
+  public static LeafKernels preferred() {
+    return of(VectorShape.preferredShape());
+  }
+
+  //从64位到CPU支持的最宽的每一种宽度，更宽的只能用软件模拟，没有意义
+  public static List<LeafKernels> all() {
+    List<LeafKernels> kernels = new ArrayList<>();
+    int maxBits = VectorShape.preferredShape().vectorBitSize();
+    for (VectorShape shape : new VectorShape[] {VectorShape.S_64_BIT, VectorShape.S_128_BIT,
+        VectorShape.S_256_BIT, VectorShape.S_512_BIT}) {
+      if (shape.vectorBitSize() <= maxBits) {
+        kernels.add(of(shape));
+      }
+    }
+    return kernels;
+  }
+
+  private static LeafKernels of(VectorShape shape) {
+    switch (shape) {
+      case S_64_BIT:
+        return new V64();
+      case S_128_BIT:
+        return new V128();
+      case S_256_BIT:
+        return new V256();
+      case S_512_BIT:
+        return new V512();
+      default:
+        //ARM SVE的S_Max_BIT，按最宽的固定宽度处理
+        return new V512();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return name();
+  }
+
+  //下面四个类除了species以外完全一样；double的dot乘和加分开做，不用fma，舍入和普通循环一样，只有相加的顺序不同
+
+  private static final class V64 extends VectorLeafKernels {
+
+    private static final VectorSpecies<Long> LONGS = LongVector.SPECIES_64;
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_64;
+
+    @Override
+    public String name() {
+      return "vector-64";
+    }
+
+    @Override
+    public long sum(long[] a, int from, int to) {
+      int i = from;
+      int upper = from + LONGS.loopBound(to - from);
+      LongVector acc = LongVector.zero(LONGS);
+      for (; i < upper; i += LONGS.length()) {
+        acc = acc.add(LongVector.fromArray(LONGS, a, i));
+      }
+      long r = acc.reduceLanes(VectorOperators.ADD);
+      for (; i < to; i++) {
+        r += a[i];
+      }
+      return r;
+    }
+
+    @Override
+    public long min(long[] a, int from, int to) {
+      int i = from;
+      int upper = from + LONGS.loopBound(to - from);
+      LongVector acc = LongVector.broadcast(LONGS, Long.MAX_VALUE);
+      for (; i < upper; i += LONGS.length()) {
+        acc = acc.min(LongVector.fromArray(LONGS, a, i));
+      }
+      long r = acc.reduceLanes(VectorOperators.MIN);
+      for (; i < to; i++) {
+        r = Math.min(r, a[i]);
+      }
+      return r;
+    }
+
+    @Override
+    public long max(long[] a, int from, int to) {
+      int i = from;
+      int upper = from + LONGS.loopBound(to - from);
+      LongVector acc = LongVector.broadcast(LONGS, Long.MIN_VALUE);
+      for (; i < upper; i += LONGS.length()) {
+        acc = acc.max(LongVector.fromArray(LONGS, a, i));
+      }
+      long r = acc.reduceLanes(VectorOperators.MAX);
+      for (; i < to; i++) {
+        r = Math.max(r, a[i]);
+      }
+      return r;
+    }
+
+    @Override
+    public long dot(long[] a, long[] b, int from, int to) {
+      int i = from;
+      int upper = from + LONGS.loopBound(to - from);
+      LongVector acc = LongVector.zero(LONGS);
+      for (; i < upper; i += LONGS.length()) {
+        acc = acc.add(LongVector.fromArray(LONGS, a, i).mul(LongVector.fromArray(LONGS, b, i)));
+      }
+      long r = acc.reduceLanes(VectorOperators.ADD);
+      for (; i < to; i++) {
+        r += a[i] * b[i];
+      }
+      return r;
+    }
+
+    @Override
+    public double sum(double[] a, int from, int to) {
+      int i = from;
+      int upper = from + DOUBLES.loopBound(to - from);
+      DoubleVector acc = DoubleVector.zero(DOUBLES);
+      for (; i < upper; i += DOUBLES.length()) {
+        acc = acc.add(DoubleVector.fromArray(DOUBLES, a, i));
+      }
+      double r = acc.reduceLanes(VectorOperators.ADD);
+      for (; i < to; i++) {
+        r += a[i];
+      }
+      return r;
+    }
+
+    @Override
+    public double min(double[] a, int from, int to) {
+      int i = from;
+      int upper = from + DOUBLES.loopBound(to - from);
+      DoubleVector acc = DoubleVector.broadcast(DOUBLES, Double.POSITIVE_INFINITY);
+      for (; i < upper; i += DOUBLES.length()) {
+        acc = acc.min(DoubleVector.fromArray(DOUBLES, a, i));
+      }
+      double r = acc.reduceLanes(VectorOperators.MIN);
+      for (; i < to; i++) {
+        r = Math.min(r, a[i]);
+      }
+      return r;
+    }
+
+    @Override
+    public double max(double[] a, int from, int to) {
+      int i = from;
+      int upper = from + DOUBLES.loopBound(to - from);
+      DoubleVector acc = DoubleVector.broadcast(DOUBLES, Double.NEGATIVE_INFINITY);
+      for (; i < upper; i += DOUBLES.length()) {
+        acc = acc.max(DoubleVector.fromArray(DOUBLES, a, i));
+      }
+      double r = acc.reduceLanes(VectorOperators.MAX);
+      for (; i < to; i++) {
+        r = Math.max(r, a[i]);
+      }
+      return r;
+    }
+
+    @Override
+    public double dot(double[] a, double[] b, int from, int to) {
+      int i = from;
+      int upper = from + DOUBLES.loopBound(to - from);
+      DoubleVector acc = DoubleVector.zero(DOUBLES);
+      for (; i < upper; i += DOUBLES.length()) {
+        acc = acc.add(DoubleVector.fromArray(DOUBLES, a, i).mul(DoubleVector.fromArray(DOUBLES, b, i)));
+      }
+      double r = acc.reduceLanes(VectorOperators.ADD);
+      for (; i < to; i++) {
+        r += a[i] * b[i];
+      }
+      return r;
+    }
+  }
+
+  private static final class V128 extends VectorLeafKernels {
+
+    private static final VectorSpecies<Long> LONGS = LongVector.SPECIES_128;
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_128;
+
+    @Override
+    public String name() {
+      return "vector-128";
+    }
+
+    @Override
+    public long sum(long[] a, int from, int to) {
+      int i = from;
+      int upper = from + LONGS.loopBound(to - from);
+      LongVector acc = LongVector.zero(LONGS);
+      for (; i < upper; i += LONGS.length()) {
+        acc = acc.add(LongVector.fromArray(LONGS, a, i));
+      }
+      long r = acc.reduceLanes(VectorOperators.ADD);
+      for (; i < to; i++) {
+        r += a[i];
+      }
+      return r;
+    }
+
+    @Override
+    public long min(long[] a, int from, int to) {
+      int i = from;
+      int upper = from + LONGS.loopBound(to - from);
+      LongVector acc = LongVector.broadcast(LONGS, Long.MAX_VALUE);
+      for (; i < upper; i += LONGS.length()) {
+        acc = acc.min(LongVector.fromArray(LONGS, a, i));
+      }
+      long r = acc.reduceLanes(VectorOperators.MIN);
+      for (; i < to; i++) {
+        r = Math.min(r, a[i]);
+      }
+      return r;
+    }
+
+    @Override
+    public long max(long[] a, int from, int to) {
+      int i = from;
+      int upper = from + LONGS.loopBound(to - from);
+      LongVector acc = LongVector.broadcast(LONGS, Long.MIN_VALUE);
+      for (; i < upper; i += LONGS.length()) {
+        acc = acc.max(LongVector.fromArray(LONGS, a, i));
+      }
+      long r = acc.reduceLanes(VectorOperators.MAX);
+      for (; i < to; i++) {
+        r = Math.max(r, a[i]);
+      }
+      return r;
+    }
+
+    @Override
+    public long dot(long[] a, long[] b, int from, int to) {
+      int i = from;
+      int upper = from + LONGS.loopBound(to - from);
+      LongVector acc = LongVector.zero(LONGS);
+      for (; i < upper; i += LONGS.length()) {
+        acc = acc.add(LongVector.fromArray(LONGS, a, i).mul(LongVector.fromArray(LONGS, b, i)));
+      }
+      long r = acc.reduceLanes(VectorOperators.ADD);
+      for (; i < to; i++) {
+        r += a[i] * b[i];
+      }
+      return r;
+    }
+
+    @Override
+    public double sum(double[] a, int from, int to) {
+      int i = from;
+      int upper = from + DOUBLES.loopBound(to - from);
+      DoubleVector acc = DoubleVector.zero(DOUBLES);
+      for (; i < upper; i += DOUBLES.length()) {
+        acc = acc.add(DoubleVector.fromArray(DOUBLES, a, i));
+      }
+      double r = acc.reduceLanes(VectorOperators.ADD);
+      for (; i < to; i++) {
+        r += a[i];
+      }
+      return r;
+    }
+
+    @Override
+    public double min(double[] a, int from, int to) {
+      int i = from;
+      int upper = from + DOUBLES.loopBound(to - from);
+      DoubleVector acc = DoubleVector.broadcast(DOUBLES, Double.POSITIVE_INFINITY);
+      for (; i < upper; i += DOUBLES.length()) {
+        acc = acc.min(DoubleVector.fromArray(DOUBLES, a, i));
+      }
+      double r = acc.reduceLanes(VectorOperators.MIN);
+      for (; i < to; i++) {
+        r = Math.min(r, a[i]);
+      }
+      return r;
+    }
+
+    @Override
+    public double max(double[] a, int from, int to) {
+      int i = from;
+      int upper = from + DOUBLES.loopBound(to - from);
+      DoubleVector acc = DoubleVector.broadcast(DOUBLES, Double.NEGATIVE_INFINITY);
+      for (; i < upper; i += DOUBLES.length()) {
+        acc = acc.max(DoubleVector.fromArray(DOUBLES, a, i));
+      }
+      double r = acc.reduceLanes(VectorOperators.MAX);
+      for (; i < to; i++) {
+        r = Math.max(r, a[i]);
+      }
+      return r;
+    }
+
+    @Override
+    public double dot(double[] a, double[] b, int from, int to) {
+      int i = from;
+      int upper = from + DOUBLES.loopBound(to - from);
+      DoubleVector acc = DoubleVector.zero(DOUBLES);
+      for (; i < upper; i += DOUBLES.length()) {
+        acc = acc.add(DoubleVector.fromArray(DOUBLES, a, i).mul(DoubleVector.fromArray(DOUBLES, b, i)));
+      }
+      double r = acc.reduceLanes(VectorOperators.ADD);
+      for (; i < to; i++) {
+        r += a[i] * b[i];
+      }
+      return r;
+    }
+  }
+
+  private static final class V256 extends VectorLeafKernels {
+
+    private static final VectorSpecies<Long> LONGS = LongVector.SPECIES_256;
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_256;
+
+    @Override
+    public String name() {
+      return "vector-256";
+    }
+
+    @Override
+    public long sum(long[] a, int from, int to) {
+      int i = from;
+      int upper = from + LONGS.loopBound(to - from);
+      LongVector acc = LongVector.zero(LONGS);
+      for (; i < upper; i += LONGS.length()) {
+        acc = acc.add(LongVector.fromArray(LONGS, a, i));
+      }
+      long r = acc.reduceLanes(VectorOperators.ADD);
+      for (; i < to; i++) {
+        r += a[i];
+      }
+      return r;
+    }
+
+    @Override
+    public long min(long[] a, int from, int to) {
+      int i = from;
+      int upper = from + LONGS.loopBound(to - from);
+      LongVector acc = LongVector.broadcast(LONGS, Long.MAX_VALUE);
+      for (; i < upper; i += LONGS.length()) {
+        acc = acc.min(LongVector.fromArray(LONGS, a, i));
+      }
+      long r = acc.reduceLanes(VectorOperators.MIN);
+      for (; i < to; i++) {
+        r = Math.min(r, a[i]);
+      }
+      return r;
+    }
+
+    @Override
+    public long max(long[] a, int from, int to) {
+      int i = from;
+      int upper = from + LONGS.loopBound(to - from);
+      LongVector acc = LongVector.broadcast(LONGS, Long.MIN_VALUE);
+      for (; i < upper; i += LONGS.length()) {
+        acc = acc.max(LongVector.fromArray(LONGS, a, i));
+      }
+      long r = acc.reduceLanes(VectorOperators.MAX);
+      for (; i < to; i++) {
+        r = Math.max(r, a[i]);
+      }
+      return r;
+    }
+
+    @Override
+    public long dot(long[] a, long[] b, int from, int to) {
+      int i = from;
+      int upper = from + LONGS.loopBound(to - from);
+      LongVector acc = LongVector.zero(LONGS);
+      for (; i < upper; i += LONGS.length()) {
+        acc = acc.add(LongVector.fromArray(LONGS, a, i).mul(LongVector.fromArray(LONGS, b, i)));
+      }
+      long r = acc.reduceLanes(VectorOperators.ADD);
+      for (; i < to; i++) {
+        r += a[i] * b[i];
+      }
+      return r;
+    }
+
+    @Override
+    public double sum(double[] a, int from, int to) {
+      int i = from;
+      int upper = from + DOUBLES.loopBound(to - from);
+      DoubleVector acc = DoubleVector.zero(DOUBLES);
+      for (; i < upper; i += DOUBLES.length()) {
+        acc = acc.add(DoubleVector.fromArray(DOUBLES, a, i));
+      }
+      double r = acc.reduceLanes(VectorOperators.ADD);
+      for (; i < to; i++) {
+        r += a[i];
+      }
+      return r;
+    }
+
+    @Override
+    public double min(double[] a, int from, int to) {
+      int i = from;
+      int upper = from + DOUBLES.loopBound(to - from);
+      DoubleVector acc = DoubleVector.broadcast(DOUBLES, Double.POSITIVE_INFINITY);
+      for (; i < upper; i += DOUBLES.length()) {
+        acc = acc.min(DoubleVector.fromArray(DOUBLES, a, i));
+      }
+      double r = acc.reduceLanes(VectorOperators.MIN);
+      for (; i < to; i++) {
+        r = Math.min(r, a[i]);
+      }
+      return r;
+    }
+
+    @Override
+    public double max(double[] a, int from, int to) {
+      int i = from;
+      int upper = from + DOUBLES.loopBound(to - from);
+      DoubleVector acc = DoubleVector.broadcast(DOUBLES, Double.NEGATIVE_INFINITY);
+      for (; i < upper; i += DOUBLES.length()) {
+        acc = acc.max(DoubleVector.fromArray(DOUBLES, a, i));
+      }
+      double r = acc.reduceLanes(VectorOperators.MAX);
+      for (; i < to; i++) {
+        r = Math.max(r, a[i]);
+      }
+      return r;
+    }
+
+    @Override
+    public double dot(double[] a, double[] b, int from, int to) {
+      int i = from;
+      int upper = from + DOUBLES.loopBound(to - from);
+      DoubleVector acc = DoubleVector.zero(DOUBLES);
+      for (; i < upper; i += DOUBLES.length()) {
+        acc = acc.add(DoubleVector.fromArray(DOUBLES, a, i).mul(DoubleVector.fromArray(DOUBLES, b, i)));
+      }
+      double r = acc.reduceLanes(VectorOperators.ADD);
+      for (; i < to; i++) {
+        r += a[i] * b[i];
+      }
+      return r;
+    }
+  }
+
+  private static final class V512 extends VectorLeafKernels {
+
+    private static final VectorSpecies<Long> LONGS = LongVector.SPECIES_512;
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_512;
+
+    @Override
+    public String name() {
+      return "vector-512";
+    }
+
+    @Override
+    public long sum(long[] a, int from, int to) {
+      int i = from;
+      int upper = from + LONGS.loopBound(to - from);
+      LongVector acc = LongVector.zero(LONGS);
+      for (; i < upper; i += LONGS.length()) {
+        acc = acc.add(LongVector.fromArray(LONGS, a, i));
+      }
+      long r = acc.reduceLanes(VectorOperators.ADD);
+      for (; i < to; i++) {
+        r += a[i];
+      }
+      return r;
+    }
+
+    @Override
+    public long min(long[] a, int from, int to) {
+      int i = from;
+      int upper = from + LONGS.loopBound(to - from);
+      LongVector acc = LongVector.broadcast(LONGS, Long.MAX_VALUE);
+      for (; i < upper; i += LONGS.length()) {
+        acc = acc.min(LongVector.fromArray(LONGS, a, i));
+      }
+      long r = acc.reduceLanes(VectorOperators.MIN);
+      for (; i < to; i++) {
+        r = Math.min(r, a[i]);
+      }
+      return r;
+    }
+
+    @Override
+    public long max(long[] a, int from, int to) {
+      int i = from;
+      int upper = from + LONGS.loopBound(to - from);
+      LongVector acc = LongVector.broadcast(LONGS, Long.MIN_VALUE);
+      for (; i < upper; i += LONGS.length()) {
+        acc = acc.max(LongVector.fromArray(LONGS, a, i));
+      }
+      long r = acc.reduceLanes(VectorOperators.MAX);
+      for (; i < to; i++) {
+        r = Math.max(r, a[i]);
+      }
+      return r;
+    }
+
+    @Override
+    public long dot(long[] a, long[] b, int from, int to) {
+      int i = from;
+      int upper = from + LONGS.loopBound(to - from);
+      LongVector acc = LongVector.zero(LONGS);
+      for (; i < upper; i += LONGS.length()) {
+        acc = acc.add(LongVector.fromArray(LONGS, a, i).mul(LongVector.fromArray(LONGS, b, i)));
+      }
+      long r = acc.reduceLanes(VectorOperators.ADD);
+      for (; i < to; i++) {
+        r += a[i] * b[i];
+      }
+      return r;
+    }
+
+    @Override
+    public double sum(double[] a, int from, int to) {
+      int i = from;
+      int upper = from + DOUBLES.loopBound(to - from);
+      DoubleVector acc = DoubleVector.zero(DOUBLES);
+      for (; i < upper; i += DOUBLES.length()) {
+        acc = acc.add(DoubleVector.fromArray(DOUBLES, a, i));
+      }
+      double r = acc.reduceLanes(VectorOperators.ADD);
+      for (; i < to; i++) {
+        r += a[i];
+      }
+      return r;
+    }
+
+    @Override
+    public double min(double[] a, int from, int to) {
+      int i = from;
+      int upper = from + DOUBLES.loopBound(to - from);
+      DoubleVector acc = DoubleVector.broadcast(DOUBLES, Double.POSITIVE_INFINITY);
+      for (; i < upper; i += DOUBLES.length()) {
+        acc = acc.min(DoubleVector.fromArray(DOUBLES, a, i));
+      }
+      double r = acc.reduceLanes(VectorOperators.MIN);
+      for (; i < to; i++) {
+        r = Math.min(r, a[i]);
+      }
+      return r;
+    }
+
+    @Override
+    public double max(double[] a, int from, int to) {
+      int i = from;
+      int upper = from + DOUBLES.loopBound(to - from);
+      DoubleVector acc = DoubleVector.broadcast(DOUBLES, Double.NEGATIVE_INFINITY);
+      for (; i < upper; i += DOUBLES.length()) {
+        acc = acc.max(DoubleVector.fromArray(DOUBLES, a, i));
+      }
+      double r = acc.reduceLanes(VectorOperators.MAX);
+      for (; i < to; i++) {
+        r = Math.max(r, a[i]);
+      }
+      return r;
+    }
+
+    @Override
+    public double dot(double[] a, double[] b, int from, int to) {
+      int i = from;
+      int upper = from + DOUBLES.loopBound(to - from);
+      DoubleVector acc = DoubleVector.zero(DOUBLES);
+      for (; i < upper; i += DOUBLES.length()) {
+        acc = acc.add(DoubleVector.fromArray(DOUBLES, a, i).mul(DoubleVector.fromArray(DOUBLES, b, i)));
+      }
+      double r = acc.reduceLanes(VectorOperators.ADD);
+      for (; i < to; i++) {
+        r += a[i] * b[i];
+      }
+      return r;
+    }
+  }
+}